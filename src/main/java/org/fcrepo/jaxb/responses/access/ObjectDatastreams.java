@@ -16,6 +16,7 @@
 
 package org.fcrepo.jaxb.responses.access;
 
+import java.util.List;
 import java.util.Set;
 
 import javax.xml.bind.annotation.XmlAttribute;
@@ -23,12 +24,21 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlType;
 
+import org.fcrepo.jaxb.responses.management.DatastreamProfile;
+
 @XmlRootElement(name = "objectDatastreams")
 public class ObjectDatastreams {
 
     @XmlElement(name = "datastream")
     public Set<DatastreamElement> datastreams;
 
+    /**
+     * The full profile of each datastream, when asked for
+     */
+    @XmlElement(name = "datastreamProfile",
+            namespace = "http://www.fedora.info/definitions/1/0/management/")
+    public List<DatastreamProfile> profiles;
+
     @XmlType(name = "datastream")
     public static class DatastreamElement {
 
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.jaxb.responses.management;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Per-item outcome of a batch ingest.
+ */
+@XmlRootElement(name = "batchIngestResult")
+public class BatchIngestResult {
+
+    @XmlAttribute
+    public int created;
+
+    @XmlAttribute
+    public int failed;
+
+    @XmlElement(name = "item")
+    public List<Item> items;
+
+    /**
+     * Why the batch stopped before the end of the request body, if it did.
+     */
+    @XmlElement
+    public String error;
+
+    public BatchIngestResult() {
+        this.items = new ArrayList<Item>();
+    }
+
+    @XmlType(name = "item")
+    public static class Item {
+
+        @XmlAttribute
+        public String pid;
+
+        @XmlAttribute
+        public int status;
+
+        @XmlElement
+        public String message;
+
+        public Item(final String pid, final int status) {
+            this.pid = pid;
+            this.status = status;
+        }
+
+        public Item() {
+        }
+    }
+
+}
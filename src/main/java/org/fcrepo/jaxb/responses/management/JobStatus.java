@@ -0,0 +1,65 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.jaxb.responses.management;
+
+import java.util.Date;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Progress of a background maintenance job.
+ */
+@XmlRootElement(name = "jobStatus")
+public class JobStatus {
+
+    @XmlAttribute
+    public String id;
+
+    @XmlAttribute
+    public String type;
+
+    @XmlElement
+    public JobStates state;
+
+    @XmlElement
+    public long processed;
+
+    @XmlElement
+    public long failed;
+
+    @XmlElement
+    public Long total;
+
+    @XmlElement
+    public double throughput;
+
+    @XmlElement
+    public Date started;
+
+    @XmlElement
+    public Date finished;
+
+    @XmlElement
+    public String message;
+
+    public static enum JobStates {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+}
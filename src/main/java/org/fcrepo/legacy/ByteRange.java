@@ -0,0 +1,173 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.Integer.getInteger;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An inclusive range of bytes of a datastream's content, as asked for in a
+ * Range header.
+ */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private static final int MAXIMUM_RANGES = getInteger(
+            "fcrepo.legacy.content.ranges", 32);
+
+    private static final Comparator<ByteRange> byFirst =
+            new Comparator<ByteRange>() {
+
+                @Override
+                public int compare(final ByteRange a, final ByteRange b) {
+                    return a.first < b.first ? -1 : a.first == b.first ? 0 : 1;
+                }
+            };
+
+    public final long first;
+
+    public final long last;
+
+    /**
+     * @param first position of the first byte
+     * @param last position of the last byte
+     */
+    public ByteRange(final long first, final long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * @return the number of bytes in the range
+     */
+    public long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * @param size size of the whole content
+     * @return the value of a Content-Range header for this range
+     */
+    public String contentRange(final long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    /**
+     * Parses a Range header. Ranges are clipped to the content, sorted, and
+     * merged where they overlap or touch, so each byte is sent at most once
+     * and the content is read front to back.
+     * 
+     * @param header the value of the Range header, or null
+     * @param size size of the whole content
+     * @return the ranges, empty if none can be satisfied, or null if the
+     *         header is absent, malformed or asks for too many ranges and
+     *         the whole content should be sent
+     */
+    public static List<ByteRange> parse(final String header, final long size) {
+        if (header == null || !header.trim().startsWith(BYTES_UNIT)) {
+            return null;
+        }
+        final String[] specs =
+                header.trim().substring(BYTES_UNIT.length()).split(",");
+        if (specs.length > MAXIMUM_RANGES) {
+            return null;
+        }
+        final List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+        try {
+            for (final String value : specs) {
+                final String spec = value.trim();
+                final int dash = spec.indexOf('-');
+                if (dash < 0) {
+                    return null;
+                }
+                final String start = spec.substring(0, dash).trim();
+                final String end = spec.substring(dash + 1).trim();
+                if (start.isEmpty()) {
+                    // the last n bytes
+                    final long suffix = Long.parseLong(end);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && size > 0) {
+                        ranges.add(new ByteRange(max(0, size - suffix),
+                                size - 1));
+                    }
+                    continue;
+                }
+                final long first = Long.parseLong(start);
+                final long last =
+                        end.isEmpty() ? size - 1 : Long.parseLong(end);
+                if (first < 0 || last < first) {
+                    return null;
+                }
+                if (first < size) {
+                    ranges.add(new ByteRange(first, min(last, size - 1)));
+                }
+            }
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+        return coalesce(ranges);
+    }
+
+    private static List<ByteRange> coalesce(final List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        Collections.sort(ranges, byFirst);
+        final List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (final ByteRange next : ranges.subList(1, ranges.size())) {
+            if (next.first <= current.last + 1) {
+                current =
+                        new ByteRange(current.first, max(current.last,
+                                next.last));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (!(object instanceof ByteRange)) {
+            return false;
+        }
+        final ByteRange other = (ByteRange) object;
+        return first == other.first && last == other.last;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (first * 31 + last);
+    }
+
+    @Override
+    public String toString() {
+        return first + "-" + last;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.hash.Hashing.md5;
+import static java.util.Locale.US;
+
+import java.net.URI;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+
+import org.fcrepo.jaxb.responses.access.ObjectProfile;
+
+import com.google.common.hash.Hasher;
+
+/**
+ * Builds the HTTP validators (ETag, Last-Modified) and cache directives used
+ * for conditional requests against objects and datastreams.
+ */
+public class CacheValidators {
+
+    /**
+     * HTTP dates carry no sub-second part, so comparisons against
+     * If-Modified-Since must be made at second precision.
+     *
+     * @param date
+     * @return the date truncated to the second
+     */
+    public static Date roundToSeconds(final Date date) {
+        return new Date(date.getTime() - date.getTime() % 1000);
+    }
+
+    /**
+     * The tag covers the negotiated representation and every field of the
+     * profile, so XML and JSON never share a validator and two changes
+     * within the same millisecond still yield different tags.
+     *
+     * @param profile the object profile as it would be served
+     * @param type the negotiated media type, or null
+     * @return a weak tag for the object profile
+     */
+    public static EntityTag objectProfileTag(final ObjectProfile profile,
+            final MediaType type) {
+        final Hasher hasher = md5().newHasher();
+        put(hasher, type);
+        put(hasher, profile.pid);
+        put(hasher, profile.objLabel);
+        put(hasher, profile.objOwnerId);
+        put(hasher, profile.objState);
+        put(hasher, profile.objSize);
+        put(hasher, profile.objModels);
+        put(hasher, profile.objCreateDate == null ? null : profile
+                .objCreateDate.getTime());
+        put(hasher, profile.objLastModDate == null ? null : profile
+                .objLastModDate.getTime());
+        return new EntityTag(hasher.hash().toString(), true);
+    }
+
+    /**
+     * The content digest stands in for the content itself; the MIME type is
+     * the only other field of the profile that changes without it.
+     *
+     * @param digest the datastream content digest, or null
+     * @param mimeType the datastream's MIME type
+     * @param lastModified the datastream's last modification date
+     * @param type the negotiated media type, or null
+     * @return a weak tag for the datastream profile
+     */
+    public static EntityTag datastreamProfileTag(final URI digest,
+            final String mimeType, final Date lastModified,
+            final MediaType type) {
+        final Hasher hasher = md5().newHasher();
+        put(hasher, type);
+        put(hasher, digest);
+        put(hasher, mimeType);
+        put(hasher, lastModified.getTime());
+        return new EntityTag(hasher.hash().toString(), true);
+    }
+
+    private static void put(final Hasher hasher, final Object value) {
+        // length-prefixed, so that adjacent fields cannot run together
+        final String text = value == null ? "" : value.toString();
+        hasher.putInt(value == null ? -1 : text.length());
+        hasher.putString(text, UTF_8);
+    }
+
+    /**
+     * Whether a range request may be served from the current content: the
+     * If-Range header, if any, must name its strong tag or its exact
+     * modification date.
+     *
+     * @param ifRange the If-Range header, or null
+     * @param etag the content's strong tag
+     * @param lastModified the content's last modification date
+     * @return whether the Range header should be honoured
+     */
+    public static boolean ifRangeMatches(final String ifRange,
+            final EntityTag etag, final Date lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        final String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            try {
+                final EntityTag tag = EntityTag.valueOf(value);
+                return !tag.isWeak() && !etag.isWeak() && tag.equals(etag);
+            } catch (final IllegalArgumentException e) {
+                return false;
+            }
+        }
+        final SimpleDateFormat httpDate =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", US);
+        try {
+            return lastModified != null &&
+                    httpDate.parse(value).equals(roundToSeconds(lastModified));
+        } catch (final ParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return directives that let caches store a response but require them to
+     *         revalidate it on every use
+     */
+    public static CacheControl mustRevalidate() {
+        final CacheControl cc = new CacheControl();
+        cc.setMaxAge(0);
+        cc.setMustRevalidate(true);
+        return cc;
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.io.BaseEncoding.base16;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.fcrepo.kernel.exception.InvalidChecksumException;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Computes any number of digests over a stream in the one pass the
+ * repository makes over it, and checks them against the values a client
+ * supplied. Algorithms are requested as fcrepo3 names (MD5, SHA-1, SHA-256,
+ * SHA-512), optionally followed by a colon and the expected hex value. The
+ * results are recorded on the datastream node as urn:&lt;algorithm&gt; URIs,
+ * alongside the SHA-1 the kernel keeps itself.
+ */
+public class ContentDigests extends FilterInputStream {
+
+    public static final String DIGESTS = "fedora:digests";
+
+    private static final Map<String, String> ALGORITHMS = ImmutableMap.of(
+            "MD5", "MD5", "SHA1", "SHA-1", "SHA256", "SHA-256", "SHA512",
+            "SHA-512");
+
+    private final Map<String, MessageDigest> digests =
+            new LinkedHashMap<String, MessageDigest>();
+
+    private final Map<String, String> expected =
+            new LinkedHashMap<String, String>();
+
+    /**
+     * @param in the content
+     */
+    public ContentDigests(final InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @param requests algorithms, each optionally with an expected value
+     * @return this
+     * @throws IllegalArgumentException if an algorithm is not supported
+     */
+    public ContentDigests request(final Collection<String> requests) {
+        for (final String request : requests) {
+            final int colon = request.indexOf(':');
+            if (colon < 0) {
+                request(request, null);
+            } else {
+                request(request.substring(0, colon), request
+                        .substring(colon + 1));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @param algorithm
+     * @param value the expected hex value, or null just to compute it
+     * @return this
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public ContentDigests request(final String algorithm, final String value) {
+        final String name = algorithmName(algorithm);
+        if (!digests.containsKey(name)) {
+            try {
+                digests.put(name, MessageDigest.getInstance(name));
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (value != null && !value.isEmpty()) {
+            expected.put(name, value.trim().toLowerCase());
+        }
+        return this;
+    }
+
+    /**
+     * @return whether any digest has been requested
+     */
+    public boolean isEmpty() {
+        return digests.isEmpty();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b >= 0) {
+            for (final MessageDigest digest : digests.values()) {
+                digest.update((byte) b);
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+        throws IOException {
+        final int read = super.read(b, off, len);
+        if (read > 0) {
+            for (final MessageDigest digest : digests.values()) {
+                digest.update(b, off, read);
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        // skipped bytes must still be digested
+        final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int read =
+                    read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Digests whatever of the content is left unread and checks every
+     * expected value.
+     * 
+     * @return the digests as URIs, by algorithm
+     * @throws IOException
+     * @throws InvalidChecksumException if any digest does not match
+     */
+    public Map<String, URI> finish() throws IOException,
+        InvalidChecksumException {
+        while (skip(Long.MAX_VALUE) > 0) {
+            // drain
+        }
+        final Map<String, URI> results = new LinkedHashMap<String, URI>();
+        for (final Entry<String, MessageDigest> e : digests.entrySet()) {
+            final String value =
+                    base16().lowerCase().encode(e.getValue().digest());
+            final String wanted = expected.get(e.getKey());
+            if (wanted != null && !wanted.equals(value)) {
+                throw new InvalidChecksumException("Checksum mismatch: " +
+                        e.getKey() + " was " + value + ", expected " + wanted);
+            }
+            results.put(e.getKey(), asURI(e.getKey(), value));
+        }
+        return results;
+    }
+
+    /**
+     * @param algorithm an fcrepo3 algorithm name
+     * @param value the hex digest
+     * @return a URI such as urn:sha256:&lt;value&gt;
+     */
+    public static URI asURI(final String algorithm, final String value) {
+        return URI.create("urn:" +
+                algorithmName(algorithm).replace("-", "").toLowerCase() + ":" +
+                value);
+    }
+
+    /**
+     * Replaces the digests recorded on a datastream, so that none survive
+     * from earlier content.
+     * 
+     * @param node the datastream node
+     * @param digests as returned by {@link #finish()}
+     * @throws RepositoryException
+     */
+    public static void record(final Node node, final Map<String, URI> digests)
+        throws RepositoryException {
+        if (digests.isEmpty()) {
+            if (node.hasProperty(DIGESTS)) {
+                node.getProperty(DIGESTS).remove();
+            }
+            return;
+        }
+        final String[] values = new String[digests.size()];
+        int i = 0;
+        for (final URI digest : digests.values()) {
+            values[i++] = digest.toString();
+        }
+        node.setProperty(DIGESTS, values);
+    }
+
+    /**
+     * @param algorithm an algorithm name, in any case, hyphenated or not
+     * @return the JCA name of the algorithm
+     * @throws IllegalArgumentException if it is not supported
+     */
+    public static String algorithmName(final String algorithm) {
+        final String name =
+                ALGORITHMS.get(algorithm.replace("-", "").toUpperCase());
+        if (name == null) {
+            throw new IllegalArgumentException(
+                    "Unsupported checksum algorithm: " + algorithm);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Charsets.US_ASCII;
+import static java.lang.Integer.getInteger;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.codahale.metrics.Meter;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Writes datastream content, or ranges of it, to the response. Content that
+ * comes from a file is handed to {@link FileChannel#transferTo}, which lets
+ * the platform move the bytes without copying them through the heap and
+ * seeks straight to each range. Any other content is skipped to each range
+ * and copied through a direct buffer borrowed from a small shared pool.
+ * Either way the garbage made by a download does not grow with its size.
+ * Bytes sent each way are published as meters.
+ */
+public class ContentOutput implements StreamingOutput {
+
+    private static final int BUFFER_SIZE = getInteger(
+            "fcrepo.legacy.content.buffer.size", 64 * 1024);
+
+    private static final BlockingQueue<ByteBuffer> buffers =
+            new ArrayBlockingQueue<ByteBuffer>(getInteger(
+                    "fcrepo.legacy.content.buffers", 32));
+
+    private static final byte[] CRLF = "\r\n".getBytes(US_ASCII);
+
+    private static final Meter transferred = getMetrics().meter(
+            name(ContentOutput.class, "transferred"));
+
+    private static final Meter copied = getMetrics().meter(
+            name(ContentOutput.class, "copied"));
+
+    private final InputStream content;
+
+    private final List<ByteRange> ranges;
+
+    private final String boundary;
+
+    private final String mimeType;
+
+    private final long size;
+
+    /**
+     * @param content the content, closed once written
+     */
+    public ContentOutput(final InputStream content) {
+        this(content, null, null, null, -1);
+    }
+
+    /**
+     * @param content the content, closed once written
+     * @param ranges the ranges to write, in order, or null for all of it
+     * @param boundary the boundary to write the ranges as the parts of a
+     *        multipart/byteranges body with, or null to write one range bare
+     * @param mimeType the media type of the content
+     * @param size size of the whole content
+     */
+    public ContentOutput(final InputStream content,
+            final List<ByteRange> ranges, final String boundary,
+            final String mimeType, final long size) {
+        this.content = content;
+        this.ranges = ranges;
+        this.boundary = boundary;
+        this.mimeType = mimeType;
+        this.size = size;
+    }
+
+    /**
+     * @return the number of bytes that will be written, or -1 if unknown
+     */
+    public long getLength() {
+        if (ranges == null) {
+            return size;
+        }
+        long length = 0;
+        for (final ByteRange range : ranges) {
+            if (boundary != null) {
+                length += partHeader(range).length + 2;
+            }
+            length += range.length();
+        }
+        if (boundary != null) {
+            length += closing().length;
+        }
+        return length;
+    }
+
+    @Override
+    public void write(final OutputStream out) throws IOException {
+        try {
+            final WritableByteChannel target = Channels.newChannel(out);
+            if (ranges == null) {
+                if (content instanceof FileInputStream) {
+                    final FileChannel source =
+                            ((FileInputStream) content).getChannel();
+                    transfer(source, source.position(), source.size() -
+                            source.position(), target);
+                } else {
+                    copy(Channels.newChannel(content), Long.MAX_VALUE, target);
+                }
+            } else {
+                writeRanges(out, target);
+            }
+            out.flush();
+        } finally {
+            content.close();
+        }
+    }
+
+    private void writeRanges(final OutputStream out,
+            final WritableByteChannel target) throws IOException {
+        final FileChannel file =
+                content instanceof FileInputStream ? ((FileInputStream) content)
+                        .getChannel() : null;
+        final long origin = file == null ? 0 : file.position();
+        long position = 0;
+        for (final ByteRange range : ranges) {
+            if (boundary != null) {
+                out.write(partHeader(range));
+            }
+            if (file != null) {
+                transfer(file, origin + range.first, range.length(), target);
+            } else {
+                ByteStreams.skipFully(content, range.first - position);
+                copy(Channels.newChannel(content), range.length(), target);
+                position = range.last + 1;
+            }
+            if (boundary != null) {
+                out.write(CRLF);
+            }
+        }
+        if (boundary != null) {
+            out.write(closing());
+        }
+    }
+
+    private byte[] partHeader(final ByteRange range) {
+        return ("--" + boundary + "\r\nContent-Type: " + mimeType +
+                "\r\nContent-Range: " + range.contentRange(size) + "\r\n\r\n")
+                .getBytes(US_ASCII);
+    }
+
+    private byte[] closing() {
+        return ("--" + boundary + "--\r\n").getBytes(US_ASCII);
+    }
+
+    /**
+     * Transfer part of a file, copying whatever the target will not take
+     * directly.
+     */
+    private static void transfer(final FileChannel source, final long first,
+            final long count, final WritableByteChannel target)
+        throws IOException {
+        long position = first;
+        final long end = first + count;
+        while (position < end) {
+            final long sent =
+                    source.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                break;
+            }
+            position += sent;
+            transferred.mark(sent);
+        }
+        if (position < end) {
+            source.position(position);
+            copy(source, end - position, target);
+        }
+    }
+
+    /**
+     * Copy up to count bytes, or to the end of the source.
+     */
+    private static void copy(final ReadableByteChannel source,
+            final long count, final WritableByteChannel target)
+        throws IOException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        try {
+            long remaining = count;
+            while (remaining > 0) {
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                final int read = source.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    copied.mark(target.write(buffer));
+                }
+                buffer.clear();
+                remaining -= read;
+            }
+        } finally {
+            buffer.clear();
+            buffers.offer(buffer);
+        }
+    }
+}
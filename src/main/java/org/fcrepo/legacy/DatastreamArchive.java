@@ -0,0 +1,345 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.io.BaseEncoding.base16;
+import static java.util.zip.Deflater.DEFAULT_COMPRESSION;
+import static java.util.zip.Deflater.NO_COMPRESSION;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.kernel.Datastream;
+import org.slf4j.Logger;
+
+/**
+ * Writes an object's datastreams as the entries of a ZIP or TAR archive, one
+ * after another, straight to the response. Content is read once, through a
+ * single buffer, with its CRC and SHA-1 digest computed as it passes; the
+ * digests are written last as a manifest-sha1.txt entry, and any that differ
+ * from the digest the repository recorded are logged. ZIP entries are
+ * deflated, stored, or, by default, deflated unless their media type is
+ * already compressed. Stored ZIP entries are written as deflate blocks at
+ * level 0, which need no CRC ahead of the data and so no second read.
+ */
+public class DatastreamArchive implements StreamingOutput {
+
+    public static final String MANIFEST = "manifest-sha1.txt";
+
+    private static final Logger logger = getLogger(DatastreamArchive.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Set<String> COMPRESSED_TYPES = new HashSet<String>(
+            Arrays.asList("application/zip", "application/gzip",
+                    "application/x-gzip", "application/x-bzip2",
+                    "application/x-xz", "application/x-7z-compressed",
+                    "application/x-rar-compressed", "application/pdf",
+                    "image/jpeg", "image/png", "image/gif", "image/jp2",
+                    "image/webp"));
+
+    /**
+     * The archive formats.
+     */
+    public static enum Format {
+        ZIP("application/zip"), TAR("application/x-tar");
+
+        public final String mimeType;
+
+        private Format(final String mimeType) {
+            this.mimeType = mimeType;
+        }
+    }
+
+    /**
+     * How ZIP entries are compressed. TAR entries never are.
+     */
+    public static enum Compression {
+        AUTO, DEFLATE, STORE
+    }
+
+    private final Session session;
+
+    private final DatastreamSelection selection;
+
+    private final Format format;
+
+    private final Compression compression;
+
+    /**
+     * @param session the session to log out once the archive has been
+     *        written
+     * @param selection the datastreams to archive
+     * @param format
+     * @param compression
+     */
+    public DatastreamArchive(final Session session,
+            final DatastreamSelection selection, final Format format,
+            final Compression compression) {
+        this.session = session;
+        this.selection = selection;
+        this.format = format;
+        this.compression = compression;
+    }
+
+    @Override
+    public void write(final OutputStream out) throws IOException {
+        try {
+            final EntryWriter writer =
+                    format == Format.TAR ? new TarWriter(out) : new ZipWriter(
+                            out);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final MessageDigest sha1 = sha1();
+            final StringBuilder manifest = new StringBuilder();
+            final Iterator<Datastream> datastreams = selection.datastreams();
+            int count = 0;
+            while (datastreams.hasNext()) {
+                final Datastream ds = datastreams.next();
+                final String dsid = ds.getDsId();
+                writer.start(dsid, ds.getSize(), ds.getLastModifiedDate(),
+                        isCompressed(ds.getMimeType()));
+                final InputStream content = ds.getContent();
+                try {
+                    sha1.reset();
+                    int read;
+                    while ((read = content.read(buffer)) != -1) {
+                        sha1.update(buffer, 0, read);
+                        writer.write(buffer, read);
+                    }
+                } finally {
+                    content.close();
+                }
+                writer.end();
+                final String digest =
+                        base16().lowerCase().encode(sha1.digest());
+                checkDigest(ds, digest);
+                manifest.append(digest).append("  ").append(dsid).append('\n');
+                count++;
+            }
+            final byte[] manifestBytes = manifest.toString().getBytes(UTF_8);
+            writer.start(MANIFEST, manifestBytes.length, new Date(), false);
+            writer.write(manifestBytes, manifestBytes.length);
+            writer.end();
+            writer.finish();
+            out.flush();
+            logger.debug("Archived {} datastreams of {}", count, selection
+                    .getPid());
+        } catch (final RepositoryException e) {
+            throw new WebApplicationException(e);
+        } finally {
+            session.logout();
+        }
+    }
+
+    private boolean isCompressed(final String mimeType) {
+        if (compression != Compression.AUTO) {
+            return compression == Compression.STORE;
+        }
+        if (mimeType == null) {
+            return false;
+        }
+        final String type = mimeType.split(";")[0].trim().toLowerCase();
+        return COMPRESSED_TYPES.contains(type) || type.startsWith("video/") ||
+                type.startsWith("audio/") && !type.contains("wav");
+    }
+
+    private static void checkDigest(final Datastream ds, final String digest)
+        throws RepositoryException {
+        if (ds.getContentDigest() == null) {
+            return;
+        }
+        final String recorded = ds.getContentDigest().toString();
+        if (recorded.startsWith("urn:sha1:") &&
+                !recorded.endsWith(":" + digest)) {
+            logger.warn("Content of {} has SHA-1 {} but {} was recorded", ds
+                    .getDsId(), digest, recorded);
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface EntryWriter {
+
+        void start(final String name, final long size, final Date modified,
+                final boolean store) throws IOException;
+
+        void write(final byte[] bytes, final int length) throws IOException;
+
+        void end() throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static class ZipWriter implements EntryWriter {
+
+        private final ZipOutputStream zip;
+
+        public ZipWriter(final OutputStream out) {
+            zip = new ZipOutputStream(out);
+        }
+
+        @Override
+        public void start(final String name, final long size,
+                final Date modified, final boolean store) throws IOException {
+            final ZipEntry entry = new ZipEntry(name);
+            if (modified != null) {
+                entry.setTime(modified.getTime());
+            }
+            zip.setLevel(store ? NO_COMPRESSION : DEFAULT_COMPRESSION);
+            zip.putNextEntry(entry);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int length)
+            throws IOException {
+            zip.write(bytes, 0, length);
+        }
+
+        @Override
+        public void end() throws IOException {
+            zip.closeEntry();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            // leaves the response stream open
+            zip.finish();
+        }
+    }
+
+    /**
+     * Writes POSIX ustar entries. The size of each entry goes in its header,
+     * so content that does not match its recorded size fails the archive
+     * rather than corrupting it.
+     */
+    private static class TarWriter implements EntryWriter {
+
+        private static final int BLOCK = 512;
+
+        private static final long MAXIMUM_OCTAL_SIZE = 077777777777L;
+
+        private static final byte[] USTAR = "ustar\u000000".getBytes(UTF_8);
+
+        private final OutputStream out;
+
+        private long expected;
+
+        private long written;
+
+        public TarWriter(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void start(final String name, final long size,
+                final Date modified, final boolean store) throws IOException {
+            final byte[] header = new byte[BLOCK];
+            final byte[] nameBytes = name.getBytes(UTF_8);
+            if (nameBytes.length > 100) {
+                throw new IOException("Entry name too long for tar: " + name);
+            }
+            System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+            octal(header, 100, 8, 0644);
+            octal(header, 108, 8, 0);
+            octal(header, 116, 8, 0);
+            if (size > MAXIMUM_OCTAL_SIZE) {
+                // the GNU/star base-256 form for sizes of 8GiB and more
+                header[124] = (byte) 0x80;
+                for (int i = 0; i < 8; i++) {
+                    header[135 - i] = (byte) (size >>> (8 * i));
+                }
+            } else {
+                octal(header, 124, 12, size);
+            }
+            octal(header, 136, 12, modified == null ? 0 : modified.getTime() /
+                    1000);
+            header[156] = '0';
+            System.arraycopy(USTAR, 0, header, 257, USTAR.length);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            long checksum = 0;
+            for (final byte b : header) {
+                checksum += b & 0xff;
+            }
+            octal(header, 148, 7, checksum);
+            out.write(header);
+            expected = size;
+            written = 0;
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int length)
+            throws IOException {
+            written += length;
+            if (written > expected) {
+                throw new IOException("Content longer than its recorded size");
+            }
+            out.write(bytes, 0, length);
+        }
+
+        @Override
+        public void end() throws IOException {
+            if (written != expected) {
+                throw new IOException("Content shorter than its recorded size");
+            }
+            final int padding = (int) ((BLOCK - written % BLOCK) % BLOCK);
+            out.write(new byte[padding]);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.write(new byte[BLOCK * 2]);
+        }
+
+        /**
+         * Write a zero-padded, NUL-terminated octal number into a field.
+         */
+        private static void octal(final byte[] header, final int offset,
+                final int length, final long value) {
+            final String digits = Long.toOctalString(value);
+            final int width = length - 1;
+            for (int i = 0; i < width; i++) {
+                final int digit = i - (width - digits.length());
+                header[offset + i] =
+                        (byte) (digit < 0 ? '0' : digits.charAt(digit));
+            }
+            header[offset + width] = 0;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.Integer.getInteger;
+import static java.lang.Long.getLong;
+import static javax.ws.rs.core.Response.status;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static org.fcrepo.kernel.utils.FedoraTypesUtils.isFedoraDatastream;
+import static org.fcrepo.legacy.LegacyPathHelpers.getDatastreamsPath;
+import static org.fcrepo.legacy.LegacyPathHelpers.getObjectPath;
+
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+
+import org.fcrepo.kernel.Datastream;
+import org.fcrepo.kernel.services.DatastreamService;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * The datastreams of an object that a bulk content request asks for: those
+ * named, in order, skipping any that do not exist, or else every datastream
+ * child of the object. Datastreams are looked up one at a time as they are
+ * iterated. The number of datastreams and their total size are limited by
+ * fcrepo.legacy.content.parts and fcrepo.legacy.content.bytes.
+ */
+public class DatastreamSelection {
+
+    private static final int MAXIMUM_PARTS = getInteger(
+            "fcrepo.legacy.content.parts", 1000);
+
+    private static final long MAXIMUM_BYTES = getLong(
+            "fcrepo.legacy.content.bytes", 4L << 30);
+
+    private final Session session;
+
+    private final DatastreamService datastreamService;
+
+    private final String pid;
+
+    private final List<String> dsids;
+
+    /**
+     * @param session
+     * @param datastreamService
+     * @param pid
+     * @param dsids the datastreams asked for, or empty for all
+     */
+    public DatastreamSelection(final Session session,
+            final DatastreamService datastreamService, final String pid,
+            final List<String> dsids) {
+        this.session = session;
+        this.datastreamService = datastreamService;
+        this.pid = pid;
+        this.dsids = dsids;
+    }
+
+    /**
+     * Refuse the request if it asks for more than the configured number of
+     * datastreams or bytes.
+     * 
+     * @throws RepositoryException
+     */
+    public void checkLimits() throws RepositoryException {
+        int parts = 0;
+        long bytes = 0;
+        final Iterator<Datastream> datastreams = datastreams();
+        while (datastreams.hasNext()) {
+            bytes += datastreams.next().getSize();
+            if (++parts > MAXIMUM_PARTS || bytes > MAXIMUM_BYTES) {
+                throw new WebApplicationException(status(BAD_REQUEST).entity(
+                        "More than " + MAXIMUM_PARTS + " datastreams or " +
+                                MAXIMUM_BYTES + " bytes requested; " +
+                                "ask for fewer by dsid").build());
+            }
+        }
+    }
+
+    public String getPid() {
+        return pid;
+    }
+
+    /**
+     * @return the datastreams, looked up as they are iterated
+     * @throws RepositoryException
+     */
+    public Iterator<Datastream> datastreams() throws RepositoryException {
+        if (dsids.isEmpty()) {
+            final NodeIterator children =
+                    session.getNode(getObjectPath(pid)).getNodes();
+            return new AbstractIterator<Datastream>() {
+
+                @Override
+                protected Datastream computeNext() {
+                    try {
+                        while (children.hasNext()) {
+                            final Node child = children.nextNode();
+                            if (isFedoraDatastream.apply(child)) {
+                                return datastreamService.getDatastream(
+                                        session, child.getPath());
+                            }
+                        }
+                        return endOfData();
+                    } catch (final RepositoryException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+        }
+        final Iterator<String> names = dsids.iterator();
+        return new AbstractIterator<Datastream>() {
+
+            @Override
+            protected Datastream computeNext() {
+                while (names.hasNext()) {
+                    try {
+                        return datastreamService.getDatastream(session,
+                                getDatastreamsPath(pid, names.next()));
+                    } catch (final PathNotFoundException e) {
+                        // not all of the datastreams asked for need exist
+                    } catch (final RepositoryException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+}
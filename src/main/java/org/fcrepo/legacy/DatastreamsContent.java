@@ -0,0 +1,220 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.base.Charsets.US_ASCII;
+import static java.lang.Integer.getInteger;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.kernel.Datastream;
+import org.slf4j.Logger;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Writes the content of an object's datastreams as the parts of a
+ * multipart/mixed body. Each datastream is found and opened only when its
+ * part is due, so however many datastreams an object has, at most one
+ * content stream is open, or two with read-ahead. Read-ahead, enabled by
+ * giving fcrepo.legacy.content.readahead.threads a pool, fills the first
+ * bytes of the next part while the current one is written; the next stream
+ * is opened on the request thread, as JCR sessions are not shared between
+ * threads, and only its bytes are read on the pool.
+ */
+public class DatastreamsContent implements StreamingOutput {
+
+    private static final Logger logger = getLogger(DatastreamsContent.class);
+
+    private static final int READ_AHEAD_BYTES = getInteger(
+            "fcrepo.legacy.content.readahead.size", 64 * 1024);
+
+    private static final ExecutorService readAhead = readAheadPool(getInteger(
+            "fcrepo.legacy.content.readahead.threads", 0));
+
+    private static final byte[] CRLF = "\r\n".getBytes(US_ASCII);
+
+    private final Session session;
+
+    private final DatastreamSelection selection;
+
+    private final String boundary;
+
+    /**
+     * @param session the session to log out once the parts have been written
+     * @param selection the datastreams to write
+     * @param boundary
+     */
+    public DatastreamsContent(final Session session,
+            final DatastreamSelection selection, final String boundary) {
+        this.session = session;
+        this.selection = selection;
+        this.boundary = boundary;
+    }
+
+    /**
+     * Refuse the request before any part is written if it would exceed the
+     * configured number of parts or bytes.
+     * 
+     * @throws RepositoryException
+     */
+    public void checkLimits() throws RepositoryException {
+        selection.checkLimits();
+    }
+
+    @Override
+    public void write(final OutputStream out) throws IOException {
+        Part current = null;
+        Part next = null;
+        try {
+            final Iterator<Datastream> datastreams = selection.datastreams();
+            int count = 0;
+            current = datastreams.hasNext() ? open(datastreams.next()) : null;
+            while (current != null) {
+                out.write(current.header());
+                if (readAhead != null && datastreams.hasNext()) {
+                    // start on the next part while this one is written
+                    next = open(datastreams.next());
+                }
+                current.writeContent(out);
+                current.close();
+                out.write(CRLF);
+                count++;
+                if (readAhead == null && datastreams.hasNext()) {
+                    next = open(datastreams.next());
+                }
+                current = next;
+                next = null;
+            }
+            out.write(("--" + boundary + "--\r\n").getBytes(US_ASCII));
+            out.flush();
+            logger.debug("Wrote {} datastreams of {}", count, selection
+                    .getPid());
+        } catch (final RepositoryException e) {
+            throw new WebApplicationException(e);
+        } finally {
+            for (final Part part : new Part[] {current, next}) {
+                if (part != null) {
+                    part.close();
+                }
+            }
+            session.logout();
+        }
+    }
+
+    private Part open(final Datastream ds) throws RepositoryException {
+        final Part part =
+                new Part(ds.getDsId(), ds.getMimeType(), ds.getContent());
+        if (readAhead != null) {
+            part.readAhead();
+        }
+        return part;
+    }
+
+    private static ExecutorService readAheadPool(final int threads) {
+        if (threads <= 0) {
+            return null;
+        }
+        return newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("fcrepo-legacy-readahead-%d").setDaemon(true)
+                .build());
+    }
+
+    /**
+     * One datastream's part: its headers, and its content, of which the
+     * first bytes may already be on their way.
+     */
+    private class Part {
+
+        private final String dsid;
+
+        private final String mimeType;
+
+        private final InputStream content;
+
+        private Future<byte[]> head;
+
+        public Part(final String dsid, final String mimeType,
+                final InputStream content) {
+            this.dsid = dsid;
+            this.mimeType = mimeType;
+            this.content = content;
+        }
+
+        public void readAhead() {
+            head = readAhead.submit(new Callable<byte[]>() {
+
+                @Override
+                public byte[] call() throws IOException {
+                    final byte[] bytes = new byte[READ_AHEAD_BYTES];
+                    final int read =
+                            ByteStreams.read(content, bytes, 0, bytes.length);
+                    return read == bytes.length ? bytes : Arrays.copyOf(
+                            bytes, read);
+                }
+            });
+        }
+
+        public byte[] header() {
+            return ("--" + boundary + "\r\nContent-Type: " + mimeType +
+                    "\r\nContent-ID: <" + dsid + ">\r\n\r\n")
+                    .getBytes(US_ASCII);
+        }
+
+        public void writeContent(final OutputStream out) throws IOException {
+            if (head != null) {
+                try {
+                    out.write(head.get());
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (final ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+            }
+            new ContentOutput(content).write(out);
+        }
+
+        public void close() {
+            if (head != null) {
+                head.cancel(false);
+                head = null;
+            }
+            try {
+                content.close();
+            } catch (final IOException e) {
+                logger.debug("Could not close content of {}: {}", dsid, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.lang.Integer.getInteger;
+import static org.fcrepo.legacy.ContentDigests.DIGESTS;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.net.URI;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.fcrepo.kernel.Datastream;
+import org.fcrepo.kernel.services.DatastreamService;
+import org.slf4j.Logger;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Counter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers which datastream holds content with a given digest, so that an
+ * upload whose checksum is already known to the repository can be satisfied
+ * from the content it already has, without the client sending it. Entries
+ * are added as datastreams are written through the legacy API, up to
+ * fcrepo.legacy.digest.index.size of them, and each is checked against the
+ * repository before it is trusted, so a stale entry costs only a miss.
+ * Deduplicated uploads and the bytes they saved are published as metrics.
+ */
+@Component
+public class DigestIndex {
+
+    private static final Logger logger = getLogger(DigestIndex.class);
+
+    private final Cache<String, String> paths = CacheBuilder.newBuilder()
+            .maximumSize(getInteger("fcrepo.legacy.digest.index.size", 100000))
+            .build();
+
+    private final Counter deduplicated = getMetrics().counter(
+            name(DigestIndex.class, "deduplicated"));
+
+    private final Counter bytesSaved = getMetrics().counter(
+            name(DigestIndex.class, "bytesSaved"));
+
+    /**
+     * Indexes a datastream under its kernel digest and every digest recorded
+     * with it.
+     * 
+     * @param ds
+     * @throws RepositoryException
+     */
+    public void add(final Datastream ds) throws RepositoryException {
+        final Node node = ds.getNode();
+        final String path = node.getPath();
+        if (ds.getContentDigest() != null) {
+            paths.put(ds.getContentDigest().toString(), path);
+        }
+        if (node.hasProperty(DIGESTS)) {
+            for (final Value digest : node.getProperty(DIGESTS).getValues()) {
+                paths.put(digest.getString(), path);
+            }
+        }
+    }
+
+    /**
+     * @param session
+     * @param datastreamService
+     * @param digest
+     * @return a datastream whose content has the digest, or null if none is
+     *         known
+     * @throws RepositoryException
+     */
+    public Datastream find(final Session session,
+            final DatastreamService datastreamService, final URI digest)
+        throws RepositoryException {
+        final String key = digest.toString();
+        final String path = paths.getIfPresent(key);
+        if (path == null) {
+            return null;
+        }
+        if (session.nodeExists(path)) {
+            final Datastream ds =
+                    datastreamService.getDatastream(session, path);
+            if (hasDigest(ds, key)) {
+                return ds;
+            }
+        }
+        logger.debug("Dropping stale digest index entry {} for {}", key, path);
+        paths.invalidate(key);
+        return null;
+    }
+
+    /**
+     * Counts an upload satisfied from existing content.
+     * 
+     * @param size the bytes the client did not have to send
+     */
+    public void deduplicated(final long size) {
+        deduplicated.inc();
+        bytesSaved.inc(size);
+    }
+
+    private static boolean hasDigest(final Datastream ds, final String digest)
+        throws RepositoryException {
+        if (ds.getContentDigest() != null &&
+                digest.equals(ds.getContentDigest().toString())) {
+            return true;
+        }
+        final Node node = ds.getNode();
+        if (node.hasProperty(DIGESTS)) {
+            for (final Value value : node.getProperty(DIGESTS).getValues()) {
+                if (digest.equals(value.getString())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -20,30 +20,57 @@ import static com.google.common.collect.ImmutableSet.copyOf;
 import static com.google.common.collect.Iterators.filter;
 import static com.google.common.collect.Iterators.transform;
 import static java.util.Collections.singletonList;
+import static java.util.UUID.randomUUID;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM_TYPE;
-import static javax.ws.rs.core.MediaType.MULTIPART_FORM_DATA;
 import static javax.ws.rs.core.MediaType.TEXT_XML;
+import static javax.ws.rs.core.MediaType.TEXT_XML_TYPE;
 import static javax.ws.rs.core.Response.created;
 import static javax.ws.rs.core.Response.noContent;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.PARTIAL_CONTENT;
+import static javax.ws.rs.core.Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE;
+import static javax.ws.rs.core.Response.Status.REQUEST_ENTITY_TOO_LARGE;
+import static javax.ws.rs.core.Variant.mediaTypes;
 import static org.fcrepo.jaxb.responses.management.DatastreamProfile.DatastreamStates.A;
+import static org.fcrepo.legacy.CacheValidators.datastreamProfileTag;
+import static org.fcrepo.legacy.CacheValidators.ifRangeMatches;
+import static org.fcrepo.legacy.CacheValidators.mustRevalidate;
+import static org.fcrepo.legacy.CacheValidators.roundToSeconds;
 import static org.fcrepo.legacy.LegacyPathHelpers.getObjectPath;
+import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
+import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
-import javax.jcr.PathNotFoundException;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
@@ -52,16 +79,16 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
-import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Variant;
 
 import org.fcrepo.http.commons.AbstractResource;
-import org.fcrepo.http.commons.session.InjectedSession;
 import org.fcrepo.jaxb.responses.access.ObjectDatastreams;
 import org.fcrepo.jaxb.responses.access.ObjectDatastreams.DatastreamElement;
 import org.fcrepo.jaxb.responses.management.DatastreamHistory;
@@ -71,29 +98,47 @@ import org.fcrepo.kernel.exception.InvalidChecksumException;
 import org.fcrepo.kernel.utils.ContentDigest;
 import org.fcrepo.kernel.utils.FedoraTypesUtils;
 import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Function;
-import com.sun.jersey.multipart.BodyPart;
-import com.sun.jersey.multipart.BodyPartEntity;
-import com.sun.jersey.multipart.MultiPart;
+import com.google.common.base.Objects;
 
 @Component("fedoraLegacyDatastreams")
 @Scope("prototype")
 @Path("/v3/objects/{pid}/datastreams")
 public class FedoraDatastreams extends AbstractResource {
 
-    private final Logger logger = getLogger(FedoraDatastreams.class);
+    private static final Logger logger = getLogger(FedoraDatastreams.class);
 
-    @InjectedSession
+    private static final List<Variant> PROFILE_VARIANTS = mediaTypes(
+            TEXT_XML_TYPE, APPLICATION_JSON_TYPE).add().build();
+
+    @Autowired(required = false)
+    private ObjectProfileCache profileCache;
+
+    @Autowired(required = false)
+    private PidIndex pidIndex;
+
+    @Autowired
+    private UploadSessions uploadSessions;
+
+    @Autowired(required = false)
+    private DigestIndex digestIndex;
+
+    // every GET here only reads, so anonymous ones may share a pooled
+    // session; other methods get one of their own from the session factory
+    @PooledSession
     protected Session session;
 
     /**
-     * Returns a list of datastreams for the object
+     * Returns a list of datastreams for the object, and with profiles=true the
+     * profile of each, gathered in the same pass over the object's children
      * 
      * @param pid persistent identifier of the digital object
+     * @param profiles whether to include every datastream's profile
      * @return the list of datastreams
      * @throws RepositoryException
      * @throws IOException
@@ -103,14 +148,37 @@ public class FedoraDatastreams extends AbstractResource {
     @Timed
     @Produces({TEXT_XML, APPLICATION_JSON})
     public ObjectDatastreams getDatastreams(@PathParam("pid")
-    final String pid) throws RepositoryException, IOException {
+    final String pid, @QueryParam("profiles")
+    @DefaultValue("false")
+    final boolean profiles) throws RepositoryException, IOException {
 
         try {
+            checkKnown(pid);
             final ObjectDatastreams objectDatastreams = new ObjectDatastreams();
 
-            objectDatastreams.datastreams =
-                    getDatastreamsForPath(session, getObjectPath(pid));
+            if (!profiles) {
+                objectDatastreams.datastreams =
+                        getDatastreamsForPath(session, getObjectPath(pid));
+                return objectDatastreams;
+            }
 
+            final Set<DatastreamElement> elements =
+                    new LinkedHashSet<DatastreamElement>();
+            final List<DatastreamProfile> dsProfiles =
+                    new ArrayList<DatastreamProfile>();
+            final Iterator<Node> children =
+                    filter(new org.fcrepo.kernel.utils.NodeIterator(
+                            nodeService.getObject(session, getObjectPath(pid))
+                                    .getNode().getNodes()),
+                            FedoraTypesUtils.isFedoraDatastream);
+            while (children.hasNext()) {
+                final Datastream ds = new Datastream(children.next());
+                elements.add(new DatastreamElement(ds.getDsId(),
+                        ds.getDsId(), ds.getMimeType()));
+                dsProfiles.add(getDSProfile(ds, pid));
+            }
+            objectDatastreams.datastreams = elements;
+            objectDatastreams.profiles = dsProfiles;
             return objectDatastreams;
         } finally {
             session.logout();
@@ -127,111 +195,233 @@ public class FedoraDatastreams extends AbstractResource {
                 FedoraTypesUtils.isFedoraDatastream), ds2dsElement));
     }
 
+    /**
+     * Deletes the listed datastreams, then writes one datastream per part of
+     * the multipart body, named by the part's Content-Disposition. Each part
+     * is passed to the repository as it is read off the request, so nothing
+     * is buffered ahead of the write.
+     */
     @POST
     @Timed
     public Response modifyDatastreams(@PathParam("pid")
     final String pid, @QueryParam("delete")
-    final List<String> dsidList, final MultiPart multipart)
+    final List<String> dsidList, @HeaderParam("Content-Type")
+    final MediaType contentType, final InputStream body)
         throws RepositoryException, IOException, InvalidChecksumException {
 
+        final Lock sizeLock = ObjectSizes.lock(pid);
         try {
+            final String boundary =
+                    contentType == null ? null : contentType.getParameters()
+                            .get("boundary");
+            if (boundary == null ||
+                    !"multipart".equals(contentType.getType())) {
+                throw new WebApplicationException(Response.status(BAD_REQUEST)
+                        .entity("Expected a multipart body").build());
+            }
+
+            long sizeDelta = 0;
             for (final String dsid : dsidList) {
                 logger.debug("Purging datastream: " + dsid);
-                nodeService.deleteObject(session, LegacyPathHelpers
-                        .getDatastreamsPath(pid, dsid));
+                final String dsPath =
+                        LegacyPathHelpers.getDatastreamsPath(pid, dsid);
+                sizeDelta -= getDatastreamSize(dsPath);
+                nodeService.deleteObject(session, dsPath);
             }
 
-            for (final BodyPart part : multipart.getBodyParts()) {
-                final String dsid =
-                        part.getContentDisposition().getParameters()
-                                .get("name");
+            final MultipartReader parts = new MultipartReader(body, boundary);
+            MultipartReader.Part part;
+            while ((part = parts.next()) != null) {
+                final String dsid = part.getName();
+                if (dsid == null) {
+                    throw new WebApplicationException(Response.status(
+                            BAD_REQUEST).entity("Every part must be named")
+                            .build());
+                }
                 logger.debug("Adding datastream: " + dsid);
                 final String dsPath =
                         LegacyPathHelpers.getDatastreamsPath(pid, dsid);
-                final Object obj = part.getEntity();
-                InputStream src = null;
-                if (obj instanceof BodyPartEntity) {
-                    final BodyPartEntity entity =
-                            (BodyPartEntity) part.getEntity();
-                    src = entity.getInputStream();
-                } else if (obj instanceof InputStream) {
-                    src = (InputStream) obj;
+                sizeDelta -= getDatastreamSize(dsPath);
+                final ContentDigests digests =
+                        new ContentDigests(part.getContent());
+                try {
+                    datastreamService.createDatastreamNode(session, dsPath,
+                            part.getMediaType(), digests);
+                    recordDigests(dsPath, digests, null);
+                } catch (final RepositoryException e) {
+                    checkPartSize(part, dsid);
+                    throw e;
+                } catch (final IOException e) {
+                    checkPartSize(part, dsid);
+                    throw e;
                 }
-                datastreamService.createDatastreamNode(session, dsPath, part
-                        .getMediaType().toString(), src);
+                checkPartSize(part, dsid);
+                sizeDelta += getDatastreamSize(dsPath);
             }
 
+            adjustObjectSize(pid, sizeDelta);
             session.save();
+            invalidateProfile(pid);
             return created(uriInfo.getRequestUri()).build();
         } finally {
+            sizeLock.unlock();
             session.logout();
         }
     }
 
+    /**
+     * The kernel may wrap the failure of an oversized part's stream, so the
+     * part itself is asked.
+     */
+    private static void checkPartSize(final MultipartReader.Part part,
+            final String dsid) {
+        if (part.isOversized()) {
+            throw new WebApplicationException(Response.status(
+                    REQUEST_ENTITY_TOO_LARGE).entity(
+                    "Datastream " + dsid + " is too large").build());
+        }
+    }
+
     @DELETE
     @Timed
     public Response deleteDatastreams(@PathParam("pid")
     final String pid, @QueryParam("dsid")
     final List<String> dsidList) throws RepositoryException {
+        final Lock sizeLock = ObjectSizes.lock(pid);
         try {
+            long sizeDelta = 0;
             for (final String dsid : dsidList) {
                 logger.debug("purging datastream " + dsid);
-                nodeService.deleteObject(session, LegacyPathHelpers
-                        .getDatastreamsPath(pid, dsid));
+                final String dsPath =
+                        LegacyPathHelpers.getDatastreamsPath(pid, dsid);
+                sizeDelta -= getDatastreamSize(dsPath);
+                nodeService.deleteObject(session, dsPath);
             }
+            adjustObjectSize(pid, sizeDelta);
             session.save();
+            invalidateProfile(pid);
             return noContent().build();
         } finally {
+            sizeLock.unlock();
             session.logout();
         }
     }
 
+    /**
+     * Streams the content of the object's datastreams as the parts of a
+     * multipart/mixed body, opening each datastream only as its part is
+     * written
+     * 
+     * @param pid persistent identifier of the digital object
+     * @param dsids the datastreams to include, or none for all of them
+     * @return 200, or 400 if more content is asked for than allowed
+     * @throws RepositoryException
+     */
     @GET
     @Path("/__content__")
     @Produces("multipart/mixed")
     @Timed
     public Response getDatastreamsContents(@PathParam("pid")
     final String pid, @QueryParam("dsid")
-    final List<String> dsids) throws RepositoryException, IOException {
+    final List<String> dsids) throws RepositoryException {
 
+        boolean streaming = false;
         try {
-            if (dsids.isEmpty()) {
-                final NodeIterator ni =
-                        objectService
-                                .getObjectNode(session, getObjectPath(pid))
-                                .getNodes();
-                while (ni.hasNext()) {
-                    dsids.add(ni.nextNode().getName());
-                }
+            checkKnown(pid);
+            final String boundary = randomUUID().toString();
+            final DatastreamsContent content =
+                    new DatastreamsContent(session, new DatastreamSelection(
+                            session, datastreamService, pid, dsids), boundary);
+            content.checkLimits();
+            final Response response =
+                    Response.ok(content,
+                            "multipart/mixed; boundary=" + boundary).build();
+            // the content logs the session out once the parts are written
+            streaming = true;
+            return response;
+        } finally {
+            if (!streaming) {
+                session.logout();
             }
+        }
+    }
 
-            final MultiPart multipart = new MultiPart();
-
-            final Iterator<String> i = dsids.iterator();
-            while (i.hasNext()) {
-                final String dsid = i.next();
+    /**
+     * Streams the object's datastreams as a ZIP or TAR archive, one entry
+     * after another, followed by a manifest of their SHA-1 digests
+     * 
+     * @param pid persistent identifier of the digital object
+     * @param dsids the datastreams to include, or none for all of them
+     * @param format zip or tar
+     * @param compression auto, deflate or store; auto stores content whose
+     *        media type is already compressed
+     * @return 200, or 400 if more content is asked for than allowed
+     * @throws RepositoryException
+     */
+    @GET
+    @Path("/__archive__")
+    @Produces({"application/zip", "application/x-tar"})
+    @Timed
+    public Response getDatastreamsArchive(@PathParam("pid")
+    final String pid, @QueryParam("dsid")
+    final List<String> dsids, @QueryParam("format")
+    @DefaultValue("zip")
+    final String format, @QueryParam("compression")
+    @DefaultValue("auto")
+    final String compression) throws RepositoryException {
 
-                try {
-                    final Datastream ds =
-                            datastreamService.getDatastream(session,
-                                    LegacyPathHelpers.getDatastreamsPath(pid,
-                                            dsid));
-                    multipart.bodyPart(ds.getContent(), MediaType.valueOf(ds
-                            .getMimeType()));
-                } catch (final PathNotFoundException e) {
+        final DatastreamArchive.Format archiveFormat;
+        final DatastreamArchive.Compression archiveCompression;
+        try {
+            archiveFormat =
+                    DatastreamArchive.Format.valueOf(format.toUpperCase());
+            archiveCompression =
+                    DatastreamArchive.Compression.valueOf(compression
+                            .toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            session.logout();
+            return Response.status(BAD_REQUEST).entity(
+                    "Unknown archive format or compression").build();
+        }
 
-                }
-            }
-            return Response.ok(multipart, MULTIPART_FORM_DATA).build();
+        boolean streaming = false;
+        try {
+            checkKnown(pid);
+            final DatastreamSelection selection =
+                    new DatastreamSelection(session, datastreamService, pid,
+                            dsids);
+            selection.checkLimits();
+            final Response response =
+                    Response.ok(
+                            new DatastreamArchive(session, selection,
+                                    archiveFormat, archiveCompression),
+                            archiveFormat.mimeType).header(
+                            "Content-Disposition",
+                            "attachment; filename=\"" +
+                                    pid.replaceAll("[^A-Za-z0-9._-]", "_") +
+                                    "." + archiveFormat.name().toLowerCase() +
+                                    "\"").build();
+            // the archive logs the session out once it has been written
+            streaming = true;
+            return response;
         } finally {
-            session.logout();
+            if (!streaming) {
+                session.logout();
+            }
         }
     }
 
     /**
-     * Create a new datastream with user provided checksum for validation
+     * Create a new datastream with user provided checksum for validation.
+     * Every digest requested is computed in the same pass as the write and
+     * recorded with the datastream.
      * 
      * @param pid persistent identifier of the digital object
+     * @param checksumType algorithm of the checksum, SHA-1 by default
+     * @param checksum expected digest of the content
+     * @param digestList further algorithms to compute, each optionally
+     *        followed by a colon and its expected value
+     * @param treeHash whether to compute a SHA-256 tree hash in parallel
      * @param dsid datastream identifier
      * @param contentType Content-Type header
      * @param requestBodyStream Binary blob
@@ -244,8 +434,13 @@ public class FedoraDatastreams extends AbstractResource {
     @Path("/{dsid}")
     @Timed
     public Response addDatastream(@PathParam("pid")
-    final String pid, @QueryParam("checksum")
-    final String checksum, @PathParam("dsid")
+    final String pid, @QueryParam("checksumType")
+    @DefaultValue("SHA-1")
+    final String checksumType, @QueryParam("checksum")
+    final String checksum, @QueryParam("digest")
+    final List<String> digestList, @QueryParam("treeHash")
+    @DefaultValue("false")
+    final boolean treeHash, @PathParam("dsid")
     final String dsid, @HeaderParam("Content-Type")
     final MediaType requestContentType, final InputStream requestBodyStream)
         throws IOException, InvalidChecksumException, RepositoryException {
@@ -253,32 +448,54 @@ public class FedoraDatastreams extends AbstractResource {
                 requestContentType != null ? requestContentType
                         : APPLICATION_OCTET_STREAM_TYPE;
 
+        final Lock sizeLock = ObjectSizes.lock(pid);
         try {
             final String dsPath =
                     LegacyPathHelpers.getDatastreamsPath(pid, dsid);
             logger.debug("addDatastream {}", dsPath);
-            final URI checksumURI;
-
-            if (checksum != null && !checksum.isEmpty()) {
-                checksumURI = ContentDigest.asURI("SHA-1", checksum);
+            final long oldSize = getDatastreamSize(dsPath);
+            final Datastream duplicate =
+                    findDuplicate(checksumType, checksum, digestList, treeHash);
+            if (duplicate != null) {
+                // the body is never read, so with Expect: 100-continue the
+                // client is not asked to send it
+                logger.debug("Linking {} to the content of {}", dsPath,
+                        duplicate.getDsId());
+                linkDuplicate(dsPath, contentType.toString(), duplicate);
             } else {
-                checksumURI = null;
+                final TreeHash tree =
+                        treeHash ? new TreeHash(requestBodyStream) : null;
+                final ContentDigests digests =
+                        requestDigests(tree == null ? requestBodyStream
+                                : tree, checksumType, checksum, digestList);
+                datastreamService.createDatastreamNode(session, dsPath,
+                        contentType.toString(), digests, kernelChecksum(
+                                checksumType, checksum));
+                recordDigests(dsPath, digests, tree);
             }
-            datastreamService.createDatastreamNode(session, dsPath, contentType
-                    .toString(), requestBodyStream, checksumURI);
+            adjustObjectSize(pid, getDatastreamSize(dsPath) - oldSize);
             session.save();
+            indexDigests(dsPath);
+            invalidateProfile(pid);
             return created(uriInfo.getAbsolutePath()).build();
         } finally {
+            sizeLock.unlock();
             session.logout();
         }
 
     }
 
     /**
-     * Modify an existing datastream's content
+     * Modify an existing datastream's content, computing and checking
+     * digests as for {@link #addDatastream}
      * 
      * @param pid persistent identifier of the digital object
      * @param dsid datastream identifier
+     * @param checksumType algorithm of the checksum, SHA-1 by default
+     * @param checksum expected digest of the content
+     * @param digestList further algorithms to compute, each optionally
+     *        followed by a colon and its expected value
+     * @param treeHash whether to compute a SHA-256 tree hash in parallel
      * @param contentType Content-Type header
      * @param requestBodyStream Binary blob
      * @return 201 Created
@@ -291,33 +508,291 @@ public class FedoraDatastreams extends AbstractResource {
     @Timed
     public Response modifyDatastream(@PathParam("pid")
     final String pid, @PathParam("dsid")
-    final String dsid, @HeaderParam("Content-Type")
+    final String dsid, @QueryParam("checksumType")
+    @DefaultValue("SHA-1")
+    final String checksumType, @QueryParam("checksum")
+    final String checksum, @QueryParam("digest")
+    final List<String> digestList, @QueryParam("treeHash")
+    @DefaultValue("false")
+    final boolean treeHash, @HeaderParam("Content-Type")
     final MediaType requestContentType, final InputStream requestBodyStream)
         throws RepositoryException, IOException, InvalidChecksumException {
 
+        final Lock sizeLock = ObjectSizes.lock(pid);
         try {
             final MediaType contentType =
                     requestContentType != null ? requestContentType
                             : APPLICATION_OCTET_STREAM_TYPE;
             final String dsPath =
                     LegacyPathHelpers.getDatastreamsPath(pid, dsid);
-
-            datastreamService.createDatastreamNode(session, dsPath, contentType
-                    .toString(), requestBodyStream);
+            final long oldSize = getDatastreamSize(dsPath);
+            final Datastream duplicate =
+                    findDuplicate(checksumType, checksum, digestList, treeHash);
+            if (duplicate != null) {
+                // the body is never read, so with Expect: 100-continue the
+                // client is not asked to send it
+                logger.debug("Linking {} to the content of {}", dsPath,
+                        duplicate.getDsId());
+                linkDuplicate(dsPath, contentType.toString(), duplicate);
+            } else {
+                final TreeHash tree =
+                        treeHash ? new TreeHash(requestBodyStream) : null;
+                final ContentDigests digests =
+                        requestDigests(tree == null ? requestBodyStream
+                                : tree, checksumType, checksum, digestList);
+                datastreamService.createDatastreamNode(session, dsPath,
+                        contentType.toString(), digests, kernelChecksum(
+                                checksumType, checksum));
+                recordDigests(dsPath, digests, tree);
+            }
+            adjustObjectSize(pid, getDatastreamSize(dsPath) - oldSize);
             session.save();
+            indexDigests(dsPath);
+            invalidateProfile(pid);
             return created(uriInfo.getRequestUri()).build();
         } finally {
+            sizeLock.unlock();
             session.logout();
         }
 
     }
 
     /**
-     * Get the datastream profile of a datastream
+     * Start a resumable upload of a datastream's content. The content is then
+     * PUT in chunks to the upload's location and committed with a POST. If
+     * the size is not given here, the chunk that ends the content must be
+     * marked final before the upload can be committed.
      * 
      * @param pid persistent identifier of the digital object
      * @param dsid datastream identifier
-     * @return 200
+     * @param mimeType the type of the datastream
+     * @param size the length of the content, if known
+     * @return 201 Created, locating the upload
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    @POST
+    @Path("/{dsid}/uploads")
+    @Timed
+    public Response createUpload(@PathParam("pid")
+    final String pid, @PathParam("dsid")
+    final String dsid, @QueryParam("mimeType")
+    @DefaultValue("application/octet-stream")
+    final String mimeType, @QueryParam("size")
+    final Long size) throws RepositoryException, IOException {
+        try {
+            if (!session.nodeExists(getObjectPath(pid))) {
+                return Response.status(NOT_FOUND).build();
+            }
+            if (size != null && size < 0) {
+                return Response.status(BAD_REQUEST).entity(
+                        "size must not be negative").build();
+            }
+            final UploadSessions.Upload upload;
+            try {
+                upload =
+                        uploadSessions.create(pid, dsid, mimeType, size,
+                                session.getUserID());
+            } catch (final IllegalArgumentException e) {
+                return Response.status(BAD_REQUEST).entity(e.getMessage())
+                        .build();
+            }
+            logger.debug("Started upload {} of {}/{}", upload.getId(), pid,
+                    dsid);
+            return created(
+                    uriInfo.getAbsolutePathBuilder().path(upload.getId())
+                            .build()).build();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * @param pid persistent identifier of the digital object
+     * @param dsid datastream identifier
+     * @param uploadId
+     * @return 200, with the byte ranges received so far in a Range header
+     */
+    @GET
+    @Path("/{dsid}/uploads/{upload}")
+    @Timed
+    public Response getUpload(@PathParam("pid")
+    final String pid, @PathParam("dsid")
+    final String dsid, @PathParam("upload")
+    final String uploadId) {
+        try {
+            final UploadSessions.Upload upload =
+                    findUpload(pid, dsid, uploadId);
+            return Response.ok().header("Range", upload.getReceived())
+                    .build();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Write a chunk of an upload. Chunks may arrive in any order, at the same
+     * time, and more than once.
+     * 
+     * @param pid persistent identifier of the digital object
+     * @param dsid datastream identifier
+     * @param uploadId
+     * @param offset where in the content the chunk belongs
+     * @param last whether the chunk ends the content
+     * @param chunk
+     * @return 204, with the byte ranges received so far in a Range header
+     * @throws IOException
+     */
+    @PUT
+    @Path("/{dsid}/uploads/{upload}")
+    @Timed
+    public Response writeUpload(@PathParam("pid")
+    final String pid, @PathParam("dsid")
+    final String dsid, @PathParam("upload")
+    final String uploadId, @QueryParam("offset")
+    @DefaultValue("0")
+    final long offset, @QueryParam("final")
+    @DefaultValue("false")
+    final boolean last, final InputStream chunk) throws IOException {
+        try {
+            final UploadSessions.Upload upload =
+                    findUpload(pid, dsid, uploadId);
+            try {
+                upload.write(offset, chunk, last);
+            } catch (final IllegalArgumentException e) {
+                return Response.status(BAD_REQUEST).entity(e.getMessage())
+                        .header("Range", upload.getReceived()).build();
+            } catch (final IllegalStateException e) {
+                // committed or expired since it was found
+                return Response.status(NOT_FOUND).build();
+            }
+            return noContent().header("Range", upload.getReceived()).build();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Create or replace the datastream from a complete upload, computing and
+     * checking digests as for {@link #addDatastream}. A failed commit leaves
+     * the upload in place to be corrected and committed again.
+     * 
+     * @param pid persistent identifier of the digital object
+     * @param dsid datastream identifier
+     * @param uploadId
+     * @param checksumType algorithm of the checksum, SHA-1 by default
+     * @param checksum expected digest of the content
+     * @param digestList further algorithms to compute, each optionally
+     *        followed by a colon and its expected value
+     * @param treeHash whether to compute a SHA-256 tree hash in parallel
+     * @return 201 Created, or 409 if chunks are still missing or the size of
+     *         the content is not yet known
+     * @throws RepositoryException
+     * @throws IOException
+     * @throws InvalidChecksumException
+     */
+    @POST
+    @Path("/{dsid}/uploads/{upload}")
+    @Timed
+    public Response commitUpload(@PathParam("pid")
+    final String pid, @PathParam("dsid")
+    final String dsid, @PathParam("upload")
+    final String uploadId, @QueryParam("checksumType")
+    @DefaultValue("SHA-1")
+    final String checksumType, @QueryParam("checksum")
+    final String checksum, @QueryParam("digest")
+    final List<String> digestList, @QueryParam("treeHash")
+    @DefaultValue("false")
+    final boolean treeHash) throws RepositoryException, IOException,
+        InvalidChecksumException {
+        final Lock sizeLock = ObjectSizes.lock(pid);
+        try {
+            final UploadSessions.Upload upload =
+                    findUpload(pid, dsid, uploadId);
+            if (!upload.isComplete()) {
+                return Response.status(CONFLICT).entity(
+                        "The upload is incomplete").header("Range",
+                        upload.getReceived()).build();
+            }
+            final String dsPath =
+                    LegacyPathHelpers.getDatastreamsPath(pid, dsid);
+            final InputStream content = upload.open();
+            try {
+                final TreeHash tree = treeHash ? new TreeHash(content) : null;
+                final ContentDigests digests =
+                        requestDigests(tree == null ? content : tree,
+                                checksumType, checksum, digestList);
+                final long oldSize = getDatastreamSize(dsPath);
+                datastreamService.createDatastreamNode(session, dsPath,
+                        upload.getMimeType(), digests, kernelChecksum(
+                                checksumType, checksum));
+                recordDigests(dsPath, digests, tree);
+                adjustObjectSize(pid, getDatastreamSize(dsPath) - oldSize);
+            } finally {
+                content.close();
+            }
+            session.save();
+            indexDigests(dsPath);
+            invalidateProfile(pid);
+            uploadSessions.remove(upload);
+            return created(
+                    uriInfo.getBaseUriBuilder().path(FedoraDatastreams.class)
+                            .path(dsid).build(pid)).build();
+        } finally {
+            sizeLock.unlock();
+            session.logout();
+        }
+    }
+
+    /**
+     * Abandon an upload.
+     * 
+     * @param pid persistent identifier of the digital object
+     * @param dsid datastream identifier
+     * @param uploadId
+     * @return 204
+     */
+    @DELETE
+    @Path("/{dsid}/uploads/{upload}")
+    @Timed
+    public Response deleteUpload(@PathParam("pid")
+    final String pid, @PathParam("dsid")
+    final String dsid, @PathParam("upload")
+    final String uploadId) {
+        try {
+            uploadSessions.remove(findUpload(pid, dsid, uploadId));
+            return noContent().build();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * @return the upload, which must belong to the datastream and to the
+     *         session's user
+     */
+    private UploadSessions.Upload findUpload(final String pid,
+            final String dsid, final String uploadId) {
+        final UploadSessions.Upload upload = uploadSessions.get(uploadId);
+        if (upload == null || !upload.getPid().equals(pid) ||
+                !upload.getDsid().equals(dsid)) {
+            throw new WebApplicationException(NOT_FOUND);
+        }
+        if (!Objects.equal(upload.getOwner(), session.getUserID())) {
+            throw new WebApplicationException(FORBIDDEN);
+        }
+        return upload;
+    }
+
+    /**
+     * Get the datastream profile of a datastream. Requests carrying
+     * If-None-Match or If-Modified-Since are answered with 304 when the
+     * datastream is unchanged, before the profile is assembled.
+     * 
+     * @param pid persistent identifier of the digital object
+     * @param dsid datastream identifier
+     * @param request
+     * @return 200 or 304
      * @throws RepositoryException
      * @throws IOException
      * @throws TemplateException
@@ -326,14 +801,41 @@ public class FedoraDatastreams extends AbstractResource {
     @Path("/{dsid}")
     @Timed
     @Produces({TEXT_XML, APPLICATION_JSON})
-    public DatastreamProfile getDatastream(@PathParam("pid")
+    public Response getDatastream(@PathParam("pid")
     final String pid, @PathParam("dsid")
-    final String dsid) throws RepositoryException, IOException {
+    final String dsid, @Context
+    final Request request) throws RepositoryException, IOException {
 
         try {
+            checkKnown(pid);
             logger.trace("Executing getDatastream() with dsId: " + dsid);
-            return getDSProfile(datastreamService.getDatastream(session,
-                    LegacyPathHelpers.getDatastreamsPath(pid, dsid)));
+            final Datastream ds =
+                    datastreamService.getDatastream(session, LegacyPathHelpers
+                            .getDatastreamsPath(pid, dsid));
+
+            final Date date = ds.getLastModifiedDate();
+            ResponseBuilder builder = null;
+            EntityTag etag = null;
+            if (date != null) {
+                final Variant variant =
+                        request.selectVariant(PROFILE_VARIANTS);
+                etag =
+                        datastreamProfileTag(ds.getContentDigest(), ds
+                                .getMimeType(), date, variant == null ? null
+                                : variant.getMediaType());
+                builder =
+                        request.evaluatePreconditions(roundToSeconds(date),
+                                etag);
+            }
+
+            if (builder == null) {
+                builder = Response.ok(getDSProfile(ds));
+            }
+            if (etag != null) {
+                builder.lastModified(date).tag(etag).variants(
+                        PROFILE_VARIANTS);
+            }
+            return builder.cacheControl(mustRevalidate()).build();
         } finally {
             session.logout();
         }
@@ -341,10 +843,13 @@ public class FedoraDatastreams extends AbstractResource {
     }
 
     /**
-     * Get the binary content of a datastream
+     * Get the binary content of a datastream, or the byte ranges of it named
+     * by a Range header as 206 Partial Content
      * 
      * @param pid persistent identifier of the digital object
      * @param dsid datastream identifier
+     * @param rangeHeader byte ranges to send
+     * @param ifRange validator the ranges are conditional upon
      * @return Binary blob
      * @throws RepositoryException
      */
@@ -352,10 +857,13 @@ public class FedoraDatastreams extends AbstractResource {
     @Path("/{dsid}/content")
     public Response getDatastreamContent(@PathParam("pid")
     final String pid, @PathParam("dsid")
-    final String dsid, @Context
+    final String dsid, @HeaderParam("Range")
+    final String rangeHeader, @HeaderParam("If-Range")
+    final String ifRange, @Context
     final Request request) throws RepositoryException {
 
         try {
+            checkKnown(pid);
             final Datastream ds =
                     datastreamService.getDatastream(session, LegacyPathHelpers
                             .getDatastreamsPath(pid, dsid));
@@ -363,26 +871,57 @@ public class FedoraDatastreams extends AbstractResource {
             final EntityTag etag =
                     new EntityTag(ds.getContentDigest().toString());
             final Date date = ds.getLastModifiedDate();
-            final Date roundedDate = new Date();
-            roundedDate.setTime(date.getTime() - date.getTime() % 1000);
             ResponseBuilder builder =
-                    request.evaluatePreconditions(roundedDate, etag);
-
-            final CacheControl cc = new CacheControl();
-            cc.setMaxAge(0);
-            cc.setMustRevalidate(true);
+                    request.evaluatePreconditions(roundToSeconds(date), etag);
 
             if (builder == null) {
-                builder = Response.ok(ds.getContent(), ds.getMimeType());
+                builder = contentResponse(ds, rangeHeader, ifRange, etag, date);
             }
 
-            return builder.cacheControl(cc).lastModified(date).tag(etag)
-                    .build();
+            return builder.cacheControl(mustRevalidate()).lastModified(date)
+                    .tag(etag).build();
         } finally {
             session.logout();
         }
     }
 
+    private static ResponseBuilder contentResponse(final Datastream ds,
+            final String rangeHeader, final String ifRange,
+            final EntityTag etag, final Date date) throws RepositoryException {
+        final long size = ds.getSize();
+        final List<ByteRange> ranges =
+                ifRangeMatches(ifRange, etag, date) ? ByteRange.parse(
+                        rangeHeader, size) : null;
+        if (ranges == null) {
+            final ContentOutput content =
+                    new ContentOutput(ds.getContent(), null, null, null, size);
+            return Response.ok(content, ds.getMimeType()).header(
+                    "Accept-Ranges", "bytes").header("Content-Length", size);
+        }
+        if (ranges.isEmpty()) {
+            return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE).header(
+                    "Content-Range", "bytes */" + size);
+        }
+        if (ranges.size() == 1) {
+            final ByteRange range = ranges.get(0);
+            final ContentOutput content =
+                    new ContentOutput(ds.getContent(), ranges, null, null,
+                            size);
+            return Response.status(PARTIAL_CONTENT).entity(content).type(
+                    ds.getMimeType()).header("Accept-Ranges", "bytes").header(
+                    "Content-Range", range.contentRange(size)).header(
+                    "Content-Length", range.length());
+        }
+        final String boundary = randomUUID().toString();
+        final ContentOutput content =
+                new ContentOutput(ds.getContent(), ranges, boundary, ds
+                        .getMimeType(), size);
+        return Response.status(PARTIAL_CONTENT).entity(content).type(
+                "multipart/byteranges; boundary=" + boundary).header(
+                "Accept-Ranges", "bytes").header("Content-Length",
+                content.getLength());
+    }
+
     /**
      * Get previous version information for this datastream
      * 
@@ -402,6 +941,7 @@ public class FedoraDatastreams extends AbstractResource {
     final String dsid) throws RepositoryException, IOException {
 
         try {
+            checkKnown(pid);
             // TODO implement this after deciding on a versioning model
             final Datastream ds =
                     datastreamService.getDatastream(session, LegacyPathHelpers
@@ -430,22 +970,37 @@ public class FedoraDatastreams extends AbstractResource {
     public Response deleteDatastream(@PathParam("pid")
     final String pid, @PathParam("dsid")
     final String dsid) throws RepositoryException {
+        final Lock sizeLock = ObjectSizes.lock(pid);
         try {
-            nodeService.deleteObject(session, LegacyPathHelpers
-                    .getDatastreamsPath(pid, dsid));
+            final String dsPath =
+                    LegacyPathHelpers.getDatastreamsPath(pid, dsid);
+            final long oldSize = getDatastreamSize(dsPath);
+            nodeService.deleteObject(session, dsPath);
+            adjustObjectSize(pid, -oldSize);
             session.save();
+            invalidateProfile(pid);
             return noContent().build();
         } finally {
+            sizeLock.unlock();
             session.logout();
         }
     }
 
-    private DatastreamProfile getDSProfile(final Datastream ds)
+    static DatastreamProfile getDSProfile(final Datastream ds)
         throws RepositoryException, IOException {
+        return getDSProfile(ds, ds.getObject().getName());
+    }
+
+    /**
+     * Builds the profile of a datastream whose object is already known,
+     * sparing a lookup of its parent.
+     */
+    private static DatastreamProfile getDSProfile(final Datastream ds,
+            final String pid) throws RepositoryException, IOException {
         logger.trace("Executing getDSProfile() with node: " + ds.getDsId());
         final DatastreamProfile dsProfile = new DatastreamProfile();
         dsProfile.dsID = ds.getDsId();
-        dsProfile.pid = ds.getObject().getName();
+        dsProfile.pid = pid;
         logger.trace("Retrieved datastream " + ds.getDsId() + "'s parent: " +
                 dsProfile.pid);
         if (ds.getContentDigest() != null) {
@@ -475,6 +1030,194 @@ public class FedoraDatastreams extends AbstractResource {
                 }
             };
 
+    /**
+     * Refuses requests for objects that do not exist before any datastream
+     * lookup is made.
+     */
+    private void checkKnown(final String pid) throws RepositoryException {
+        if (pidIndex != null && !pidIndex.exists(session, pid)) {
+            throw new WebApplicationException(NOT_FOUND);
+        }
+    }
+
+    /**
+     * The digests to compute as the content is written: every requested
+     * algorithm, and the checksumType unless it is SHA-1, which the kernel
+     * computes and checks itself.
+     */
+    private static ContentDigests requestDigests(final InputStream content,
+            final String checksumType, final String checksum,
+            final List<String> digestList) {
+        final ContentDigests digests = new ContentDigests(content);
+        try {
+            digests.request(digestList);
+            if (!"SHA-1".equals(ContentDigests.algorithmName(checksumType))) {
+                digests.request(checksumType, checksum);
+            }
+        } catch (final IllegalArgumentException e) {
+            throw new WebApplicationException(Response.status(BAD_REQUEST)
+                    .entity(e.getMessage()).build());
+        }
+        return digests;
+    }
+
+    private static URI kernelChecksum(final String checksumType,
+            final String checksum) {
+        if (checksum == null || checksum.isEmpty() ||
+                !"SHA-1".equals(ContentDigests.algorithmName(checksumType))) {
+            return null;
+        }
+        return ContentDigest.asURI("SHA-1", checksum);
+    }
+
+    private void recordDigests(final String dsPath,
+            final ContentDigests digests, final TreeHash treeHash)
+        throws RepositoryException, IOException, InvalidChecksumException {
+        final Node node = session.getNode(dsPath);
+        ContentDigests.record(node, digests.finish());
+        TreeHash.record(node, treeHash);
+    }
+
+    /**
+     * @return a datastream already holding content with the checksum the
+     *         client supplied, or null. Content that must be read for further
+     *         digests or a tree hash is never deduplicated.
+     */
+    private Datastream findDuplicate(final String checksumType,
+            final String checksum, final List<String> digestList,
+            final boolean treeHash) throws RepositoryException {
+        if (digestIndex == null || checksum == null || checksum.isEmpty() ||
+                treeHash || !digestList.isEmpty()) {
+            return null;
+        }
+        final URI digest;
+        try {
+            digest =
+                    ContentDigests.asURI(checksumType, checksum.trim()
+                            .toLowerCase());
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+        return digestIndex.find(session, datastreamService, digest);
+    }
+
+    /**
+     * Writes a datastream whose jcr:data is the very Binary the duplicate
+     * holds, so the repository shares the stored content instead of reading
+     * and writing it again, and carries over the digests and size recorded
+     * with it. Everything is read from the duplicate before the datastream
+     * is written, since the duplicate may be that same datastream.
+     */
+    private void linkDuplicate(final String dsPath, final String mimeType,
+            final Datastream duplicate) throws RepositoryException,
+        IOException, InvalidChecksumException {
+        final Node source = duplicate.getNode();
+        final Node sourceContent = source.getNode(JCR_CONTENT);
+        final Binary content = sourceContent.getProperty(JCR_DATA).getBinary();
+        final long size = duplicate.getSize();
+        // the kernel's digest and size of the bytes; jcr: properties
+        // describe the node itself
+        final Map<String, Object> contentProperties =
+                new LinkedHashMap<String, Object>();
+        final PropertyIterator properties = sourceContent.getProperties();
+        while (properties.hasNext()) {
+            final Property property = properties.nextProperty();
+            if (!property.getName().startsWith("jcr:")) {
+                contentProperties.put(property.getName(), valueOf(property));
+            }
+        }
+        final Map<String, Object> recorded =
+                new LinkedHashMap<String, Object>();
+        for (final String name : new String[] {ContentDigests.DIGESTS,
+                TreeHash.TREE_HASH, TreeHash.TREE_HASH_CHUNK}) {
+            if (source.hasProperty(name)) {
+                recorded.put(name, valueOf(source.getProperty(name)));
+            }
+        }
+
+        datastreamService.createDatastreamNode(session, dsPath, mimeType,
+                new ByteArrayInputStream(new byte[0]), null);
+        final Node target = session.getNode(dsPath);
+        final Node targetContent = target.getNode(JCR_CONTENT);
+        setProperties(targetContent, contentProperties);
+        targetContent.setProperty(JCR_DATA, content);
+        for (final String name : new String[] {ContentDigests.DIGESTS,
+                TreeHash.TREE_HASH, TreeHash.TREE_HASH_CHUNK}) {
+            if (!recorded.containsKey(name) && target.hasProperty(name)) {
+                target.getProperty(name).remove();
+            }
+        }
+        setProperties(target, recorded);
+        digestIndex.deduplicated(size);
+    }
+
+    /**
+     * @return the property's Value, or its Value[] if it is multiple
+     */
+    private static Object valueOf(final Property property)
+        throws RepositoryException {
+        return property.isMultiple() ? property.getValues() : property
+                .getValue();
+    }
+
+    private static void setProperties(final Node target,
+            final Map<String, Object> values) throws RepositoryException {
+        for (final Entry<String, Object> value : values.entrySet()) {
+            if (value.getValue() instanceof Value[]) {
+                target.setProperty(value.getKey(), (Value[]) value.getValue());
+            } else {
+                target.setProperty(value.getKey(), (Value) value.getValue());
+            }
+        }
+    }
+
+    private void indexDigests(final String dsPath) throws RepositoryException {
+        if (digestIndex != null) {
+            final Datastream ds =
+                    datastreamService.getDatastream(session, dsPath);
+            if (ds != null) {
+                digestIndex.add(ds);
+            }
+        }
+    }
+
+    private long getDatastreamSize(final String dsPath)
+        throws RepositoryException {
+        if (!session.nodeExists(dsPath)) {
+            return 0;
+        }
+        return datastreamService.getDatastream(session, dsPath).getSize();
+    }
+
+    private void adjustObjectSize(final String pid, final long delta)
+        throws RepositoryException {
+        ObjectSizes.adjust(session.getNode(getObjectPath(pid)), delta);
+    }
+
+    private void invalidateProfile(final String pid) {
+        if (profileCache != null) {
+            profileCache.invalidate(pid);
+        }
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected uploads
+     * 
+     * @param uploadSessions
+     */
+    public void setUploadSessions(final UploadSessions uploadSessions) {
+        this.uploadSessions = uploadSessions;
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected digest index
+     * 
+     * @param digestIndex
+     */
+    public void setDigestIndex(final DigestIndex digestIndex) {
+        this.digestIndex = digestIndex;
+    }
+
     public void setSession(final Session session) {
         this.session = session;
     }
@@ -38,7 +38,6 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 
 import org.fcrepo.http.commons.AbstractResource;
-import org.fcrepo.http.commons.session.InjectedSession;
 import org.fcrepo.jaxb.search.FieldSearchResult;
 import org.fcrepo.jaxb.search.ObjectFields;
 import org.fcrepo.jcr.FedoraJcrTypes;
@@ -64,14 +63,18 @@ public class FedoraFieldSearch extends AbstractResource implements
 
     private static final String QUERY_STRING = buildQueryString();
 
-    @InjectedSession
+    @PooledSession
     protected Session session;
 
     @GET
     @Timed
     @Produces(TEXT_HTML)
     public String searchForm() throws RepositoryException {
-        return new VelocityViewer().getFieldSearch(null);
+        try {
+            return new VelocityViewer().getFieldSearch(null);
+        } finally {
+            session.logout();
+        }
     }
 
     @POST
@@ -163,7 +166,9 @@ public class FedoraFieldSearch extends AbstractResource implements
         // TODO expand to more fields
         final String sqlExpression =
                 "SELECT * FROM [" + FEDORA_OBJECT +
-                        "] WHERE [dc:identifier] like $sterm OR [dc:title] like $sterm";
+                        "] WHERE [dc:identifier] like $sterm" +
+                        " OR [dc:title] like $sterm" +
+                        " OR [fedora:objLabel] like $sterm";
         return sqlExpression;
     }
 
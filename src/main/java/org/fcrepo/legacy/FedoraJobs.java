@@ -0,0 +1,241 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.System.getProperty;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.MediaType.TEXT_XML;
+import static javax.ws.rs.core.Response.accepted;
+import static javax.ws.rs.core.Response.noContent;
+import static javax.ws.rs.core.Response.status;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.UNAUTHORIZED;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+
+import org.fcrepo.http.commons.AbstractResource;
+import org.fcrepo.jaxb.responses.management.JobStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.annotation.Timed;
+
+/**
+ * JAX-RS Resource for starting, following and cancelling background
+ * maintenance jobs. Jobs run in a privileged session of their own, outside
+ * any caller's access rules, so every request here must come from a user in
+ * the administrator role (fcrepo.legacy.jobs.role, fedoraAdmin by default).
+ */
+@Component("fedoraLegacyJobs")
+@Scope("prototype")
+@Path("/v3/jobs")
+public class FedoraJobs extends AbstractResource {
+
+    @Autowired
+    private LegacyJobs jobs;
+
+    @Context
+    private SecurityContext securityContext;
+
+    private String adminRole = getProperty("fcrepo.legacy.jobs.role",
+            "fedoraAdmin");
+
+    /**
+     * Starts a job that recomputes the recorded size of every object.
+     * 
+     * @param batchSize objects resized between saves
+     * @param pauseMillis pause after each batch
+     * @return 202 with the job status
+     */
+    @POST
+    @Path("/objectSizes")
+    @Timed
+    @Produces({TEXT_XML, APPLICATION_JSON})
+    public Response repairObjectSizes(@QueryParam("batchSize")
+    @DefaultValue("500")
+    final int batchSize, @QueryParam("pause")
+    @DefaultValue("0")
+    final long pauseMillis) {
+        checkAdmin();
+        final LegacyJob job = new ObjectSizeRepairJob();
+        job.setBatchSize(batchSize);
+        job.setPauseMillis(pauseMillis);
+        return submit(job);
+    }
+
+    /**
+     * Starts a job that deletes one object, or every object whose PID starts
+     * with a prefix, saving after each batch of removed nodes.
+     * 
+     * @param pid the object to purge
+     * @param prefix purge all objects whose PIDs start with this
+     * @param batchSize nodes removed between saves
+     * @param pauseMillis pause after each batch
+     * @return 202 with the job status
+     */
+    @POST
+    @Path("/purge")
+    @Timed
+    @Produces({TEXT_XML, APPLICATION_JSON})
+    public Response purge(@QueryParam("pid")
+    final String pid, @QueryParam("prefix")
+    final String prefix, @QueryParam("batchSize")
+    @DefaultValue("500")
+    final int batchSize, @QueryParam("pause")
+    @DefaultValue("0")
+    final long pauseMillis) {
+        checkAdmin();
+        if ((pid == null) == (prefix == null)) {
+            throw new WebApplicationException(status(BAD_REQUEST).entity(
+                    "Exactly one of pid and prefix is required").build());
+        }
+        final LegacyJob job;
+        try {
+            job =
+                    pid != null ? PurgeJob.forObject(pid) : PurgeJob
+                            .forPrefix(prefix);
+        } catch (final IllegalArgumentException e) {
+            throw new WebApplicationException(status(BAD_REQUEST).entity(
+                    e.getMessage()).build());
+        }
+        job.setBatchSize(batchSize);
+        job.setPauseMillis(pauseMillis);
+        return submit(job);
+    }
+
+    /**
+     * Starts a job that moves objects from the flat layout into the hashed
+     * layout shaped by the fcrepo.legacy.layout.levels and
+     * fcrepo.legacy.layout.width properties. Objects can be read and written
+     * throughout; a stopped migration carries on when started again.
+     * 
+     * @param batchSize objects moved between saves
+     * @param pauseMillis pause after each batch
+     * @return 202 with the job status
+     */
+    @POST
+    @Path("/layout")
+    @Timed
+    @Produces({TEXT_XML, APPLICATION_JSON})
+    public Response migrateLayout(@QueryParam("batchSize")
+    @DefaultValue("500")
+    final int batchSize, @QueryParam("pause")
+    @DefaultValue("0")
+    final long pauseMillis) {
+        checkAdmin();
+        final ObjectPathLayout current = LegacyPathHelpers.getLayout();
+        final ObjectPathLayout target =
+                current instanceof MigratingLayout ? ((MigratingLayout) current)
+                        .getTo() : LegacyPathHelpers.configuredHashedLayout();
+        if (current.getShardDepth() > 0 &&
+                !(current instanceof MigratingLayout)) {
+            throw new WebApplicationException(status(CONFLICT).entity(
+                    "Objects are already sharded").build());
+        }
+        final LegacyJob job = new LayoutMigrationJob(target);
+        job.setBatchSize(batchSize);
+        job.setPauseMillis(pauseMillis);
+        return submit(job);
+    }
+
+    /**
+     * @param id
+     * @return the status of the job
+     */
+    @GET
+    @Path("/{id}")
+    @Timed
+    @Produces({TEXT_XML, APPLICATION_JSON})
+    public JobStatus getJob(@PathParam("id")
+    final String id) {
+        checkAdmin();
+        return findJob(id).getStatus();
+    }
+
+    /**
+     * Asks a job to stop after its current unit of work.
+     * 
+     * @param id
+     * @return 204
+     */
+    @DELETE
+    @Path("/{id}")
+    @Timed
+    public Response cancelJob(@PathParam("id")
+    final String id) {
+        checkAdmin();
+        findJob(id).cancel();
+        return noContent().build();
+    }
+
+    /**
+     * Refuses anonymous callers and anyone outside the administrator role.
+     */
+    private void checkAdmin() {
+        if (securityContext == null ||
+                securityContext.getUserPrincipal() == null) {
+            throw new WebApplicationException(UNAUTHORIZED);
+        }
+        if (!securityContext.isUserInRole(adminRole)) {
+            throw new WebApplicationException(FORBIDDEN);
+        }
+    }
+
+    private Response submit(final LegacyJob job) {
+        jobs.submit(job);
+        return accepted(job.getStatus()).location(
+                uriInfo.getBaseUriBuilder().path(FedoraJobs.class).path(
+                        job.getId()).build()).build();
+    }
+
+    private LegacyJob findJob(final String id) {
+        final LegacyJob job = jobs.get(id);
+        if (job == null) {
+            throw new WebApplicationException(NOT_FOUND);
+        }
+        return job;
+    }
+
+    public void setJobs(final LegacyJobs jobs) {
+        this.jobs = jobs;
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected security
+     * context
+     *
+     * @param securityContext
+     */
+    public void setSecurityContext(final SecurityContext securityContext) {
+        this.securityContext = securityContext;
+    }
+}
@@ -16,20 +16,52 @@
 
 package org.fcrepo.legacy;
 
-import static com.hp.hpl.jena.sparql.util.FmtUtils.stringEsc;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.MediaType.APPLICATION_XML;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 import static javax.ws.rs.core.MediaType.TEXT_HTML;
+import static javax.ws.rs.core.MediaType.TEXT_HTML_TYPE;
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 import static javax.ws.rs.core.MediaType.TEXT_XML;
+import static javax.ws.rs.core.MediaType.TEXT_XML_TYPE;
 import static javax.ws.rs.core.Response.created;
 import static javax.ws.rs.core.Response.noContent;
+import static javax.ws.rs.core.Response.notAcceptable;
 import static javax.ws.rs.core.Response.ok;
-import static org.fcrepo.jaxb.responses.access.ObjectProfile.ObjectStates.A;
+import static javax.ws.rs.core.Response.status;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.CREATED;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Variant.mediaTypes;
+import static org.fcrepo.legacy.CacheValidators.mustRevalidate;
+import static org.fcrepo.legacy.CacheValidators.objectProfileTag;
+import static org.fcrepo.legacy.CacheValidators.roundToSeconds;
+import static org.fcrepo.legacy.LegacyObjectProperties.getLabel;
+import static org.fcrepo.legacy.LegacyObjectProperties.getOwnerId;
+import static org.fcrepo.legacy.LegacyObjectProperties.getState;
+import static org.fcrepo.legacy.LegacyObjectProperties.setLabel;
+import static org.fcrepo.legacy.LegacyObjectProperties.setOwnerId;
+import static org.fcrepo.legacy.LegacyObjectProperties.setState;
+import static org.fcrepo.legacy.ObjectListing.APPLICATION_NDJSON;
+import static org.fcrepo.legacy.ObjectListing.APPLICATION_NDJSON_TYPE;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
 
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
@@ -39,16 +71,25 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Variant;
+import javax.xml.stream.XMLStreamException;
 
 import org.fcrepo.http.commons.AbstractResource;
-import org.fcrepo.http.commons.session.InjectedSession;
 import org.fcrepo.jaxb.responses.access.ObjectProfile;
-import org.fcrepo.jcr.FedoraJcrTypes;
+import org.fcrepo.jaxb.responses.access.ObjectProfile.ObjectStates;
+import org.fcrepo.jaxb.responses.management.BatchIngestResult;
+import org.fcrepo.jaxb.responses.management.BatchIngestResult.Item;
 import org.fcrepo.kernel.FedoraObject;
-import org.fcrepo.kernel.rdf.GraphSubjects;
-import org.fcrepo.kernel.rdf.impl.DefaultGraphSubjects;
+import org.fcrepo.kernel.exception.InvalidChecksumException;
 import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
@@ -61,27 +102,81 @@ public class FedoraObjects extends AbstractResource {
 
     private static final Logger logger = getLogger(FedoraObjects.class);
 
-    private static GraphSubjects graphSubjects;
+    private static final int MAX_LISTING_LIMIT = 10000;
 
-    @InjectedSession
+    private static final int MAX_INGEST_CHUNK = 10000;
+
+    private static final List<Variant> LISTING_VARIANTS = mediaTypes(
+            TEXT_XML_TYPE, APPLICATION_JSON_TYPE, APPLICATION_NDJSON_TYPE)
+            .add().build();
+
+    private static final List<Variant> PROFILE_VARIANTS = mediaTypes(
+            TEXT_XML_TYPE, APPLICATION_JSON_TYPE, TEXT_HTML_TYPE).add()
+            .build();
+
+    @Autowired(required = false)
+    private ObjectProfileCache profileCache;
+
+    @Autowired(required = false)
+    private PidIndex pidIndex;
+
+    // every GET here only reads, so anonymous ones may share a pooled
+    // session; other methods get one of their own from the session factory
+    @PooledSession
     protected Session session;
 
     /**
-     * Provides a serialized list of JCR names for all objects in the repo.
+     * Provides a page of the PIDs of objects in the repo, streamed as XML, JSON
+     * or line-delimited JSON. Each page carries an opaque cursor from which
+     * the next page may be requested.
      * 
+     * @param cursor cursor from a previous page, or none for the first page
+     * @param limit maximum number of PIDs in the page
+     * @param request
      * @return 200
      * @throws RepositoryException
      */
     @GET
     @Timed
-    public Response getObjects() throws RepositoryException {
+    @Produces({TEXT_XML, APPLICATION_JSON, APPLICATION_NDJSON})
+    public Response getObjects(@QueryParam("cursor")
+    final String cursor, @QueryParam("limit")
+    @DefaultValue("1000")
+    final int limit, @Context
+    final Request request) throws RepositoryException {
+
+        final Variant variant = request.selectVariant(LISTING_VARIANTS);
+        if (variant == null) {
+            session.logout();
+            return notAcceptable(LISTING_VARIANTS).build();
+        }
+        if (limit < 1) {
+            session.logout();
+            return status(BAD_REQUEST).entity("limit must be positive")
+                    .build();
+        }
 
+        boolean streaming = false;
         try {
-            return ok(
-                    nodeService.getObjectNames(session,
-                            LegacyPathHelpers.OBJECT_PATH).toString()).build();
+            final ObjectListing.Position start =
+                    ObjectListing.decodeCursor(cursor, LegacyPathHelpers
+                            .getLayout().getShardDepth());
+            final Node objects =
+                    objectService.getObjectNode(session,
+                            LegacyPathHelpers.OBJECT_PATH);
+            final MediaType format = variant.getMediaType();
+            final Response response =
+                    ok(
+                            new ObjectListing(session, objects, start, min(
+                                    limit, MAX_LISTING_LIMIT), format),
+                            format).build();
+            // the listing logs the session out once the page is written
+            streaming = true;
+            return response;
         } finally {
-            session.logout();
+            if (!streaming) {
+                session.logout();
+            }
         }
 
     }
@@ -96,35 +191,92 @@ public class FedoraObjects extends AbstractResource {
     @Path("/new")
     @Timed
     public Response ingestAndMint() throws RepositoryException {
-        return ingest(pidMinter.mintPid(), "");
+        return ingest(pidMinter.mintPid(), "", null, null);
     }
 
     /**
-     * Does nothing yet-- must be improved to handle the FCREPO3 PUT to
-     * /objects/{pid}
+     * Ingests a FOXML document as the given object, creating it or replacing
+     * the datastreams the document carries.
      * 
      * @param pid
+     * @param foxml a FOXML 1.1 digitalObject
      * @return 201
      * @throws RepositoryException
+     * @throws IOException
+     * @throws InvalidChecksumException
      */
     @PUT
     @Path("/{pid}")
     @Timed
+    @Consumes({TEXT_XML, APPLICATION_XML})
     public Response modify(@PathParam("pid")
-    final String pid) throws RepositoryException {
+    final String pid, final InputStream foxml) throws RepositoryException,
+        IOException, InvalidChecksumException {
         try {
-            // TODO do something with awful mess of fcrepo3 query params
-            session.save();
-            return created(uriInfo.getRequestUri()).build();
+            return loadFoxml(pid, foxml);
         } finally {
             session.logout();
         }
     }
 
+    /**
+     * Ingests a FOXML document as a new object. The document is streamed, so
+     * its size does not bear on memory use.
+     * 
+     * @param pid
+     * @param foxml a FOXML 1.1 digitalObject
+     * @return 201, or 409 if the object exists
+     * @throws RepositoryException
+     * @throws IOException
+     * @throws InvalidChecksumException
+     */
+    @POST
+    @Path("/{pid}")
+    @Timed
+    @Consumes({TEXT_XML, APPLICATION_XML})
+    public Response ingestFoxml(@PathParam("pid")
+    final String pid, final InputStream foxml) throws RepositoryException,
+        IOException, InvalidChecksumException {
+        try {
+            if (session.nodeExists(LegacyPathHelpers.getObjectPath(pid))) {
+                return status(CONFLICT).entity("Object already exists: " + pid)
+                        .build();
+            }
+            return loadFoxml(pid, foxml);
+        } finally {
+            session.logout();
+        }
+    }
+
+    private Response loadFoxml(final String pid, final InputStream foxml)
+        throws RepositoryException, IOException, InvalidChecksumException {
+        logger.debug("Attempting to ingest FOXML with pid: {}", pid);
+        final Lock sizeLock = ObjectSizes.lock(pid);
+        try {
+            new FoxmlIngester(session, objectService, datastreamService)
+                    .ingest(pid, foxml);
+            addToIndex(pid);
+            session.save();
+        } catch (final XMLStreamException e) {
+            return status(BAD_REQUEST).entity(
+                    "Malformed FOXML: " + e.getMessage()).build();
+        } catch (final IllegalArgumentException e) {
+            return status(BAD_REQUEST).entity(e.getMessage()).build();
+        } finally {
+            sizeLock.unlock();
+        }
+        invalidateProfile(pid);
+        logger.debug("Finished FOXML ingest with pid: {}", pid);
+        return created(subjects().getObjectUri(pid)).entity(pid).build();
+    }
+
     /**
      * Creates a new object.
      * 
      * @param pid
+     * @param label
+     * @param ownerId
+     * @param state one of A, D or I
      * @return 201
      * @throws RepositoryException
      */
@@ -134,44 +286,179 @@ public class FedoraObjects extends AbstractResource {
     public Response ingest(@PathParam("pid")
     final String pid, @QueryParam("label")
     @DefaultValue("")
-    final String label) throws RepositoryException {
+    final String label, @QueryParam("ownerId")
+    final String ownerId, @QueryParam("state")
+    final String state) throws RepositoryException {
 
         logger.debug("Attempting to ingest with pid: {}", pid);
 
         try {
-            final FedoraObject result =
-                    objectService.createObject(session, LegacyPathHelpers
-                            .getObjectPath(pid));
+            createObject(pid, label, ownerId, parseState(state));
+            session.save();
+            logger.debug("Finished ingest with pid: {}", pid);
+            return created(subjects().getObjectUri(pid)).entity(pid).build();
 
-            if (label != null && !"".equals(label)) {
+        } finally {
+            session.logout();
+        }
+    }
 
-                result.updatePropertiesDataset(getGraphSubjects(), "INSERT { <" +
-                        getGraphSubjects().getGraphSubject(result.getNode()) +
-                        "> <http://purl.org/dc/terms/title> \"" +
-                        stringEsc(label) + "\"} WHERE { }");
-            }
+    /**
+     * Creates many objects from a stream of (pid, label) records, saving the
+     * session once per chunk rather than once per object. A chunk whose save
+     * fails is discarded and each of its items is reported as failed. A
+     * malformed record ends the batch: the records before it are still
+     * saved and the result carries an error naming the failure.
+     * 
+     * @param chunkSize number of objects created between saves
+     * @param requestBodyStream line-delimited JSON objects or a JSON array,
+     *        each with a "pid" and optional "label", "ownerId" and "state"
+     * @return 200 with a result per item
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    @POST
+    @Path("/batch")
+    @Timed
+    @Consumes({APPLICATION_NDJSON, APPLICATION_JSON})
+    @Produces({TEXT_XML, APPLICATION_JSON})
+    public BatchIngestResult batchIngest(@QueryParam("chunkSize")
+    @DefaultValue("1000")
+    final int chunkSize, final InputStream requestBodyStream)
+        throws RepositoryException, IOException {
 
-            session.save();
-            logger.debug("Finished ingest with pid: {}", pid);
-            return created(uriInfo.getRequestUri()).entity(pid).build();
+        final int chunk = max(1, min(chunkSize, MAX_INGEST_CHUNK));
+        final BatchIngestResult result = new BatchIngestResult();
+        final List<Item> pending = new ArrayList<Item>(chunk);
 
+        try {
+            final IngestRecords records = new IngestRecords(requestBodyStream);
+            while (records.hasNext()) {
+                final IngestRecords.Record record = records.next();
+                final Item item = ingestItem(record);
+                result.items.add(item);
+                if (item.status == CREATED.getStatusCode()) {
+                    pending.add(item);
+                    if (pending.size() >= chunk) {
+                        saveChunk(pending);
+                    }
+                }
+            }
+            saveChunk(pending);
+        } catch (final IllegalArgumentException e) {
+            // the records read so far are well-formed, so keep them and
+            // report where the stream broke off
+            logger.debug("Batch ingest stopped at a malformed record: {}",
+                    e.getMessage());
+            saveChunk(pending);
+            result.error = e.getMessage();
         } finally {
             session.logout();
         }
+
+        for (final Item item : result.items) {
+            if (item.status == CREATED.getStatusCode()) {
+                result.created++;
+            } else {
+                result.failed++;
+            }
+        }
+        logger.debug("Batch ingest created {} objects, {} failed",
+                result.created, result.failed);
+        return result;
     }
 
-    private GraphSubjects getGraphSubjects() {
-        if (null == graphSubjects) {
-            graphSubjects = new DefaultGraphSubjects(session);
+    private Item ingestItem(final IngestRecords.Record record) {
+        if (record.pid == null || record.pid.isEmpty()) {
+            final Item item = new Item(record.pid, BAD_REQUEST.getStatusCode());
+            item.message = "No pid given";
+            return item;
+        }
+        try {
+            if (session.nodeExists(LegacyPathHelpers.getObjectPath(record.pid))) {
+                final Item item = new Item(record.pid, CONFLICT.getStatusCode());
+                item.message = "Object already exists";
+                return item;
+            }
+            createObject(record.pid, record.label, record.ownerId,
+                    parseState(record.state));
+            return new Item(record.pid, CREATED.getStatusCode());
+        } catch (final WebApplicationException e) {
+            final Item item = new Item(record.pid, BAD_REQUEST.getStatusCode());
+            item.message = "Unknown state: " + record.state;
+            return item;
+        } catch (final RepositoryException e) {
+            logger.debug("Could not create {}: {}", record.pid, e);
+            final Item item =
+                    new Item(record.pid, INTERNAL_SERVER_ERROR.getStatusCode());
+            item.message = e.getMessage();
+            return item;
+        }
+    }
+
+    private void saveChunk(final List<Item> pending)
+        throws RepositoryException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            session.save();
+            logger.debug("Saved batch ingest chunk of {} objects", pending
+                    .size());
+        } catch (final RepositoryException e) {
+            logger.warn("Batch ingest chunk of {} objects failed to save: {}",
+                    pending.size(), e);
+            session.refresh(false);
+            for (final Item item : pending) {
+                item.status = INTERNAL_SERVER_ERROR.getStatusCode();
+                item.message = e.getMessage();
+            }
+        }
+        pending.clear();
+    }
+
+    private FedoraObject createObject(final String pid, final String label,
+            final String ownerId, final ObjectStates state)
+        throws RepositoryException {
+        final FedoraObject result =
+                objectService.createObject(session, LegacyPathHelpers
+                        .getObjectPath(pid));
+        final Node node = result.getNode();
+
+        if (label != null && !"".equals(label)) {
+            setLabel(node, label);
+        }
+        if (ownerId != null && !"".equals(ownerId)) {
+            setOwnerId(node, ownerId);
+        }
+        if (state != null) {
+            setState(node, state);
+        }
+        addToIndex(pid);
+        invalidateProfile(pid);
+        return result;
+    }
+
+    private static ObjectStates parseState(final String state) {
+        if (state == null || state.isEmpty()) {
+            return null;
+        }
+        try {
+            return ObjectStates.valueOf(state);
+        } catch (final IllegalArgumentException e) {
+            throw new WebApplicationException(status(BAD_REQUEST).entity(
+                    "Unknown state: " + state).build());
         }
-        return graphSubjects;
     }
 
     /**
-     * Returns an object profile.
+     * Returns an object profile. Requests carrying If-None-Match or
+     * If-Modified-Since are answered with 304 when the profile is unchanged;
+     * repeated requests are answered from the profile cache.
      * 
      * @param pid
-     * @return 200
+     * @param request
+     * @return 200 or 304
      * @throws RepositoryException
      * @throws IOException
      */
@@ -179,42 +466,166 @@ public class FedoraObjects extends AbstractResource {
     @Path("/{pid}")
     @Timed
     @Produces({TEXT_XML, APPLICATION_JSON, TEXT_HTML})
-    public ObjectProfile getObject(@PathParam("pid")
-    final String pid) throws RepositoryException, IOException {
+    public Response getObject(@PathParam("pid")
+    final String pid, @Context
+    final Request request) throws RepositoryException, IOException {
+
+        try {
+            if (isUnknown(pid)) {
+                return status(NOT_FOUND).build();
+            }
+            ObjectProfile objectProfile =
+                    profileCache == null ? null : profileCache
+                            .getIfPresent(pid, session.getUserID());
+            if (objectProfile == null) {
+                objectProfile =
+                        loadProfile(pid, objectService.getObject(session,
+                                LegacyPathHelpers.getObjectPath(pid)));
+            }
+            final Date lastModified = objectProfile.objLastModDate;
+
+            ResponseBuilder builder = null;
+            EntityTag etag = null;
+            if (lastModified != null) {
+                final Variant variant =
+                        request.selectVariant(PROFILE_VARIANTS);
+                etag =
+                        objectProfileTag(objectProfile, variant == null ? null
+                                : variant.getMediaType());
+                builder =
+                        request.evaluatePreconditions(
+                                roundToSeconds(lastModified), etag);
+            }
+
+            if (builder == null) {
+                objectProfile.objItemIndexViewURL =
+                        subjects().getDatastreamsUri(pid);
+                builder = ok(objectProfile);
+            }
+            if (etag != null) {
+                builder.lastModified(lastModified).tag(etag).variants(
+                        PROFILE_VARIANTS);
+            }
+            return builder.cacheControl(mustRevalidate()).build();
+        } finally {
+            session.logout();
+        }
+
+    }
+
+    private ObjectProfile loadProfile(final String pid, final FedoraObject obj)
+        throws RepositoryException {
+        if (profileCache == null) {
+            return buildProfile(pid, obj);
+        }
+        return profileCache.get(pid, session.getUserID(),
+                new Callable<ObjectProfile>() {
+
+                    @Override
+                    public ObjectProfile call() throws RepositoryException {
+                        return buildProfile(pid, obj);
+                    }
+                });
+    }
+
+    static ObjectProfile buildProfile(final String pid,
+            final FedoraObject obj) throws RepositoryException {
+        final ObjectProfile objectProfile = new ObjectProfile();
+        objectProfile.pid = pid;
+
+        objectProfile.objLabel = getLabel(obj.getNode());
+        objectProfile.objOwnerId = getOwnerId(obj.getNode());
+        objectProfile.objCreateDate = obj.getCreatedDate();
+        objectProfile.objLastModDate = obj.getLastModifiedDate();
+        objectProfile.objSize = ObjectSizes.getSize(obj);
+        objectProfile.objState = getState(obj.getNode());
+        objectProfile.objModels = obj.getModels();
+        return objectProfile;
+    }
+
+    /**
+     * Exports an object as FOXML 1.1, streamed as it is read from the
+     * repository. In the archive context datastream content is carried inline
+     * as base64; in the migrate and public contexts it is referenced by URL.
+     * 
+     * @param pid
+     * @param context one of archive, migrate or public
+     * @return 200
+     * @throws RepositoryException
+     */
+    @GET
+    @Path("/{pid}/export")
+    @Timed
+    @Produces({TEXT_XML, APPLICATION_XML})
+    public Response export(@PathParam("pid")
+    final String pid, @QueryParam("context")
+    @DefaultValue("public")
+    final String context) throws RepositoryException {
 
+        boolean streaming = false;
         try {
-            final ObjectProfile objectProfile = new ObjectProfile();
+            if (isUnknown(pid)) {
+                return status(NOT_FOUND).build();
+            }
+            final ObjectExport.ExportContext exportContext;
+            try {
+                exportContext =
+                        ObjectExport.ExportContext.valueOf(context
+                                .toUpperCase());
+            } catch (final IllegalArgumentException e) {
+                return status(BAD_REQUEST).entity(
+                        "Unknown export context: " + context).build();
+            }
             final FedoraObject obj =
                     objectService.getObject(session, LegacyPathHelpers
                             .getObjectPath(pid));
-            objectProfile.pid = pid;
-
-            if (obj.getNode().hasProperty("dc:title")) {
-                objectProfile.objLabel =
-                        obj.getNode().getProperty("dc:title").getValues()[0]
-                                .getString();
+            final ObjectProfile profile = buildProfile(pid, obj);
+            final Response response =
+                    ok(
+                            new ObjectExport(session, obj.getNode(), profile,
+                                    exportContext, subjects()),
+                            TEXT_XML_TYPE).build();
+            // the export logs the session out once the object is written
+            streaming = true;
+            return response;
+        } finally {
+            if (!streaming) {
+                session.logout();
             }
+        }
+    }
 
-            objectProfile.objOwnerId =
-                    obj.getNode().getProperty(FedoraJcrTypes.JCR_CREATEDBY)
-                            .getString();
-            objectProfile.objCreateDate = obj.getCreatedDate();
-            objectProfile.objLastModDate = obj.getLastModifiedDate();
-            objectProfile.objSize = obj.getSize();
-            objectProfile.objItemIndexViewURL =
-                    uriInfo.getAbsolutePathBuilder().path("datastreams")
-                            .build();
-            objectProfile.objState = A;
-            objectProfile.objModels = obj.getModels();
-            return objectProfile;
+    /**
+     * Recomputes the recorded size of an object from its datastreams.
+     * 
+     * @param pid
+     * @return 200 with the new size
+     * @throws RepositoryException
+     */
+    @POST
+    @Path("/{pid}/size")
+    @Timed
+    @Produces(TEXT_PLAIN)
+    public Response repairSize(@PathParam("pid")
+    final String pid) throws RepositoryException {
+        final Lock sizeLock = ObjectSizes.lock(pid);
+        try {
+            final long size =
+                    ObjectSizes.recompute(objectService.getObjectNode(session,
+                            LegacyPathHelpers.getObjectPath(pid)));
+            session.save();
+            invalidateProfile(pid);
+            return ok(Long.toString(size)).build();
         } finally {
+            sizeLock.unlock();
             session.logout();
         }
-
     }
 
     /**
-     * Deletes an object.
+     * Deletes an object in a single save. Very large objects are better
+     * removed with a purge job (POST /v3/jobs/purge), which saves in batches
+     * off the request thread.
      * 
      * @param pid
      * @return
@@ -230,10 +641,37 @@ public class FedoraObjects extends AbstractResource {
                     .getObjectPath(pid));
         } finally {
             session.save();
+            invalidateProfile(pid);
+            if (pidIndex != null) {
+                pidIndex.scheduleRebuild();
+            }
         }
         return noContent().build();
     }
 
+    /**
+     * @return true if the object does not exist
+     */
+    private boolean isUnknown(final String pid) throws RepositoryException {
+        return pidIndex != null && !pidIndex.exists(session, pid);
+    }
+
+    private void addToIndex(final String pid) {
+        if (pidIndex != null) {
+            pidIndex.add(pid);
+        }
+    }
+
+    private LegacySubjects subjects() {
+        return LegacySubjects.forBaseUri(uriInfo.getBaseUri());
+    }
+
+    private void invalidateProfile(final String pid) {
+        if (profileCache != null) {
+            profileCache.invalidate(pid);
+        }
+    }
+
     public void setSession(final Session session) {
         this.session = session;
     }
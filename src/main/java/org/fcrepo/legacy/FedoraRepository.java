@@ -38,7 +38,6 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Response;
 
 import org.fcrepo.http.commons.AbstractResource;
-import org.fcrepo.http.commons.session.InjectedSession;
 import org.fcrepo.jaxb.responses.access.DescribeRepository;
 import org.fcrepo.kernel.services.ObjectService;
 import org.fcrepo.kernel.services.RepositoryService;
@@ -64,7 +63,7 @@ public class FedoraRepository extends AbstractResource {
     @Autowired
     private ObjectService objectService;
 
-    @InjectedSession
+    @PooledSession
     protected Session session;
 
     @GET
@@ -79,20 +78,24 @@ public class FedoraRepository extends AbstractResource {
             }
         }
 
-        // add in node namespaces
-        final Builder<String, String> namespaces = builder();
-        namespaces.putAll(RepositoryService.getRepositoryNamespaces(session));
-        repoproperties.put("node.namespaces", namespaces.build());
-
-        // add in node types
-        final Builder<String, String> nodetypes = builder();
-        final NodeTypeIterator i = objectService.getAllNodeTypes(session);
-        while (i.hasNext()) {
-            final NodeType nt = i.nextNodeType();
-            nodetypes.put(nt.getName(), nt.toString());
+        try {
+            // add in node namespaces
+            final Builder<String, String> namespaces = builder();
+            namespaces.putAll(RepositoryService
+                    .getRepositoryNamespaces(session));
+            repoproperties.put("node.namespaces", namespaces.build());
+
+            // add in node types
+            final Builder<String, String> nodetypes = builder();
+            final NodeTypeIterator i = objectService.getAllNodeTypes(session);
+            while (i.hasNext()) {
+                final NodeType nt = i.nextNodeType();
+                nodetypes.put(nt.getName(), nt.toString());
+            }
+            repoproperties.put("node.types", nodetypes.build());
+        } finally {
+            session.logout();
         }
-        repoproperties.put("node.types", nodetypes.build());
-        session.logout();
         return ok(repoproperties.build().toString()).build();
     }
 
@@ -101,15 +104,20 @@ public class FedoraRepository extends AbstractResource {
     @Produces({TEXT_XML, APPLICATION_XML, APPLICATION_JSON})
     public DescribeRepository describe() throws RepositoryException {
 
-        final DescribeRepository description = new DescribeRepository();
-        description.repositoryBaseURL = uriInfo.getBaseUri();
-        description.sampleOAIURL =
-                uriInfo.getBaseUriBuilder().path(
-                        LegacyPathHelpers.OBJECT_PATH + "/123/oai_dc").build();
-        description.repositorySize = objectService.getRepositorySize();
-        description.numberOfObjects = objectService.getRepositoryObjectCount();
-        session.logout();
-        return description;
+        try {
+            final DescribeRepository description = new DescribeRepository();
+            description.repositoryBaseURL = uriInfo.getBaseUri();
+            description.sampleOAIURL =
+                    uriInfo.getBaseUriBuilder().path(
+                            LegacyPathHelpers.OBJECT_PATH + "/123/oai_dc")
+                            .build();
+            description.repositorySize = objectService.getRepositorySize();
+            description.numberOfObjects =
+                    objectService.getRepositoryObjectCount();
+            return description;
+        } finally {
+            session.logout();
+        }
     }
 
     @GET
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+
+/**
+ * Every object is a direct child of the objects node.
+ */
+public class FlatLayout implements ObjectPathLayout {
+
+    @Override
+    public String getObjectPath(final String pid) {
+        return OBJECT_PATH + "/" + pid;
+    }
+
+    @Override
+    public String getPidFromPath(final String path) {
+        if (path == null || !path.startsWith(OBJECT_PATH + "/")) {
+            return null;
+        }
+        final String relative = path.substring(OBJECT_PATH.length() + 1);
+        final int end = relative.indexOf('/');
+        final String pid = end < 0 ? relative : relative.substring(0, end);
+        return pid.isEmpty() ? null : pid;
+    }
+
+    @Override
+    public int getShardDepth() {
+        return 0;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.hash.Hashing.md5;
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+
+/**
+ * Places each object beneath a pairtree of shard nodes named by the leading
+ * hex digits of the MD5 hash of its PID, e.g. /objects/3f/a2/demo:1 with two
+ * levels of width two. Hashing spreads PIDs evenly whatever their pattern,
+ * so with the defaults each shard holds about one in 65536 of the objects.
+ */
+public class HashedLayout implements ObjectPathLayout {
+
+    private final int levels;
+
+    private final int width;
+
+    /**
+     * @param levels number of shard levels
+     * @param width hex digits in each shard name
+     */
+    public HashedLayout(final int levels, final int width) {
+        checkArgument(levels > 0 && width > 0 && levels * width <= 32,
+                "Shards must use between 1 and 32 hex digits of the hash");
+        this.levels = levels;
+        this.width = width;
+    }
+
+    @Override
+    public String getObjectPath(final String pid) {
+        final String hash = md5().hashString(pid, UTF_8).toString();
+        final StringBuilder path =
+                new StringBuilder(OBJECT_PATH.length() + levels * (width + 1) +
+                        pid.length() + 1).append(OBJECT_PATH);
+        for (int i = 0; i < levels; i++) {
+            path.append('/').append(hash, i * width, (i + 1) * width);
+        }
+        return path.append('/').append(pid).toString();
+    }
+
+    @Override
+    public String getPidFromPath(final String path) {
+        if (path == null || !path.startsWith(OBJECT_PATH + "/")) {
+            return null;
+        }
+        int start = OBJECT_PATH.length() + 1;
+        for (int i = 0; i < levels; i++) {
+            final int slash = path.indexOf('/', start);
+            if (slash < 0) {
+                return null;
+            }
+            start = slash + 1;
+        }
+        final int end = path.indexOf('/', start);
+        final String pid =
+                end < 0 ? path.substring(start) : path.substring(start, end);
+        return pid.isEmpty() ? null : pid;
+    }
+
+    @Override
+    public int getShardDepth() {
+        return levels;
+    }
+
+    /**
+     * @return number of shard levels
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return hex digits in each shard name
+     */
+    public int getWidth() {
+        return width;
+    }
+}
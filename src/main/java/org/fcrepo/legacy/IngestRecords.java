@@ -0,0 +1,146 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.codehaus.jackson.JsonToken.END_ARRAY;
+import static org.codehaus.jackson.JsonToken.END_OBJECT;
+import static org.codehaus.jackson.JsonToken.FIELD_NAME;
+import static org.codehaus.jackson.JsonToken.START_ARRAY;
+import static org.codehaus.jackson.JsonToken.START_OBJECT;
+import static org.codehaus.jackson.JsonToken.VALUE_NULL;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Pulls (pid, label) records off a request body one at a time. The body may
+ * be line-delimited JSON objects or a single JSON array of objects. Records
+ * may also carry the fcrepo3 ownerId and state; other fields are ignored.
+ */
+public class IngestRecords implements Iterator<IngestRecords.Record> {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final JsonParser parser;
+
+    private Record next;
+
+    /**
+     * @param src the request body
+     * @throws IOException
+     */
+    public IngestRecords(final InputStream src) throws IOException {
+        this.parser = jsonFactory.createJsonParser(src);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readRecord();
+            } catch (final IOException e) {
+                throw new IllegalArgumentException(
+                        "Malformed batch ingest record: " + e.getMessage(), e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Record result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private Record readRecord() throws IOException {
+        JsonToken token = parser.nextToken();
+        while (token == START_ARRAY || token == END_ARRAY) {
+            token = parser.nextToken();
+        }
+        if (token == null) {
+            parser.close();
+            return null;
+        }
+        if (token != START_OBJECT) {
+            throw new IOException("expected an object but found " + token);
+        }
+        final Record record = new Record();
+        while ((token = parser.nextToken()) != END_OBJECT) {
+            if (token != FIELD_NAME) {
+                throw new IOException("expected a field but found " + token);
+            }
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("pid".equals(field)) {
+                record.pid = value(field);
+            } else if ("label".equals(field)) {
+                record.label = value(field);
+            } else if ("ownerId".equals(field)) {
+                record.ownerId = value(field);
+            } else if ("state".equals(field)) {
+                record.state = value(field);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return record;
+    }
+
+    /**
+     * @return the text of the current token, which must be a plain value
+     */
+    private String value(final String field) throws IOException {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == VALUE_NULL) {
+            return null;
+        }
+        if (token == null || !token.isScalarValue()) {
+            throw new IOException("expected a value for \"" + field +
+                    "\" but found " + token);
+        }
+        return parser.getText();
+    }
+
+    /**
+     * One object to be ingested.
+     */
+    public static class Record {
+
+        public String pid;
+
+        public String label;
+
+        public String ownerId;
+
+        public String state;
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static javax.jcr.nodetype.NodeType.NT_FOLDER;
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.ItemExistsException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+
+/**
+ * Moves objects from directly beneath the objects node into the shards of a
+ * sharded layout, a batch at a time, while the repository stays in use.
+ * While the job runs a {@link MigratingLayout} resolves each object wherever
+ * it is, and learns of each move as soon as it is saved. Every batch is
+ * saved before the next is taken, and the objects still directly beneath
+ * the root are exactly those left to move, so a cancelled, failed or
+ * interrupted migration resumes where it stopped when started again. The
+ * repository records the migration as it starts, and the target layout in
+ * the same save as the last move, so other instances and restarts pick up
+ * the layout the objects are actually in; see {@link LegacyLayouts}.
+ */
+public class LayoutMigrationJob extends LegacyJob {
+
+    private static final Logger logger = getLogger(LayoutMigrationJob.class);
+
+    private static final int OBJECTS_PER_PASS = 100;
+
+    private final ObjectPathLayout target;
+
+    private final List<String> unsaved = new ArrayList<String>();
+
+    private MigratingLayout migrating;
+
+    /**
+     * @param target a sharded layout
+     */
+    public LayoutMigrationJob(final ObjectPathLayout target) {
+        checkArgument(target.getShardDepth() > 0,
+                "Objects can only be moved into a sharded layout");
+        this.target = target;
+    }
+
+    @Override
+    public String getType() {
+        return "layoutMigration";
+    }
+
+    @Override
+    protected void execute(final Session session) throws RepositoryException,
+        InterruptedException {
+        final ObjectPathLayout current = LegacyPathHelpers.getLayout();
+        final ObjectPathLayout from =
+                current instanceof MigratingLayout ? ((MigratingLayout) current)
+                        .getFrom() : current;
+        if (from.getShardDepth() != 0) {
+            throw new IllegalStateException(
+                    "Objects can only be moved from a flat layout");
+        }
+        if (current instanceof MigratingLayout &&
+                ((MigratingLayout) current).getTo().equals(target)) {
+            migrating = (MigratingLayout) current;
+        } else {
+            migrating = new MigratingLayout(from, target);
+            migrating.setSessionFactory(getSessionFactory());
+            LegacyPathHelpers.setLayout(migrating);
+        }
+        LegacyLayouts.record(session, migrating);
+        session.save();
+
+        final Node root = session.getNode(OBJECT_PATH);
+        setTotal(countObjects(root));
+        final Set<String> skipped = new HashSet<String>();
+        List<Node> batch = unmoved(root, skipped);
+        while (!batch.isEmpty() && !isCancelled()) {
+            for (final Node object : batch) {
+                if (isCancelled()) {
+                    break;
+                }
+                final String pid = object.getName();
+                try {
+                    move(session, object, target.getObjectPath(pid));
+                    unsaved.add(pid);
+                    completed(session);
+                } catch (final RepositoryException e) {
+                    skipped.add(pid);
+                    failed("could not move " + pid + ": " + e.getMessage());
+                }
+            }
+            batch = unmoved(root, skipped);
+        }
+
+        if (!isCancelled() && skipped.isEmpty()) {
+            LegacyLayouts.record(session, target);
+            session.save();
+            saved();
+            LegacyPathHelpers.setLayout(target);
+            migrating.close();
+            logger.info("Every object has moved; the repository now " +
+                    "records the hashed layout");
+        }
+    }
+
+    @Override
+    protected void saved() {
+        for (final String pid : unsaved) {
+            migrating.moved(pid);
+        }
+        unsaved.clear();
+    }
+
+    private static void move(final Session session, final Node object,
+            final String destination) throws RepositoryException {
+        Node parent = object.getParent();
+        final String shards =
+                destination.substring(parent.getPath().length() + 1,
+                        destination.lastIndexOf('/'));
+        for (final String shard : shards.split("/")) {
+            if (parent.hasNode(shard)) {
+                parent = parent.getNode(shard);
+                if (ObjectTree.isObject(parent)) {
+                    throw new ItemExistsException("An object is in the way " +
+                            "of shard " + parent.getPath());
+                }
+            } else {
+                parent = parent.addNode(shard, NT_FOLDER);
+            }
+        }
+        session.move(object.getPath(), destination);
+    }
+
+    /**
+     * @return the next objects directly beneath the root, less those that
+     *         could not be moved
+     */
+    private static List<Node> unmoved(final Node root,
+            final Set<String> skipped) throws RepositoryException {
+        final List<Node> batch = new ArrayList<Node>(OBJECTS_PER_PASS);
+        final NodeIterator children = root.getNodes();
+        while (children.hasNext() && batch.size() < OBJECTS_PER_PASS) {
+            final Node child = children.nextNode();
+            if (ObjectTree.isObject(child) &&
+                    !skipped.contains(child.getName())) {
+                batch.add(child);
+            }
+        }
+        return batch;
+    }
+
+    private static long countObjects(final Node root)
+        throws RepositoryException {
+        long count = 0;
+        final NodeIterator children = root.getNodes();
+        while (children.hasNext()) {
+            if (ObjectTree.isObject(children.nextNode())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
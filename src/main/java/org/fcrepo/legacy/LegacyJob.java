@@ -0,0 +1,251 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.util.UUID.randomUUID;
+import static org.fcrepo.jaxb.responses.management.JobStatus.JobStates.CANCELLED;
+import static org.fcrepo.jaxb.responses.management.JobStatus.JobStates.COMPLETED;
+import static org.fcrepo.jaxb.responses.management.JobStatus.JobStates.FAILED;
+import static org.fcrepo.jaxb.responses.management.JobStatus.JobStates.QUEUED;
+import static org.fcrepo.jaxb.responses.management.JobStatus.JobStates.RUNNING;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.jaxb.responses.management.JobStatus;
+import org.fcrepo.jaxb.responses.management.JobStatus.JobStates;
+import org.slf4j.Logger;
+
+/**
+ * A long-running repository job executed off the request thread by
+ * {@link LegacyJobs}. Jobs work in their own session, save it after every
+ * batch of units of work so the transient change set stays small, and may
+ * pause between batches to leave room for interactive traffic.
+ */
+public abstract class LegacyJob implements Runnable {
+
+    private static final Logger logger = getLogger(LegacyJob.class);
+
+    private final String id = randomUUID().toString();
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile JobStates state = QUEUED;
+
+    private volatile boolean cancelled;
+
+    private volatile Date started;
+
+    private volatile Date finished;
+
+    private volatile String message;
+
+    private volatile long total = -1;
+
+    private SessionFactory sessionFactory;
+
+    private int batchSize = 500;
+
+    private long pauseMillis;
+
+    private int sinceSave;
+
+    /**
+     * @return a short name for the kind of job
+     */
+    public abstract String getType();
+
+    /**
+     * Do the work of the job. Implementations should call
+     * {@link #completed(Session)} or {@link #failed(String)} once per
+     * unit of work and stop early when {@link #isCancelled()}.
+     *
+     * @param session
+     * @throws RepositoryException
+     * @throws InterruptedException
+     */
+    protected abstract void execute(final Session session)
+        throws RepositoryException, InterruptedException;
+
+    @Override
+    public void run() {
+        if (cancelled) {
+            finish(CANCELLED);
+            return;
+        }
+        state = RUNNING;
+        started = new Date();
+        logger.info("Starting {} job {}", getType(), id);
+        Session session = null;
+        try {
+            session = sessionFactory.getSession();
+            execute(session);
+            session.save();
+            saved();
+            finish(cancelled ? CANCELLED : COMPLETED);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(CANCELLED);
+        } catch (final Exception e) {
+            logger.error("{} job {} failed: {}", getType(), id, e);
+            message = e.getMessage();
+            finish(FAILED);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    /**
+     * Count a finished unit of work, saving the session at the end of each
+     * batch and then pausing if throttled.
+     *
+     * @param session
+     * @throws RepositoryException
+     * @throws InterruptedException
+     */
+    protected void completed(final Session session)
+        throws RepositoryException, InterruptedException {
+        processed.incrementAndGet();
+        if (++sinceSave >= batchSize) {
+            session.save();
+            saved();
+            sinceSave = 0;
+            logger.debug("{} job {} has processed {}", getType(), id,
+                    processed.get());
+            if (pauseMillis > 0) {
+                Thread.sleep(pauseMillis);
+            }
+        }
+    }
+
+    /**
+     * Called after each save of the job's session; does nothing unless
+     * overridden.
+     */
+    protected void saved() {
+    }
+
+    /**
+     * Count a unit of work that could not be done.
+     *
+     * @param reason
+     */
+    protected void failed(final String reason) {
+        logger.warn("{} job {}: {}", getType(), id, reason);
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Ask the job to stop at the next unit of work.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return whether the job has been asked to stop
+     */
+    protected boolean isCancelled() {
+        return cancelled || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * @return a snapshot of the job's progress
+     */
+    public JobStatus getStatus() {
+        final JobStatus status = new JobStatus();
+        status.id = id;
+        status.type = getType();
+        status.state = state;
+        status.processed = processed.get();
+        status.failed = failed.get();
+        status.total = total < 0 ? null : total;
+        status.throughput = throughput(status.processed);
+        status.started = started;
+        status.finished = finished;
+        status.message = message;
+        return status;
+    }
+
+    /**
+     * @param total the number of units of work the job expects to do
+     */
+    protected void setTotal(final long total) {
+        this.total = total;
+    }
+
+    /**
+     * @param count units of work processed
+     * @return units of work processed per second while running
+     */
+    private double throughput(final long count) {
+        final Date from = started;
+        if (from == null) {
+            return 0;
+        }
+        final Date to = finished;
+        final long millis =
+                (to == null ? System.currentTimeMillis() : to.getTime()) -
+                        from.getTime();
+        return millis <= 0 ? 0 : count * 1000.0 / millis;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @param batchSize units of work between saves
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param pauseMillis pause after each batch
+     */
+    public void setPauseMillis(final long pauseMillis) {
+        this.pauseMillis = pauseMillis;
+    }
+
+    void setSessionFactory(final SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @return where the job's session came from
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    private void finish(final JobStates finalState) {
+        state = finalState;
+        finished = new Date();
+        logger.info("{} job {} finished {}: {} processed, {} failed",
+                getType(), id, finalState, processed.get(), failed.get());
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.Integer.getInteger;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.PreDestroy;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs {@link LegacyJob}s on a small pool of background threads and keeps
+ * the most recent of them available for status requests.
+ */
+@Component
+public class LegacyJobs {
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    private final ExecutorService executor = newFixedThreadPool(getInteger(
+            "fcrepo.legacy.jobs.threads", 1), new ThreadFactoryBuilder()
+            .setNameFormat("fcrepo-legacy-job-%d").setDaemon(true).build());
+
+    private final Cache<String, LegacyJob> jobs = CacheBuilder.newBuilder()
+            .maximumSize(1000).build();
+
+    /**
+     * @param job
+     * @return the job, now queued
+     */
+    public LegacyJob submit(final LegacyJob job) {
+        job.setSessionFactory(sessionFactory);
+        jobs.put(job.getId(), job);
+        executor.submit(job);
+        return job;
+    }
+
+    /**
+     * @param id
+     * @return the job, or null if it is unknown or long finished
+     */
+    public LegacyJob get(final String id) {
+        return jobs.getIfPresent(id);
+    }
+
+    /**
+     * Cancels every job and stops the pool.
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (final LegacyJob job : jobs.asMap().values()) {
+            job.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected session factory
+     *
+     * @param sessionFactory
+     */
+    public void setSessionFactory(final SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the layout of the objects in the repository itself, as properties
+ * of the root node, so that every instance and every restart resolves
+ * objects where they are whatever fcrepo.legacy.layout says. At startup the
+ * recorded layout takes over from the configured one; a repository that
+ * records none takes the configured layout, unless that is flat and objects
+ * are already sharded, in which case startup fails rather than losing them.
+ * A {@link MigratingLayout} is given the session factory to find the objects
+ * that have not moved yet.
+ */
+@Component
+public class LegacyLayouts {
+
+    private static final Logger logger = getLogger(LegacyLayouts.class);
+
+    public static final String LAYOUT = "fedora:legacyLayout";
+
+    public static final String LAYOUT_LEVELS = "fedora:legacyLayoutLevels";
+
+    public static final String LAYOUT_WIDTH = "fedora:legacyLayoutWidth";
+
+    private static final String FLAT = "flat";
+
+    private static final String HASHED = "hashed";
+
+    private static final String MIGRATING = "migrating";
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    /**
+     * Puts the recorded layout into effect, recording the configured one if
+     * the repository has objects but no layout yet.
+     *
+     * @throws RepositoryException
+     */
+    @PostConstruct
+    public void init() throws RepositoryException {
+        final ObjectPathLayout configured = LegacyPathHelpers.getLayout();
+        ObjectPathLayout layout = configured;
+        final Session session = sessionFactory.getSession();
+        try {
+            final ObjectPathLayout recorded = read(session);
+            if (recorded != null) {
+                if (!describe(recorded).equals(describe(configured))) {
+                    logger.warn("fcrepo.legacy.layout asks for {} but the " +
+                            "repository's objects are {}; using the latter",
+                            describe(configured), describe(recorded));
+                }
+                layout = recorded;
+            } else if (session.nodeExists(OBJECT_PATH)) {
+                if (configured.getShardDepth() == 0 &&
+                        hasShards(session.getNode(OBJECT_PATH))) {
+                    throw new IllegalStateException("Objects are sharded " +
+                            "but fcrepo.legacy.layout asks for a flat layout");
+                }
+                record(session, configured);
+                session.save();
+            }
+        } finally {
+            session.logout();
+        }
+        if (layout instanceof MigratingLayout) {
+            ((MigratingLayout) layout).setSessionFactory(sessionFactory);
+        }
+        LegacyPathHelpers.setLayout(layout);
+        logger.info("Objects are {}", describe(layout));
+    }
+
+    /**
+     * Logs out a migrating layout's sessions.
+     */
+    @PreDestroy
+    public void destroy() {
+        final ObjectPathLayout layout = LegacyPathHelpers.getLayout();
+        if (layout instanceof MigratingLayout) {
+            ((MigratingLayout) layout).close();
+        }
+    }
+
+    /**
+     * Records the layout in the session, to take effect when it is saved.
+     *
+     * @param session
+     * @param layout a flat, hashed or migrating layout
+     * @throws RepositoryException
+     */
+    public static void record(final Session session,
+            final ObjectPathLayout layout) throws RepositoryException {
+        final Node root = session.getRootNode();
+        final ObjectPathLayout shape;
+        if (layout instanceof MigratingLayout) {
+            root.setProperty(LAYOUT, MIGRATING);
+            shape = ((MigratingLayout) layout).getTo();
+        } else if (layout instanceof HashedLayout) {
+            root.setProperty(LAYOUT, HASHED);
+            shape = layout;
+        } else {
+            root.setProperty(LAYOUT, FLAT);
+            return;
+        }
+        root.setProperty(LAYOUT_LEVELS, ((HashedLayout) shape).getLevels());
+        root.setProperty(LAYOUT_WIDTH, ((HashedLayout) shape).getWidth());
+    }
+
+    /**
+     * @return the recorded layout, or null if none is recorded
+     */
+    static ObjectPathLayout read(final Session session)
+        throws RepositoryException {
+        final Node root = session.getRootNode();
+        if (!root.hasProperty(LAYOUT)) {
+            return null;
+        }
+        final String name = root.getProperty(LAYOUT).getString();
+        if (FLAT.equals(name)) {
+            return new FlatLayout();
+        }
+        final HashedLayout hashed =
+                new HashedLayout((int) root.getProperty(LAYOUT_LEVELS)
+                        .getLong(), (int) root.getProperty(LAYOUT_WIDTH)
+                        .getLong());
+        if (HASHED.equals(name)) {
+            return hashed;
+        } else if (MIGRATING.equals(name)) {
+            return new MigratingLayout(new FlatLayout(), hashed);
+        }
+        throw new IllegalStateException("Unknown layout " + name +
+                " recorded in the repository");
+    }
+
+    private static String describe(final ObjectPathLayout layout) {
+        if (layout instanceof MigratingLayout) {
+            return "migrating to " +
+                    describe(((MigratingLayout) layout).getTo());
+        } else if (layout instanceof HashedLayout) {
+            final HashedLayout hashed = (HashedLayout) layout;
+            return "hashed " + hashed.getLevels() + "x" + hashed.getWidth();
+        }
+        return FLAT;
+    }
+
+    /**
+     * @return whether anything but objects lies directly beneath the root
+     */
+    private static boolean hasShards(final Node root)
+        throws RepositoryException {
+        final NodeIterator children = root.getNodes();
+        while (children.hasNext()) {
+            if (!ObjectTree.isObject(children.nextNode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected session factory
+     *
+     * @param sessionFactory
+     */
+    public void setSessionFactory(final SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.jaxb.responses.access.ObjectProfile.ObjectStates.A;
+import static org.fcrepo.jcr.FedoraJcrTypes.JCR_CREATEDBY;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.fcrepo.jaxb.responses.access.ObjectProfile.ObjectStates;
+
+/**
+ * Reads and writes the fcrepo3 object fields (label, ownerId, state) as JCR
+ * properties directly on the object node, without parsing a SPARQL update or
+ * building a dataset to set a single value. The label has its own property
+ * rather than dc:title, so it stays apart from the object's DC metadata as
+ * it does in fcrepo3.
+ */
+public class LegacyObjectProperties {
+
+    public static final String LABEL = "fedora:objLabel";
+
+    /**
+     * Where objects ingested before the label had its own property keep it.
+     */
+    public static final String LEGACY_LABEL = "dc:title";
+
+    public static final String OWNER_ID = "fedora:ownerId";
+
+    public static final String STATE = "fedora:objState";
+
+    public static final String OBJECT_SIZE = "fedora:objSize";
+
+    /**
+     * @param node
+     * @param label
+     * @throws RepositoryException
+     */
+    public static void setLabel(final Node node, final String label)
+        throws RepositoryException {
+        node.setProperty(LABEL, new String[] {label});
+    }
+
+    /**
+     * @param node
+     * @param ownerId
+     * @throws RepositoryException
+     */
+    public static void setOwnerId(final Node node, final String ownerId)
+        throws RepositoryException {
+        node.setProperty(OWNER_ID, new String[] {ownerId});
+    }
+
+    /**
+     * @param node
+     * @param state
+     * @throws RepositoryException
+     */
+    public static void setState(final Node node, final ObjectStates state)
+        throws RepositoryException {
+        node.setProperty(STATE, state.name());
+    }
+
+    /**
+     * @param node
+     * @return the object label, or null if none has been set
+     * @throws RepositoryException
+     */
+    public static String getLabel(final Node node) throws RepositoryException {
+        if (node.hasProperty(LABEL)) {
+            return node.getProperty(LABEL).getValues()[0].getString();
+        }
+        if (node.hasProperty(LEGACY_LABEL)) {
+            return node.getProperty(LEGACY_LABEL).getValues()[0].getString();
+        }
+        return null;
+    }
+
+    /**
+     * @param node
+     * @return the fcrepo3 owner, falling back to the JCR creator
+     * @throws RepositoryException
+     */
+    public static String getOwnerId(final Node node)
+        throws RepositoryException {
+        if (node.hasProperty(OWNER_ID)) {
+            return node.getProperty(OWNER_ID).getValues()[0].getString();
+        }
+        return node.getProperty(JCR_CREATEDBY).getString();
+    }
+
+    /**
+     * @param node
+     * @return the object state, Active unless otherwise recorded
+     * @throws RepositoryException
+     */
+    public static ObjectStates getState(final Node node)
+        throws RepositoryException {
+        if (node.hasProperty(STATE)) {
+            return ObjectStates.valueOf(node.getProperty(STATE).getString());
+        }
+        return A;
+    }
+}
@@ -16,16 +16,73 @@
 
 package org.fcrepo.legacy;
 
+import static java.lang.Integer.getInteger;
+import static java.lang.System.getProperty;
+
+/**
+ * Resolves PIDs to JCR paths through the configured {@link ObjectPathLayout}.
+ * The layout is chosen with the fcrepo.legacy.layout system property: "flat"
+ * (the default) or "hashed", the latter shaped by
+ * fcrepo.legacy.layout.levels and fcrepo.legacy.layout.width. "migrating"
+ * resolves objects in either while a {@link LayoutMigrationJob} moves them
+ * from flat to hashed. Once a repository records its layout, that layout
+ * replaces the configured one at startup; see {@link LegacyLayouts}. The API
+ * URLs are the same under every layout.
+ */
 public class LegacyPathHelpers {
 
     public static String OBJECT_PATH = "/objects";
 
+    private static volatile ObjectPathLayout layout = configuredLayout();
+
     public static String getObjectPath(final String pid) {
-        return OBJECT_PATH + "/" + pid;
+        return layout.getObjectPath(pid);
     }
 
     public static String
             getDatastreamsPath(final String pid, final String dsid) {
-        return OBJECT_PATH + "/" + pid + "/" + dsid;
+        return layout.getObjectPath(pid) + "/" + dsid;
+    }
+
+    /**
+     * @param path a JCR node or property path
+     * @return the PID of the object at or above the path, or null if the path
+     *         is not inside an object
+     */
+    public static String getPidFromPath(final String path) {
+        return layout.getPidFromPath(path);
+    }
+
+    /**
+     * @return the layout in effect
+     */
+    public static ObjectPathLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @param layout the layout to resolve paths with from now on
+     */
+    public static void setLayout(final ObjectPathLayout layout) {
+        LegacyPathHelpers.layout = layout;
+    }
+
+    /**
+     * @return a hashed layout shaped by the system properties
+     */
+    public static HashedLayout configuredHashedLayout() {
+        return new HashedLayout(getInteger("fcrepo.legacy.layout.levels", 2),
+                getInteger("fcrepo.legacy.layout.width", 2));
+    }
+
+    private static ObjectPathLayout configuredLayout() {
+        final String name = getProperty("fcrepo.legacy.layout");
+        if ("hashed".equals(name)) {
+            return configuredHashedLayout();
+        } else if ("migrating".equals(name)) {
+            return new MigratingLayout(new FlatLayout(),
+                    configuredHashedLayout());
+        }
+        return new FlatLayout();
     }
 }
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+
+import javax.ws.rs.core.UriBuilder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Mints the URIs and RDF subjects of objects and datastreams. The URI
+ * prefixes are computed once per base URI and shared by every request and
+ * thread that sees that base URI, so minting a URI costs one string
+ * concatenation rather than a UriBuilder template expansion. Instances are
+ * immutable and hold no session; the legacy routes carry no workspace, so the
+ * base URI is the only thing that varies. PIDs and datastream IDs are
+ * percent-encoded as path segments wherever they hold characters a URI path
+ * may not.
+ */
+public final class LegacySubjects {
+
+    public static final String INFO_FEDORA = "info:fedora/";
+
+    /**
+     * Characters other than letters and digits allowed unescaped in a path
+     * segment (RFC 3986 pchar).
+     */
+    private static final String SEGMENT_SAFE = "-._~!$&'()*+,;=:@";
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final Cache<URI, LegacySubjects> byBaseUri = CacheBuilder
+            .newBuilder().maximumSize(64).build();
+
+    private final String objectsPrefix;
+
+    private LegacySubjects(final URI baseUri) {
+        this.objectsPrefix =
+                UriBuilder.fromUri(baseUri).path(FedoraObjects.class).build()
+                        .toString() +
+                        "/";
+    }
+
+    /**
+     * @param baseUri the base URI of the legacy API, as seen by the request
+     * @return the subjects for that base URI
+     */
+    public static LegacySubjects forBaseUri(final URI baseUri) {
+        LegacySubjects subjects = byBaseUri.getIfPresent(baseUri);
+        if (subjects == null) {
+            // a racing request may build its own; both are equivalent
+            subjects = new LegacySubjects(baseUri);
+            byBaseUri.put(baseUri, subjects);
+        }
+        return subjects;
+    }
+
+    /**
+     * @param pid
+     * @return the URI of the object profile
+     */
+    public URI getObjectUri(final String pid) {
+        return URI.create(objectsPrefix + encodeSegment(pid));
+    }
+
+    /**
+     * @param pid
+     * @return the URI of the object's datastream listing
+     */
+    public URI getDatastreamsUri(final String pid) {
+        return URI.create(objectsPrefix + encodeSegment(pid) +
+                "/datastreams");
+    }
+
+    /**
+     * @param pid
+     * @param dsid
+     * @return the URI of the datastream content
+     */
+    public URI getDatastreamContentUri(final String pid, final String dsid) {
+        return URI.create(objectsPrefix + encodeSegment(pid) +
+                "/datastreams/" + encodeSegment(dsid) + "/content");
+    }
+
+    /**
+     * @param pid
+     * @return the fcrepo3 RDF subject of the object
+     */
+    public static String getSubject(final String pid) {
+        return INFO_FEDORA + pid;
+    }
+
+    /**
+     * @param subject an object URI or fcrepo3 RDF subject
+     * @return the PID, or null if the subject is neither
+     */
+    public String getPid(final String subject) {
+        if (subject.startsWith(objectsPrefix)) {
+            return decodeSegment(firstSegment(subject.substring(objectsPrefix
+                    .length())));
+        } else if (subject.startsWith(INFO_FEDORA)) {
+            return firstSegment(subject.substring(INFO_FEDORA.length()));
+        }
+        return null;
+    }
+
+    /**
+     * @param segment a PID or datastream ID
+     * @return the segment, percent-encoded where it must be
+     */
+    static String encodeSegment(final String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (!isSegmentSafe(segment.charAt(i))) {
+                return escape(segment, i);
+            }
+        }
+        return segment;
+    }
+
+    private static String escape(final String segment, final int from) {
+        final StringBuilder escaped =
+                new StringBuilder(segment.length() + 16).append(segment, 0,
+                        from);
+        for (final byte b : segment.substring(from).getBytes(UTF_8)) {
+            if (b >= 0 && isSegmentSafe((char) b)) {
+                escaped.append((char) b);
+            } else {
+                escaped.append('%').append(HEX[(b >> 4) & 0xf]).append(
+                        HEX[b & 0xf]);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static boolean isSegmentSafe(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+                (c >= '0' && c <= '9') || SEGMENT_SAFE.indexOf(c) >= 0;
+    }
+
+    private static String decodeSegment(final String segment) {
+        if (segment.indexOf('%') < 0) {
+            return segment;
+        }
+        final ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            final char c = segment.charAt(i);
+            if (c == '%' && i + 2 < segment.length() &&
+                    Character.digit(segment.charAt(i + 1), 16) >= 0 &&
+                    Character.digit(segment.charAt(i + 2), 16) >= 0) {
+                bytes.write(Character.digit(segment.charAt(i + 1), 16) << 4 |
+                        Character.digit(segment.charAt(i + 2), 16));
+                i += 2;
+            } else {
+                final byte[] encoded = String.valueOf(c).getBytes(UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    private static String firstSegment(final String rest) {
+        final int slash = rest.indexOf('/');
+        return slash < 0 ? rest : rest.substring(0, slash);
+    }
+}
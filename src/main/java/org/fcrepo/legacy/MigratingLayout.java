@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.Boolean.TRUE;
+import static java.lang.Integer.getInteger;
+import static java.util.Collections.newSetFromMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The layout in effect while objects move from one layout to another. An
+ * object still at its old path is resolved there, and any other object,
+ * including a new one, at its new path. Objects only ever move forwards, so
+ * PIDs found moved are remembered for good; PIDs found unmoved are
+ * remembered for fcrepo.legacy.layout.recheck seconds (5 by default), or
+ * until a {@link LayoutMigrationJob} in this JVM reports them moved. Each
+ * thread looks objects up in a session of its own from the session factory,
+ * kept for the life of the layout, so lookups neither wait on one another
+ * nor compete with requests for pooled sessions.
+ */
+public class MigratingLayout implements ObjectPathLayout {
+
+    private final ObjectPathLayout from;
+
+    private final ObjectPathLayout to;
+
+    private final Cache<String, Boolean> moved = CacheBuilder.newBuilder()
+            .maximumSize(100000).build();
+
+    private final Cache<String, Boolean> unmoved = CacheBuilder.newBuilder()
+            .maximumSize(100000).expireAfterWrite(
+                    getInteger("fcrepo.legacy.layout.recheck", 5), SECONDS)
+            .build();
+
+    private volatile SessionFactory sessionFactory;
+
+    private final ThreadLocal<Session> session = new ThreadLocal<Session>();
+
+    private final Set<Session> sessions = newSetFromMap(
+            new ConcurrentHashMap<Session, Boolean>());
+
+    /**
+     * @param from the layout objects are moving from
+     * @param to the layout objects are moving to
+     */
+    public MigratingLayout(final ObjectPathLayout from,
+            final ObjectPathLayout to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @throws IllegalStateException if the repository cannot be asked where
+     *         an object is
+     */
+    @Override
+    public String getObjectPath(final String pid) {
+        if (moved.getIfPresent(pid) != null) {
+            return to.getObjectPath(pid);
+        }
+        if (unmoved.getIfPresent(pid) != null) {
+            return from.getObjectPath(pid);
+        }
+        if (isAtOldPath(pid)) {
+            unmoved.put(pid, TRUE);
+            return from.getObjectPath(pid);
+        }
+        moved.put(pid, TRUE);
+        return to.getObjectPath(pid);
+    }
+
+    @Override
+    public String getPidFromPath(final String path) {
+        final String pid = to.getPidFromPath(path);
+        if (pid != null) {
+            final String objectPath = to.getObjectPath(pid);
+            if (path.equals(objectPath) || path.startsWith(objectPath + "/")) {
+                return pid;
+            }
+        }
+        return from.getPidFromPath(path);
+    }
+
+    @Override
+    public int getShardDepth() {
+        return to.getShardDepth();
+    }
+
+    /**
+     * Resolves the object at its new path from now on.
+     *
+     * @param pid an object whose move has been saved
+     */
+    public void moved(final String pid) {
+        moved.put(pid, TRUE);
+        unmoved.invalidate(pid);
+    }
+
+    /**
+     * @return the layout objects are moving from
+     */
+    public ObjectPathLayout getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the layout objects are moving to
+     */
+    public ObjectPathLayout getTo() {
+        return to;
+    }
+
+    /**
+     * @param sessionFactory opens the sessions objects are found in
+     */
+    public void setSessionFactory(final SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * Logs out the sessions used to find objects.
+     */
+    public void close() {
+        for (final Session s : sessions) {
+            sessions.remove(s);
+            s.logout();
+        }
+    }
+
+    private boolean isAtOldPath(final String pid) {
+        if (sessionFactory == null) {
+            throw new IllegalStateException("No repository to find " + pid +
+                    " in while objects are migrating");
+        }
+        Session s = session.get();
+        try {
+            if (s == null || !s.isLive()) {
+                s = sessionFactory.getSession();
+                session.set(s);
+                sessions.add(s);
+            } else {
+                s.refresh(false);
+            }
+            return s.nodeExists(from.getObjectPath(pid));
+        } catch (final RepositoryException e) {
+            if (s != null) {
+                sessions.remove(s);
+                s.logout();
+            }
+            session.remove();
+            throw new IllegalStateException("Could not find the old path of " +
+                    pid, e);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.Long.getLong;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a multipart body one part at a time, straight off the request
+ * stream. Each part's content is handed out as a stream that ends at the
+ * next boundary, so a part can be written to the repository as it arrives
+ * and nothing is buffered beyond a small window; moving to the next part
+ * skips whatever of the previous one was left unread. A part longer than
+ * fcrepo.legacy.upload.part.size bytes (unlimited by default) fails with
+ * an IOException, and {@link Part#isOversized()} reports why.
+ */
+public class MultipartReader {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final Pattern NAME = Pattern.compile(
+            "(?i);\\s*name\\s*=\\s*(?:\"([^\"]*)\"|([^;\\s]+))");
+
+    private static final int MAXIMUM_HEADER_LINE = 8192;
+
+    private static final int MAXIMUM_HEADERS = 64;
+
+    private final InputStream in;
+
+    private final byte[] delimiter;
+
+    private final long maximumPartSize;
+
+    private final byte[] buffer;
+
+    private int position;
+
+    private int limit;
+
+    private boolean eof;
+
+    private boolean finished;
+
+    private PartStream current;
+
+    /**
+     * @param in the request body
+     * @param boundary the boundary parameter of its content type
+     */
+    public MultipartReader(final InputStream in, final String boundary) {
+        this(in, boundary, getLong("fcrepo.legacy.upload.part.size",
+                Long.MAX_VALUE));
+    }
+
+    /**
+     * @param in the request body
+     * @param boundary the boundary parameter of its content type
+     * @param maximumPartSize the most bytes any one part may carry
+     */
+    public MultipartReader(final InputStream in, final String boundary,
+            final long maximumPartSize) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(ISO_8859_1);
+        this.maximumPartSize = maximumPartSize;
+        this.buffer = new byte[Math.max(65536, delimiter.length * 2)];
+        // the first boundary need not follow a line break
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+        // the preamble is read as a part and discarded
+        current = new PartStream(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the next part, or null after the last one
+     * @throws IOException if the body is malformed or cannot be read
+     */
+    public Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        current.skipRemaining();
+        if (!fill(2)) {
+            throw new IOException("Unexpected end of multipart body");
+        }
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        // any padding after the boundary, then the line break
+        readLine();
+        final Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine()).length() > 0) {
+            final int colon = line.indexOf(':');
+            if (colon < 1 || headers.size() >= MAXIMUM_HEADERS) {
+                throw new IOException("Malformed multipart header: " + line);
+            }
+            headers.put(line.substring(0, colon).trim().toLowerCase(), line
+                    .substring(colon + 1).trim());
+        }
+        current = new PartStream(maximumPartSize);
+        return new Part(headers, current);
+    }
+
+    private String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder();
+        while (true) {
+            if (!fill(1)) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+            final byte b = buffer[position++];
+            if (b == '\n') {
+                final int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAXIMUM_HEADER_LINE) {
+                throw new IOException("Multipart header line too long");
+            }
+            line.append((char) (b & 0xff));
+        }
+    }
+
+    /**
+     * Reads until at least the given number of bytes are buffered.
+     * 
+     * @return false if the body ends first
+     */
+    private boolean fill(final int needed) throws IOException {
+        if (limit - position >= needed) {
+            return true;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < needed && !eof) {
+            final int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+        return limit - position >= needed;
+    }
+
+    /**
+     * @return the offset of the delimiter in the buffered bytes, or -1
+     */
+    private int indexOfDelimiter() {
+        final int last = limit - delimiter.length;
+        outer: for (int i = position; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A part's headers and content.
+     */
+    public static class Part {
+
+        private final Map<String, String> headers;
+
+        private final PartStream content;
+
+        Part(final Map<String, String> headers, final PartStream content) {
+            this.headers = headers;
+            this.content = content;
+        }
+
+        /**
+         * @param name a header name, in any case
+         * @return its value, or null
+         */
+        public String getHeader(final String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        /**
+         * @return the name parameter of the part's Content-Disposition, or
+         *         null
+         */
+        public String getName() {
+            final String disposition = getHeader("Content-Disposition");
+            if (disposition == null) {
+                return null;
+            }
+            final Matcher matcher = NAME.matcher(disposition);
+            if (!matcher.find()) {
+                return null;
+            }
+            return matcher.group(1) != null ? matcher.group(1) : matcher
+                    .group(2);
+        }
+
+        /**
+         * @return the part's Content-Type, text/plain if it has none
+         */
+        public String getMediaType() {
+            final String type = getHeader("Content-Type");
+            return type == null ? "text/plain" : type;
+        }
+
+        /**
+         * @return the content, ending at the next boundary
+         */
+        public InputStream getContent() {
+            return content;
+        }
+
+        /**
+         * @return whether reading stopped because the part was too long
+         */
+        public boolean isOversized() {
+            return content.oversized;
+        }
+    }
+
+    private class PartStream extends InputStream {
+
+        private final long maximumSize;
+
+        private boolean done;
+
+        private boolean oversized;
+
+        private long count;
+
+        PartStream(final long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+            throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            fill(delimiter.length);
+            final int found = indexOfDelimiter();
+            final int available;
+            if (found >= 0) {
+                available = found - position;
+            } else if (eof) {
+                throw new IOException("Unexpected end of multipart body");
+            } else {
+                // bytes that cannot be the start of a delimiter
+                available = limit - position - delimiter.length + 1;
+            }
+            if (available == 0) {
+                position += delimiter.length;
+                done = true;
+                return -1;
+            }
+            final int n = Math.min(len, available);
+            if (count + n > maximumSize) {
+                oversized = true;
+                throw new IOException("Part exceeds " + maximumSize +
+                        " bytes");
+            }
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            count += n;
+            return n;
+        }
+
+        void skipRemaining() throws IOException {
+            final byte[] skip = new byte[8192];
+            while (read(skip, 0, skip.length) >= 0) {
+                // discard
+            }
+        }
+
+        @Override
+        public void close() {
+            // the rest of the part is skipped when the next one is read
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.io.BaseEncoding.base64;
+import static org.fcrepo.kernel.utils.FedoraTypesUtils.isFedoraDatastream;
+import static org.fcrepo.legacy.FoxmlIngester.FOXML_NS;
+import static org.fcrepo.legacy.FoxmlIngester.MODEL_NS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.fcrepo.jaxb.responses.access.ObjectProfile;
+import org.fcrepo.jaxb.responses.management.DatastreamProfile;
+import org.fcrepo.kernel.Datastream;
+import org.fcrepo.kernel.utils.NodeIterator;
+import org.slf4j.Logger;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Writes an object as a FOXML 1.1 document straight to the response stream:
+ * the object profile as object properties, then one datastream per datastream
+ * profile. In the archive context content is base64-encoded inline as it is
+ * read from the repository; otherwise each datastream refers to its content
+ * URL. Nothing is assembled in memory beyond one datastream profile, so the
+ * size of the object does not bear on the heap.
+ */
+public class ObjectExport implements StreamingOutput {
+
+    public static final String VIEW_NS = "info:fedora/fedora-system:def/view#";
+
+    private static final XMLOutputFactory xmlFactory = XMLOutputFactory
+            .newInstance();
+
+    private static final Logger logger = getLogger(ObjectExport.class);
+
+    /**
+     * The fcrepo3 export contexts. Only archive carries content inline.
+     */
+    public static enum ExportContext {
+        ARCHIVE, MIGRATE, PUBLIC
+    }
+
+    private final Session session;
+
+    private final Node objectNode;
+
+    private final ObjectProfile profile;
+
+    private final ExportContext context;
+
+    private final LegacySubjects subjects;
+
+    private final DateFormat dateFormat;
+
+    /**
+     * @param session the session to log out once the object has been written
+     * @param objectNode
+     * @param profile the profile of the object
+     * @param context
+     * @param subjects mints the content URLs
+     */
+    public ObjectExport(final Session session, final Node objectNode,
+            final ObjectProfile profile, final ExportContext context,
+            final LegacySubjects subjects) {
+        this.session = session;
+        this.objectNode = objectNode;
+        this.profile = profile;
+        this.context = context;
+        this.subjects = subjects;
+        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Override
+    public void write(final OutputStream out) throws IOException {
+        try {
+            final XMLStreamWriter writer =
+                    xmlFactory.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.setPrefix("foxml", FOXML_NS);
+            writer.writeStartElement(FOXML_NS, "digitalObject");
+            writer.writeNamespace("foxml", FOXML_NS);
+            writer.writeAttribute("VERSION", "1.1");
+            writer.writeAttribute("PID", profile.pid);
+
+            writeObjectProperties(writer);
+
+            int count = 0;
+            final NodeIterator children =
+                    new NodeIterator(objectNode.getNodes());
+            while (children.hasNext()) {
+                final Node child = children.next();
+                if (isFedoraDatastream.apply(child)) {
+                    writeDatastream(writer, new Datastream(child));
+                    count++;
+                }
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            logger.debug("Exported {} with {} datastreams", profile.pid, count);
+        } catch (final XMLStreamException e) {
+            throw new IOException(e);
+        } catch (final RepositoryException e) {
+            throw new WebApplicationException(e);
+        } finally {
+            session.logout();
+        }
+    }
+
+    private void writeObjectProperties(final XMLStreamWriter writer)
+        throws XMLStreamException {
+        writer.writeStartElement(FOXML_NS, "objectProperties");
+        if (profile.objState != null) {
+            writeProperty(writer, MODEL_NS + "state", stateName(profile.objState
+                    .name()));
+        }
+        writeProperty(writer, MODEL_NS + "label", profile.objLabel);
+        writeProperty(writer, MODEL_NS + "ownerId", profile.objOwnerId);
+        writeProperty(writer, MODEL_NS + "createdDate",
+                format(profile.objCreateDate));
+        writeProperty(writer, VIEW_NS + "lastModifiedDate",
+                format(profile.objLastModDate));
+        writer.writeEndElement();
+    }
+
+    private static void writeProperty(final XMLStreamWriter writer,
+            final String name, final String value) throws XMLStreamException {
+        if (value == null) {
+            return;
+        }
+        writer.writeEmptyElement(FOXML_NS, "property");
+        writer.writeAttribute("NAME", name);
+        writer.writeAttribute("VALUE", value);
+    }
+
+    private void writeDatastream(final XMLStreamWriter writer,
+            final Datastream ds) throws XMLStreamException,
+        RepositoryException, IOException {
+        final DatastreamProfile dsProfile = FedoraDatastreams.getDSProfile(ds);
+
+        writer.writeStartElement(FOXML_NS, "datastream");
+        writer.writeAttribute("ID", dsProfile.dsID);
+        writer.writeAttribute("STATE", dsProfile.dsState.name());
+        writer.writeAttribute("CONTROL_GROUP", "M");
+        writer.writeAttribute("VERSIONABLE", "false");
+
+        writer.writeStartElement(FOXML_NS, "datastreamVersion");
+        writer.writeAttribute("ID", dsProfile.dsID + ".0");
+        if (dsProfile.dsMIME != null) {
+            writer.writeAttribute("MIMETYPE", dsProfile.dsMIME);
+        }
+        if (dsProfile.dsCreateDate != null) {
+            writer.writeAttribute("CREATED", format(dsProfile.dsCreateDate));
+        }
+        writer.writeAttribute("SIZE", Long.toString(dsProfile.dsSize));
+
+        if (dsProfile.dsChecksum != null) {
+            writer.writeEmptyElement(FOXML_NS, "contentDigest");
+            writer.writeAttribute("TYPE", dsProfile.dsChecksumType);
+            writer.writeAttribute("DIGEST", dsProfile.dsChecksum
+                    .getSchemeSpecificPart().replaceFirst("^[^:]*:", ""));
+        }
+
+        if (context == ExportContext.ARCHIVE) {
+            writer.writeStartElement(FOXML_NS, "binaryContent");
+            writer.writeCharacters("\n");
+            final OutputStream encoder =
+                    base64().withSeparator("\n", 76).encodingStream(
+                            new CharactersWriter(writer));
+            final InputStream content = ds.getContent();
+            try {
+                ByteStreams.copy(content, encoder);
+            } finally {
+                content.close();
+            }
+            encoder.close();
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+        } else {
+            writer.writeEmptyElement(FOXML_NS, "contentLocation");
+            writer.writeAttribute("TYPE", "URL");
+            writer.writeAttribute("REF", subjects.getDatastreamContentUri(
+                    profile.pid, dsProfile.dsID).toString());
+        }
+
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private String format(final Date date) {
+        return date == null ? null : dateFormat.format(date);
+    }
+
+    private static String stateName(final String state) {
+        if ("I".equals(state)) {
+            return "Inactive";
+        } else if ("D".equals(state)) {
+            return "Deleted";
+        }
+        return "Active";
+    }
+
+    /**
+     * Feeds encoded content to the XML writer as character data. Closing it
+     * leaves the XML writer open.
+     */
+    private static class CharactersWriter extends Writer {
+
+        private final XMLStreamWriter writer;
+
+        public CharactersWriter(final XMLStreamWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len)
+            throws IOException {
+            try {
+                writer.writeCharacters(cbuf, off, len);
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                writer.flush();
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            // the document is still being written
+        }
+    }
+}
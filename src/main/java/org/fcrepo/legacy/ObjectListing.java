@@ -0,0 +1,395 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.io.BaseEncoding.base64Url;
+import static javax.jcr.PropertyType.NAME;
+import static javax.jcr.query.Query.JCR_SQL2;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static javax.ws.rs.core.MediaType.valueOf;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static org.codehaus.jackson.JsonGenerator.Feature.AUTO_CLOSE_TARGET;
+import static org.fcrepo.jcr.FedoraJcrTypes.FEDORA_OBJECT;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.slf4j.Logger;
+
+/**
+ * Writes one page of the object listing straight to the response stream.
+ * Objects are pulled from the JCR one at a time, shard by shard, so the heap
+ * cost of a page does not depend on the size of the repository. Within a
+ * shard objects are listed in name order by a query, so each page starts
+ * straight after the last object of the one before rather than counting its
+ * way there. Each page ends with an opaque cursor, naming the shard and that
+ * last object, or with no cursor when the listing is exhausted.
+ */
+public class ObjectListing implements StreamingOutput {
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    public static final MediaType APPLICATION_NDJSON_TYPE =
+            valueOf(APPLICATION_NDJSON);
+
+    public static final String LISTING_NAMESPACE =
+            "http://www.fedora.info/definitions/1/0/access/";
+
+    private static final String CURSOR_PREFIX = "n:";
+
+    // never part of a shard path
+    private static final char CURSOR_SEPARATOR = ';';
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private static final XMLOutputFactory xmlFactory = XMLOutputFactory
+            .newInstance();
+
+    private static final Logger logger = getLogger(ObjectListing.class);
+
+    private final Session session;
+
+    private final Node root;
+
+    private final Position start;
+
+    private final int limit;
+
+    private final MediaType format;
+
+    /**
+     * @param session the session to log out once the page has been written
+     * @param root the objects node
+     * @param start where the page starts
+     * @param limit maximum number of objects in the page
+     * @param format one of XML, JSON or NDJSON
+     */
+    public ObjectListing(final Session session, final Node root,
+            final Position start, final int limit, final MediaType format) {
+        this.session = session;
+        this.root = root;
+        this.start = start;
+        this.limit = limit;
+        this.format = format;
+    }
+
+    @Override
+    public void write(final OutputStream out) throws IOException {
+        try {
+            final int depth = LegacyPathHelpers.getLayout().getShardDepth();
+            final Iterator<Node> shards =
+                    ObjectTree.shards(root, depth, start.shard);
+            String shard = start.shard;
+            String last = start.after;
+            boolean more = false;
+            boolean first = true;
+
+            final PageWriter writer = pageWriter(out);
+            writer.start();
+            int written = 0;
+            while (!more && shards.hasNext()) {
+                final Node next = shards.next();
+                final String path = ObjectTree.relativePath(root, next);
+                // only the shard the cursor names continues after a name
+                final String after =
+                        first && path.equals(start.shard) ? start.after
+                                : null;
+                first = false;
+                final NodeIterator objects =
+                        objectsAfter(next, after, limit - written + 1);
+                while (objects.hasNext()) {
+                    final Node object = objects.nextNode();
+                    if (written == limit) {
+                        more = true;
+                        break;
+                    }
+                    writer.pid(object.getName());
+                    written++;
+                    shard = path;
+                    last = object.getName();
+                }
+            }
+            writer.end(more ? encodeCursor(shard, last) : null);
+            logger.debug("Listed {} objects from {}", written, start);
+        } catch (final RepositoryException e) {
+            throw new WebApplicationException(e);
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * @return up to count objects directly beneath the shard, in name order,
+     *         starting after the named one if given
+     */
+    private NodeIterator objectsAfter(final Node shard, final String after,
+            final long count) throws RepositoryException {
+        final StringBuilder statement =
+                new StringBuilder("SELECT * FROM [").append(FEDORA_OBJECT)
+                        .append("] AS o WHERE ISCHILDNODE(o, [").append(
+                                shard.getPath()).append("])");
+        if (after != null) {
+            statement.append(" AND NAME(o) > $after");
+        }
+        statement.append(" ORDER BY NAME(o)");
+        final Query query =
+                session.getWorkspace().getQueryManager().createQuery(
+                        statement.toString(), JCR_SQL2);
+        if (after != null) {
+            query.bindValue("after", session.getValueFactory().createValue(
+                    after, NAME));
+        }
+        query.setLimit(count);
+        return query.execute().getNodes();
+    }
+
+    /**
+     * @param after the last object of the page under a flat layout
+     * @return an opaque cursor
+     */
+    public static String encodeCursor(final String after) {
+        return encodeCursor("", after);
+    }
+
+    /**
+     * @param shard relative path of the leaf shard the page ended in
+     * @param after the name of the last object of the page
+     * @return an opaque cursor
+     */
+    public static String encodeCursor(final String shard, final String after) {
+        return base64Url().omitPadding().encode(
+                (CURSOR_PREFIX + shard + CURSOR_SEPARATOR + after)
+                        .getBytes(UTF_8));
+    }
+
+    /**
+     * @param cursor a cursor previously returned in a listing, or null
+     * @param depth the shard depth of the layout in effect
+     * @return the position of the page the cursor refers to
+     */
+    public static Position decodeCursor(final String cursor, final int depth) {
+        if (cursor == null || cursor.isEmpty()) {
+            return new Position("", null);
+        }
+        try {
+            final String decoded =
+                    new String(base64Url().omitPadding().decode(cursor), UTF_8);
+            final int separator = decoded.indexOf(CURSOR_SEPARATOR);
+            if (decoded.startsWith(CURSOR_PREFIX) && separator >= 0) {
+                final String shard =
+                        decoded.substring(CURSOR_PREFIX.length(), separator);
+                final String after = decoded.substring(separator + 1);
+                final int shardDepth =
+                        shard.isEmpty() ? 0 : shard.split("/").length;
+                if (!after.isEmpty() &&
+                        (shardDepth == depth || shard.isEmpty())) {
+                    return new Position(shard, after);
+                }
+            }
+        } catch (final IllegalArgumentException e) {
+            logger.debug("Unparseable cursor: {}", cursor);
+        }
+        throw new WebApplicationException(Response.status(BAD_REQUEST)
+                .entity("Invalid cursor: " + cursor).build());
+    }
+
+    /**
+     * Where a page of the listing starts: just after a named object in a
+     * leaf shard, so that objects created or removed elsewhere in the
+     * listing, or moved out of the root by a layout migration, never shift
+     * the page.
+     */
+    public static class Position {
+
+        public final String shard;
+
+        public final String after;
+
+        /**
+         * @param shard relative path of a leaf shard, empty for the root
+         * @param after the name to continue after, or null for the start of
+         *        the shard
+         */
+        public Position(final String shard, final String after) {
+            this.shard = shard;
+            this.after = after;
+        }
+
+        @Override
+        public String toString() {
+            return shard + CURSOR_SEPARATOR + after;
+        }
+    }
+
+    private PageWriter pageWriter(final OutputStream out) throws IOException {
+        if (APPLICATION_NDJSON_TYPE.isCompatible(format)) {
+            return new NdJsonPageWriter(out);
+        } else if (APPLICATION_JSON_TYPE.isCompatible(format)) {
+            return new JsonPageWriter(out);
+        }
+        return new XmlPageWriter(out);
+    }
+
+    private interface PageWriter {
+
+        void start() throws IOException;
+
+        void pid(final String pid) throws IOException;
+
+        void end(final String cursor) throws IOException;
+    }
+
+    private static class XmlPageWriter implements PageWriter {
+
+        private final XMLStreamWriter writer;
+
+        public XmlPageWriter(final OutputStream out) throws IOException {
+            try {
+                writer = xmlFactory.createXMLStreamWriter(out, "UTF-8");
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void start() throws IOException {
+            try {
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.setDefaultNamespace(LISTING_NAMESPACE);
+                writer.writeStartElement(LISTING_NAMESPACE, "objectListing");
+                writer.writeDefaultNamespace(LISTING_NAMESPACE);
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void pid(final String pid) throws IOException {
+            try {
+                writer.writeStartElement(LISTING_NAMESPACE, "pid");
+                writer.writeCharacters(pid);
+                writer.writeEndElement();
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void end(final String cursor) throws IOException {
+            try {
+                if (cursor != null) {
+                    writer.writeStartElement(LISTING_NAMESPACE, "cursor");
+                    writer.writeCharacters(cursor);
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+                writer.writeEndDocument();
+                writer.flush();
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class JsonPageWriter implements PageWriter {
+
+        private final JsonGenerator json;
+
+        public JsonPageWriter(final OutputStream out) throws IOException {
+            json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        }
+
+        @Override
+        public void start() throws IOException {
+            json.writeStartObject();
+            json.writeArrayFieldStart("pids");
+        }
+
+        @Override
+        public void pid(final String pid) throws IOException {
+            json.writeString(pid);
+        }
+
+        @Override
+        public void end(final String cursor) throws IOException {
+            json.writeEndArray();
+            if (cursor != null) {
+                json.writeStringField("cursor", cursor);
+            }
+            json.writeEndObject();
+            json.flush();
+        }
+    }
+
+    private static class NdJsonPageWriter implements PageWriter {
+
+        private final OutputStream out;
+
+        public NdJsonPageWriter(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void start() {
+            // line-delimited output has no envelope
+        }
+
+        @Override
+        public void pid(final String pid) throws IOException {
+            line("pid", pid);
+        }
+
+        @Override
+        public void end(final String cursor) throws IOException {
+            if (cursor != null) {
+                line("cursor", cursor);
+            }
+            out.flush();
+        }
+
+        private void line(final String field, final String value)
+            throws IOException {
+            final JsonGenerator json =
+                    jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+            json.disable(AUTO_CLOSE_TARGET);
+            json.writeStartObject();
+            json.writeStringField(field, value);
+            json.writeEndObject();
+            json.writeRaw('\n');
+            json.close();
+        }
+    }
+}
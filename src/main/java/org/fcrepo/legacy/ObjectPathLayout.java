@@ -0,0 +1,45 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+/**
+ * Maps PIDs to the JCR paths of their object nodes under
+ * {@link LegacyPathHelpers#OBJECT_PATH}. A layout may place objects beneath
+ * intermediate shard nodes, always at the same depth, so that no single node
+ * has to hold every object as a child.
+ */
+public interface ObjectPathLayout {
+
+    /**
+     * @param pid
+     * @return the path of the object node
+     */
+    String getObjectPath(final String pid);
+
+    /**
+     * @param path a JCR node or property path
+     * @return the PID of the object at or above the path, or null if the path
+     *         is not inside an object
+     */
+    String getPidFromPath(final String path);
+
+    /**
+     * @return the number of shard levels between the objects node and the
+     *         object nodes
+     */
+    int getShardDepth();
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.lang.Integer.getInteger;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+
+import org.fcrepo.jaxb.responses.access.ObjectProfile;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * A bounded, in-process cache of object profiles keyed by PID. Entries expire
+ * after a fixed time and are invalidated as soon as the repository reports a
+ * change to the object or anything beneath it (its datastreams and their
+ * content) on the internal event bus. Hit, miss, eviction and size counts are
+ * published as metrics.
+ * <p>
+ * A profile is only handed back to the user whose session built it, since
+ * another user's access rules may hide the object or parts of it. Each PID
+ * therefore holds one profile per reader; the size bound counts PIDs.
+ */
+@Component
+public class ObjectProfileCache {
+
+    private static final Logger logger = getLogger(ObjectProfileCache.class);
+
+    private static final String[] METRICS = {"hits", "misses", "evictions",
+            "size"};
+
+    @Autowired(required = false)
+    private EventBus eventBus;
+
+    private int maximumSize = getInteger("fcrepo.legacy.profile.cache.size",
+            10000);
+
+    private int expirySeconds = getInteger(
+            "fcrepo.legacy.profile.cache.ttl", 300);
+
+    private Cache<String, ConcurrentMap<String, ObjectProfile>> profiles;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Builds the cache, registers for repository events and publishes the
+     * cache statistics.
+     */
+    @PostConstruct
+    public void init() {
+        profiles =
+                CacheBuilder.newBuilder().maximumSize(maximumSize)
+                        .expireAfterWrite(expirySeconds, SECONDS)
+                        .recordStats().build();
+        if (eventBus != null) {
+            eventBus.register(this);
+        } else {
+            logger.warn("No event bus available; cached object profiles " +
+                    "will only be refreshed on expiry");
+        }
+        registerMetrics();
+    }
+
+    /**
+     * Stops listening for repository events.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (eventBus != null) {
+            eventBus.unregister(this);
+        }
+    }
+
+    /**
+     * Get the profile for a PID as seen by a user, building it with the
+     * loader on a miss.
+     *
+     * @param pid
+     * @param userId the user of the session the loader reads with
+     * @param loader builds the profile from the repository
+     * @return a copy of the cached profile, which the caller may modify
+     * @throws RepositoryException
+     */
+    public ObjectProfile get(final String pid, final String userId,
+            final Callable<ObjectProfile> loader) throws RepositoryException {
+        final ConcurrentMap<String, ObjectProfile> readers = readersOf(pid);
+        final String reader = String.valueOf(userId);
+        ObjectProfile cached = readers.get(reader);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return copy(cached);
+        }
+        misses.incrementAndGet();
+        try {
+            cached = loader.call();
+        } catch (final Exception e) {
+            throw unwrap(e);
+        }
+        readers.put(reader, cached);
+        return copy(cached);
+    }
+
+    /**
+     * @param pid
+     * @param userId
+     * @return a copy of the profile cached for that user, or null if none is
+     *         cached
+     */
+    public ObjectProfile getIfPresent(final String pid, final String userId) {
+        final ConcurrentMap<String, ObjectProfile> readers =
+                profiles.getIfPresent(pid);
+        final ObjectProfile cached =
+                readers == null ? null : readers.get(String.valueOf(userId));
+        if (cached == null) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(cached);
+    }
+
+    /**
+     * @param pid the object to drop from the cache
+     */
+    public void invalidate(final String pid) {
+        profiles.invalidate(pid);
+    }
+
+    /**
+     * Drops the profile of whichever object the event's path falls under.
+     *
+     * @param event
+     */
+    @Subscribe
+    public void onEvent(final Event event) {
+        try {
+            final String pid = LegacyPathHelpers.getPidFromPath(event.getPath());
+            if (pid != null) {
+                logger.trace("Invalidating cached profile for {}", pid);
+                profiles.invalidate(pid);
+            }
+        } catch (final RepositoryException e) {
+            logger.warn("Could not read path of event {}: {}", event, e);
+        }
+    }
+
+    /**
+     * @param maximumSize the maximum number of cached profiles
+     */
+    public void setMaximumSize(final int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param expirySeconds how long a profile may be cached
+     */
+    public void setExpirySeconds(final int expirySeconds) {
+        this.expirySeconds = expirySeconds;
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected event bus
+     *
+     * @param eventBus
+     */
+    public void setEventBus(final EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    private void registerMetrics() {
+        final MetricRegistry registry = getMetrics();
+        for (final String metric : METRICS) {
+            registry.remove(name(ObjectProfileCache.class, metric));
+        }
+        registry.register(name(ObjectProfileCache.class, "hits"),
+                new Gauge<Long>() {
+
+                    @Override
+                    public Long getValue() {
+                        return hits.get();
+                    }
+                });
+        registry.register(name(ObjectProfileCache.class, "misses"),
+                new Gauge<Long>() {
+
+                    @Override
+                    public Long getValue() {
+                        return misses.get();
+                    }
+                });
+        registry.register(name(ObjectProfileCache.class, "evictions"),
+                new Gauge<Long>() {
+
+                    @Override
+                    public Long getValue() {
+                        return profiles.stats().evictionCount();
+                    }
+                });
+        registry.register(name(ObjectProfileCache.class, "size"),
+                new Gauge<Long>() {
+
+                    @Override
+                    public Long getValue() {
+                        return profiles.size();
+                    }
+                });
+    }
+
+    private ConcurrentMap<String, ObjectProfile> readersOf(final String pid) {
+        final ConcurrentMap<String, ObjectProfile> readers =
+                profiles.getIfPresent(pid);
+        if (readers != null) {
+            return readers;
+        }
+        final ConcurrentMap<String, ObjectProfile> created =
+                new ConcurrentHashMap<String, ObjectProfile>();
+        final ConcurrentMap<String, ObjectProfile> raced =
+                profiles.asMap().putIfAbsent(pid, created);
+        return raced == null ? created : raced;
+    }
+
+    private static RepositoryException unwrap(final Throwable cause) {
+        if (cause instanceof RepositoryException) {
+            return (RepositoryException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new RepositoryException(cause);
+    }
+
+    private static ObjectProfile copy(final ObjectProfile cached) {
+        final ObjectProfile profile = new ObjectProfile();
+        profile.pid = cached.pid;
+        profile.objLabel = cached.objLabel;
+        profile.objOwnerId = cached.objOwnerId;
+        profile.objModels = cached.objModels;
+        profile.objCreateDate = cached.objCreateDate;
+        profile.objLastModDate = cached.objLastModDate;
+        profile.objDissIndexViewURL = cached.objDissIndexViewURL;
+        profile.objItemIndexViewURL = cached.objItemIndexViewURL;
+        profile.objState = cached.objState;
+        profile.objSize = cached.objSize;
+        return profile;
+    }
+}
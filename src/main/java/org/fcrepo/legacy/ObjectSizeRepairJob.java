@@ -0,0 +1,63 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import java.util.Iterator;
+import java.util.concurrent.locks.Lock;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Recomputes the recorded aggregate size of every object, correcting any
+ * drift from datastreams changed outside this API or from concurrent writers.
+ * Each object is saved as soon as it is resized, while its size lock is
+ * still held, so writers through the API cannot interleave with the repair.
+ */
+public class ObjectSizeRepairJob extends LegacyJob {
+
+    @Override
+    public String getType() {
+        return "objectSizeRepair";
+    }
+
+    @Override
+    protected void execute(final Session session) throws RepositoryException,
+        InterruptedException {
+        final Iterator<Node> objects =
+                ObjectTree.objects(session.getNode(LegacyPathHelpers.OBJECT_PATH),
+                        LegacyPathHelpers.getLayout().getShardDepth());
+        while (objects.hasNext() && !isCancelled()) {
+            final Node object = objects.next();
+            final Lock sizeLock = ObjectSizes.lock(object.getName());
+            try {
+                ObjectSizes.recompute(object);
+                session.save();
+            } catch (final RepositoryException e) {
+                // drop the unsaved change so later saves are not refused
+                session.refresh(false);
+                failed("could not resize " + object.getPath() + ": " +
+                        e.getMessage());
+                continue;
+            } finally {
+                sizeLock.unlock();
+            }
+            completed(session);
+        }
+    }
+}
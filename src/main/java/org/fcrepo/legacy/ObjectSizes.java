@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.Integer.getInteger;
+import static org.fcrepo.kernel.utils.FedoraTypesUtils.isFedoraDatastream;
+import static org.fcrepo.legacy.LegacyObjectProperties.OBJECT_SIZE;
+
+import java.util.concurrent.locks.Lock;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.fcrepo.kernel.Datastream;
+import org.fcrepo.kernel.FedoraObject;
+import org.fcrepo.kernel.utils.NodeIterator;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Maintains an object's aggregate datastream size as a property on the
+ * object node, so that reading it does not require a walk over every
+ * datastream. Writers adjust the aggregate by the change they make; if the
+ * aggregate has never been recorded it is computed in full instead.
+ * <p>
+ * The adjustment is a read-modify-write of a single property, so writers
+ * hold the object's {@link #lock} from reading the sizes they change until
+ * their session is saved, as fcrepo3 held an object lock for every
+ * modification. The lock only spans this JVM: writers on other cluster
+ * members, or outside this API, can still make the aggregate drift, and the
+ * value is then approximate until an objectSizeRepair job recomputes it.
+ */
+public class ObjectSizes {
+
+    private static final Striped<Lock> locks = Striped.lock(getInteger(
+            "fcrepo.legacy.size.locks", 1024));
+
+    /**
+     * Blocks until no other writer in this JVM is changing the object's
+     * size.
+     *
+     * @param pid
+     * @return the held lock, to be released once the change is saved
+     */
+    public static Lock lock(final String pid) {
+        final Lock lock = locks.get(pid);
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * @param obj
+     * @return the recorded aggregate size, or the size computed by the
+     *         kernel if none has been recorded yet
+     * @throws RepositoryException
+     */
+    public static long getSize(final FedoraObject obj)
+        throws RepositoryException {
+        final Node node = obj.getNode();
+        if (node.hasProperty(OBJECT_SIZE)) {
+            return node.getProperty(OBJECT_SIZE).getLong();
+        }
+        return obj.getSize();
+    }
+
+    /**
+     * Add a change in datastream size to the object's aggregate. Must be
+     * called after the change itself has been made in the same session.
+     *
+     * @param objectNode
+     * @param delta bytes added (positive) or removed (negative)
+     * @throws RepositoryException
+     */
+    public static void adjust(final Node objectNode, final long delta)
+        throws RepositoryException {
+        if (objectNode.hasProperty(OBJECT_SIZE)) {
+            if (delta != 0) {
+                final long size =
+                        objectNode.getProperty(OBJECT_SIZE).getLong();
+                objectNode.setProperty(OBJECT_SIZE, size + delta);
+            }
+        } else {
+            recompute(objectNode);
+        }
+    }
+
+    /**
+     * Sum the sizes of all of the object's datastreams and record the result.
+     *
+     * @param objectNode
+     * @return the new aggregate size
+     * @throws RepositoryException
+     */
+    public static long recompute(final Node objectNode)
+        throws RepositoryException {
+        long size = 0;
+        final NodeIterator children =
+                new NodeIterator(objectNode.getNodes());
+        while (children.hasNext()) {
+            final Node child = children.next();
+            if (isFedoraDatastream.apply(child)) {
+                size += new Datastream(child).getSize();
+            }
+        }
+        objectNode.setProperty(OBJECT_SIZE, size);
+        return size;
+    }
+}
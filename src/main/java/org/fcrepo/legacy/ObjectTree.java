@@ -0,0 +1,211 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.jcr.FedoraJcrTypes.FEDORA_OBJECT;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Walks the object nodes beneath the objects node, whatever the depth of the
+ * layout's shards. Nodes are pulled from the JCR one level at a time, so
+ * walking millions of objects holds no more than one iterator per level.
+ * Objects left directly beneath the root by a flat layout, as while a
+ * {@link LayoutMigrationJob} runs, are found too: under a sharded layout the
+ * root comes first as a shard of its own, and objects are never taken for
+ * shards.
+ */
+public class ObjectTree {
+
+    private ObjectTree() {
+    }
+
+    /**
+     * @param root the objects node
+     * @param depth the number of shard levels
+     * @return the leaf shards, each the parent of a run of objects, starting
+     *         with the root; under a flat layout, just the root
+     * @throws RepositoryException
+     */
+    public static Iterator<Node> shards(final Node root, final int depth)
+        throws RepositoryException {
+        return new ShardIterator(root, depth, null);
+    }
+
+    /**
+     * @param root the objects node
+     * @param depth the number of shard levels
+     * @param start relative path of the leaf shard to start from, as from
+     *        {@link #relativePath(Node, Node)}; empty for the root
+     * @return the leaf shards from the start onwards
+     * @throws RepositoryException
+     */
+    public static Iterator<Node> shards(final Node root, final int depth,
+            final String start) throws RepositoryException {
+        return new ShardIterator(root, depth, start);
+    }
+
+    /**
+     * @param root the objects node
+     * @param depth the number of shard levels
+     * @return every object node
+     * @throws RepositoryException
+     */
+    public static Iterator<Node> objects(final Node root, final int depth)
+        throws RepositoryException {
+        final Iterator<Node> shards = shards(root, depth);
+        return new AbstractIterator<Node>() {
+
+            private NodeIterator children;
+
+            private boolean filtered;
+
+            @Override
+            protected Node computeNext() {
+                try {
+                    while (true) {
+                        while (children == null || !children.hasNext()) {
+                            if (!shards.hasNext()) {
+                                return endOfData();
+                            }
+                            final Node shard = shards.next();
+                            filtered = depth > 0 && shard == root;
+                            children = shard.getNodes();
+                        }
+                        final Node child = children.nextNode();
+                        if (!filtered || isObject(child)) {
+                            return child;
+                        }
+                    }
+                } catch (final RepositoryException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param node a child of a shard
+     * @return whether the node is an object rather than a further shard
+     * @throws RepositoryException
+     */
+    public static boolean isObject(final Node node) throws RepositoryException {
+        return node.isNodeType(FEDORA_OBJECT);
+    }
+
+    /**
+     * @param root
+     * @param shard a leaf shard beneath the root
+     * @return the shard's path relative to the root, empty for the root
+     * @throws RepositoryException
+     */
+    public static String relativePath(final Node root, final Node shard)
+        throws RepositoryException {
+        if (shard == root) {
+            return "";
+        }
+        final String rootPath = root.getPath();
+        final String path = shard.getPath();
+        return path.length() <= rootPath.length() ? "" : path
+                .substring(rootPath.length() + 1);
+    }
+
+    private static class ShardIterator extends AbstractIterator<Node> {
+
+        private final Deque<NodeIterator> levels =
+                new ArrayDeque<NodeIterator>();
+
+        private final int depth;
+
+        private Node pending;
+
+        public ShardIterator(final Node root, final int depth,
+                final String start) throws RepositoryException {
+            this.depth = depth;
+            if (depth == 0) {
+                pending = root;
+                return;
+            }
+            if (start == null || start.isEmpty()) {
+                pending = root;
+                levels.push(root.getNodes());
+                return;
+            }
+            final String[] segments = start.split("/");
+            if (segments.length != depth) {
+                throw new IllegalArgumentException("Not a leaf shard: " +
+                        start);
+            }
+            Node node = root;
+            for (final String segment : segments) {
+                final NodeIterator children = node.getNodes();
+                levels.push(children);
+                node = null;
+                while (children.hasNext()) {
+                    final Node child = children.nextNode();
+                    if (child.getName().equals(segment) && !isObject(child)) {
+                        node = child;
+                        break;
+                    }
+                }
+                if (node == null) {
+                    // carry on from wherever the missing shard would be
+                    return;
+                }
+            }
+            // the deepest iterator now stands just after the start shard
+            pending = node;
+        }
+
+        @Override
+        protected Node computeNext() {
+            if (pending != null) {
+                final Node next = pending;
+                pending = null;
+                return next;
+            }
+            try {
+                while (!levels.isEmpty()) {
+                    final NodeIterator top = levels.peek();
+                    if (!top.hasNext()) {
+                        levels.pop();
+                        continue;
+                    }
+                    final Node child = top.nextNode();
+                    if (isObject(child)) {
+                        continue;
+                    }
+                    if (levels.size() == depth) {
+                        return child;
+                    }
+                    levels.push(child.getNodes());
+                }
+                return endOfData();
+            } catch (final RepositoryException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.hash.Funnels.stringFunnel;
+import static java.lang.Integer.getInteger;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.jcr.observation.Event.NODE_ADDED;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+import static org.fcrepo.legacy.LegacyPathHelpers.getObjectPath;
+import static org.fcrepo.legacy.LegacyPathHelpers.getPidFromPath;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Counter;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.BloomFilter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An in-memory Bloom filter of the PIDs in the repository, so that requests
+ * for objects that certainly do not exist can be refused with a single
+ * existence check rather than a full lookup. The filter may miss objects
+ * created while it was being rebuilt or through APIs whose events it never
+ * saw, so a negative answer is always confirmed in the repository before a
+ * request is refused; see {@link #exists(Session, String)}. PIDs are added as objects are ingested here and as the event bus
+ * reports new nodes from elsewhere; a Bloom filter cannot forget, so removals
+ * schedule a background rebuild instead. Until the first build completes,
+ * and when no event bus is available to report objects created through other
+ * APIs, every PID is reported as possibly present.
+ */
+@Component
+public class PidIndex {
+
+    private static final Logger logger = getLogger(PidIndex.class);
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired(required = false)
+    private EventBus eventBus;
+
+    private int expectedPids = getInteger("fcrepo.legacy.pid.index.size",
+            1000000);
+
+    private int rebuildDelaySeconds = getInteger(
+            "fcrepo.legacy.pid.index.rebuild.delay", 60);
+
+    private volatile ScalableBloomFilter pids;
+
+    private ScalableBloomFilter building;
+
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    private ScheduledExecutorService executor;
+
+    private final Counter misses = getMetrics().counter(
+            name(PidIndex.class, "misses"));
+
+    private final Counter falseNegatives = getMetrics().counter(
+            name(PidIndex.class, "falseNegatives"));
+
+    private final Runnable rebuild = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                rebuild();
+            } catch (final RepositoryException e) {
+                logger.warn("Could not rebuild the PID index: {}", e);
+                synchronized (PidIndex.this) {
+                    building = null;
+                }
+            }
+        }
+    };
+
+    /**
+     * Registers for repository events and starts the first build.
+     */
+    @PostConstruct
+    public void init() {
+        if (eventBus == null) {
+            logger.warn("No event bus available; the PID index is disabled");
+            return;
+        }
+        eventBus.register(this);
+        executor =
+                newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("fcrepo-legacy-pid-index-%d")
+                        .setDaemon(true).build());
+        rebuildScheduled.set(true);
+        executor.execute(rebuild);
+    }
+
+    /**
+     * Stops listening for events and abandons any rebuild in progress.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (eventBus != null) {
+            eventBus.unregister(this);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param pid
+     * @return false only if the object certainly does not exist
+     */
+    public boolean mightContain(final String pid) {
+        final ScalableBloomFilter current = pids;
+        if (current == null || current.mightContain(pid)) {
+            return true;
+        }
+        misses.inc();
+        return false;
+    }
+
+    /**
+     * Confirms a negative answer from the filter in the repository, learning
+     * any object the filter missed.
+     *
+     * @param session
+     * @param pid
+     * @return false only if the object does not exist
+     * @throws RepositoryException
+     */
+    public boolean exists(final Session session, final String pid)
+        throws RepositoryException {
+        if (mightContain(pid)) {
+            return true;
+        }
+        if (session.nodeExists(getObjectPath(pid))) {
+            logger.debug("PID index missed {}; adding it", pid);
+            falseNegatives.inc();
+            add(pid);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param pid an object that has been, or is about to be, created
+     */
+    public synchronized void add(final String pid) {
+        if (pids != null) {
+            pids.put(pid);
+        }
+        if (building != null) {
+            building.put(pid);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the repository after a short delay, so that a
+     * run of removals costs a single rebuild.
+     */
+    public void scheduleRebuild() {
+        if (executor != null && rebuildScheduled.compareAndSet(false, true)) {
+            executor.schedule(rebuild, rebuildDelaySeconds, SECONDS);
+        }
+    }
+
+    /**
+     * Adds the PIDs of created objects and schedules a rebuild on removals.
+     *
+     * @param event
+     */
+    @Subscribe
+    public void onEvent(final Event event) {
+        try {
+            final String path = event.getPath();
+            final String pid = getPidFromPath(path);
+            if (pid == null) {
+                return;
+            }
+            if (event.getType() == NODE_ADDED) {
+                add(pid);
+            } else if (event.getType() == NODE_REMOVED &&
+                    path.equals(getObjectPath(pid))) {
+                scheduleRebuild();
+            }
+        } catch (final RepositoryException e) {
+            logger.warn("Could not read path of event {}: {}", event, e);
+        }
+    }
+
+    void rebuild() throws RepositoryException {
+        // removals from here on need another pass
+        rebuildScheduled.set(false);
+        final ScalableBloomFilter fresh =
+                new ScalableBloomFilter(expectedPids, FALSE_POSITIVE_RATE);
+        synchronized (this) {
+            building = fresh;
+        }
+        long count = 0;
+        final Session session = sessionFactory.getSession();
+        try {
+            if (session.nodeExists(OBJECT_PATH)) {
+                final Iterator<Node> objects =
+                        ObjectTree.objects(session.getNode(OBJECT_PATH),
+                                LegacyPathHelpers.getLayout().getShardDepth());
+                while (objects.hasNext()) {
+                    fresh.put(objects.next().getName());
+                    count++;
+                }
+            }
+        } finally {
+            session.logout();
+        }
+        synchronized (this) {
+            pids = fresh;
+            building = null;
+        }
+        logger.info("Rebuilt the PID index with {} objects", count);
+    }
+
+    /**
+     * @param expectedPids the capacity of the first filter in the index
+     */
+    public void setExpectedPids(final int expectedPids) {
+        this.expectedPids = expectedPids;
+    }
+
+    /**
+     * @param rebuildDelaySeconds how long to wait after a removal to rebuild
+     */
+    public void setRebuildDelaySeconds(final int rebuildDelaySeconds) {
+        this.rebuildDelaySeconds = rebuildDelaySeconds;
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected session factory
+     *
+     * @param sessionFactory
+     */
+    public void setSessionFactory(final SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected event bus
+     *
+     * @param eventBus
+     */
+    public void setEventBus(final EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * A Bloom filter that grows: when the newest filter reaches its capacity
+     * another is added with twice the capacity and half the false positive
+     * rate, which keeps the overall rate bounded however many PIDs arrive.
+     */
+    static class ScalableBloomFilter {
+
+        private final List<BloomFilter<CharSequence>> filters =
+                new ArrayList<BloomFilter<CharSequence>>();
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private long capacity;
+
+        private double falsePositiveRate;
+
+        private long count;
+
+        ScalableBloomFilter(final long capacity,
+                final double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate / 2;
+            filters.add(BloomFilter.create(stringFunnel(), (int) capacity,
+                    this.falsePositiveRate));
+        }
+
+        void put(final String pid) {
+            lock.writeLock().lock();
+            try {
+                if (count >= capacity) {
+                    capacity *= 2;
+                    falsePositiveRate /= 2;
+                    filters.add(BloomFilter.create(stringFunnel(),
+                            (int) Math.min(capacity, Integer.MAX_VALUE),
+                            falsePositiveRate));
+                    count = 0;
+                }
+                filters.get(filters.size() - 1).put(pid);
+                count++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        boolean mightContain(final String pid) {
+            lock.readLock().lock();
+            try {
+                for (final BloomFilter<CharSequence> filter : filters) {
+                    if (filter.mightContain(pid)) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a JCR session to be injected into a legacy resource. Anonymous GET
+ * requests are given a session from the {@link ReadOnlySessionPool}; every
+ * other request gets an authenticated session of its own. Either way the
+ * resource logs the session out when it is done with it. Only resources
+ * whose GETs never write should use it: a GET that writes, such as one
+ * repairing a stale property, would be refused by a pooled session.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({FIELD, PARAMETER})
+public @interface PooledSession {
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.ext.Provider;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.sun.jersey.core.spi.component.ComponentContext;
+import com.sun.jersey.spi.inject.Injectable;
+import com.sun.jersey.spi.inject.PerRequestTypeInjectableProvider;
+
+/**
+ * Injects {@link PooledSession} sessions: pooled for anonymous GETs of the
+ * default workspace, otherwise from the {@link SessionFactory} as for
+ * InjectedSession. Requests naming a workspace or transaction in their path
+ * are never pooled, since the factory gives those a session of their own.
+ */
+@Provider
+@Component
+public class PooledSessionProvider extends
+        PerRequestTypeInjectableProvider<PooledSession, Session> {
+
+    @Autowired
+    private SessionFactory sessions;
+
+    @Autowired(required = false)
+    private ReadOnlySessionPool pool;
+
+    @Context
+    private HttpServletRequest request;
+
+    @Context
+    private SecurityContext securityContext;
+
+    public PooledSessionProvider() {
+        super(Session.class);
+    }
+
+    @Override
+    public Injectable<Session> getInjectable(final ComponentContext ic,
+            final PooledSession a) {
+        return new Injectable<Session>() {
+
+            @Override
+            public Session getValue() {
+                return getSession();
+            }
+        };
+    }
+
+    private Session getSession() {
+        try {
+            if (pool != null && "GET".equals(request.getMethod()) &&
+                    securityContext.getUserPrincipal() == null &&
+                    !namesWorkspace(request.getPathInfo())) {
+                return pool.checkout(securityContext, request);
+            }
+            return sessions.getSession(securityContext, request);
+        } catch (final RepositoryException e) {
+            throw new WebApplicationException(e);
+        }
+    }
+
+    /**
+     * @return whether the path has a workspace or transaction segment
+     */
+    private static boolean namesWorkspace(final String path) {
+        if (path == null) {
+            return false;
+        }
+        for (final String segment : path.split("/")) {
+            if (segment.startsWith("workspace:") || segment.startsWith("tx:")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
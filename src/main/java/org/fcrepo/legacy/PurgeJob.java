@@ -0,0 +1,148 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static javax.jcr.nodetype.NodeType.NT_FILE;
+import static org.fcrepo.jcr.FedoraJcrTypes.FEDORA_DATASTREAM;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Deletes a single object, or every object whose PID starts with a prefix,
+ * from the bottom up. Each removed datastream counts as a unit of work, so
+ * the session is saved after a bounded number of removals however large the
+ * objects are, and the transient change set never grows with object size.
+ * A datastream is always removed whole, together with its content node: a
+ * save between the two would leave an nt:file without its mandatory
+ * jcr:content and fail.
+ */
+public class PurgeJob extends LegacyJob {
+
+    private static final int CHILDREN_PER_PASS = 100;
+
+    private final String pid;
+
+    private final String prefix;
+
+    private PurgeJob(final String pid, final String prefix) {
+        this.pid = pid;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @param pid
+     * @return a job purging the one object
+     */
+    public static PurgeJob forObject(final String pid) {
+        return new PurgeJob(pid, null);
+    }
+
+    /**
+     * @param prefix a PID prefix, such as a namespace followed by a colon
+     * @return a job purging every object whose PID starts with the prefix
+     */
+    public static PurgeJob forPrefix(final String prefix) {
+        if (prefix.isEmpty() || prefix.contains("*") || prefix.contains("|")) {
+            throw new IllegalArgumentException("Invalid PID prefix: " +
+                    prefix);
+        }
+        return new PurgeJob(null, prefix);
+    }
+
+    @Override
+    public String getType() {
+        return "purge";
+    }
+
+    @Override
+    protected void execute(final Session session) throws RepositoryException,
+        InterruptedException {
+        if (pid != null) {
+            final String path = LegacyPathHelpers.getObjectPath(pid);
+            if (session.nodeExists(path)) {
+                purge(session, session.getNode(path));
+            } else {
+                failed("no such object " + pid);
+            }
+            return;
+        }
+
+        final Iterator<Node> shards =
+                ObjectTree.shards(session.getNode(LegacyPathHelpers.OBJECT_PATH),
+                        LegacyPathHelpers.getLayout().getShardDepth());
+        while (shards.hasNext() && !isCancelled()) {
+            final Node shard = shards.next();
+            List<Node> batch = matching(shard);
+            while (!batch.isEmpty() && !isCancelled()) {
+                for (final Node object : batch) {
+                    purge(session, object);
+                }
+                batch = matching(shard);
+            }
+        }
+    }
+
+    private List<Node> matching(final Node shard) throws RepositoryException {
+        final NodeIterator nodes = shard.getNodes(prefix + "*");
+        final List<Node> batch = new ArrayList<Node>(CHILDREN_PER_PASS);
+        // the root of a sharded layout holds shards that may match too
+        while (nodes.hasNext() && batch.size() < CHILDREN_PER_PASS) {
+            final Node node = nodes.nextNode();
+            if (ObjectTree.isObject(node)) {
+                batch.add(node);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Remove a node's descendants a pass at a time, then the node itself.
+     * Datastreams are removed in one step, never descended into.
+     */
+    private void purge(final Session session, final Node node)
+        throws RepositoryException, InterruptedException {
+        while (!isUnit(node) && node.hasNodes() && !isCancelled()) {
+            for (final Node child : take(node.getNodes())) {
+                purge(session, child);
+            }
+        }
+        if (!isCancelled()) {
+            node.remove();
+            completed(session);
+        }
+    }
+
+    private static boolean isUnit(final Node node)
+        throws RepositoryException {
+        return node.isNodeType(FEDORA_DATASTREAM) || node.isNodeType(NT_FILE);
+    }
+
+    private static List<Node> take(final NodeIterator nodes) {
+        final List<Node> batch = new ArrayList<Node>(CHILDREN_PER_PASS);
+        while (nodes.hasNext() && batch.size() < CHILDREN_PER_PASS) {
+            batch.add(nodes.nextNode());
+        }
+        return batch;
+    }
+}
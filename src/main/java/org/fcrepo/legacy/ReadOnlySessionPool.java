@@ -0,0 +1,311 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.lang.Integer.getInteger;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.AccessDeniedException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.SecurityContext;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * A bounded pool of anonymous sessions for requests that only read. Sessions
+ * are opened by the {@link SessionFactory} for the request that first needs
+ * them, so they carry the same anonymous credentials and workspace as an
+ * unpooled session would; callers must only pool requests that the factory
+ * would serve alike, see {@link PooledSessionProvider}. A checked-out
+ * session is refreshed so it sees the latest saved state, and is
+ * handed out behind a proxy whose logout() returns it to the pool and whose
+ * save() is refused. When every session is in use a caller waits briefly and
+ * then falls back to a session of its own, so load degrades to the unpooled
+ * cost rather than failing. Pool size, wait time and checkout latency are
+ * published as metrics.
+ */
+@Component
+public class ReadOnlySessionPool {
+
+    private static final Logger logger = getLogger(ReadOnlySessionPool.class);
+
+    private static final String[] GAUGES = {"idle", "open"};
+
+    @Autowired
+    private SessionFactory sessions;
+
+    private int maximumSize = getInteger("fcrepo.legacy.session.pool.size",
+            16);
+
+    private int maximumWaitMillis = getInteger(
+            "fcrepo.legacy.session.pool.wait", 100);
+
+    private BlockingQueue<Session> idle;
+
+    private final AtomicInteger open = new AtomicInteger();
+
+    private Timer checkoutTimer;
+
+    private Timer waitTimer;
+
+    private Counter overflow;
+
+    /**
+     * Sizes the pool and publishes its metrics.
+     */
+    @PostConstruct
+    public void init() {
+        idle = new ArrayBlockingQueue<Session>(maximumSize);
+        final MetricRegistry registry = getMetrics();
+        checkoutTimer =
+                registry.timer(name(ReadOnlySessionPool.class, "checkout"));
+        waitTimer = registry.timer(name(ReadOnlySessionPool.class, "wait"));
+        overflow = registry.counter(name(ReadOnlySessionPool.class, "overflow"));
+        for (final String gauge : GAUGES) {
+            registry.remove(name(ReadOnlySessionPool.class, gauge));
+        }
+        registry.register(name(ReadOnlySessionPool.class, "idle"),
+                new Gauge<Integer>() {
+
+                    @Override
+                    public Integer getValue() {
+                        return idle.size();
+                    }
+                });
+        registry.register(name(ReadOnlySessionPool.class, "open"),
+                new Gauge<Integer>() {
+
+                    @Override
+                    public Integer getValue() {
+                        return open.get();
+                    }
+                });
+    }
+
+    /**
+     * Logs out every idle session. Sessions still checked out are logged out
+     * as they come back.
+     */
+    @PreDestroy
+    public void destroy() {
+        Session session;
+        while ((session = idle.poll()) != null) {
+            open.decrementAndGet();
+            session.logout();
+        }
+    }
+
+    /**
+     * @param securityContext of an anonymous request
+     * @param request an anonymous request that only reads
+     * @return a refreshed, read-only session; log it out to return it
+     * @throws RepositoryException
+     */
+    public Session checkout(final SecurityContext securityContext,
+            final HttpServletRequest request) throws RepositoryException {
+        final Timer.Context checkoutTime = checkoutTimer.time();
+        try {
+            Session session = takeIdle();
+            if (session == null && reserve()) {
+                boolean opened = false;
+                try {
+                    session = sessions.getSession(securityContext, request);
+                    opened = true;
+                } finally {
+                    if (!opened) {
+                        open.decrementAndGet();
+                    }
+                }
+            }
+            if (session == null) {
+                final Timer.Context waitTime = waitTimer.time();
+                try {
+                    session = refreshed(idle.poll(maximumWaitMillis,
+                            MILLISECONDS));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    waitTime.stop();
+                }
+            }
+            if (session == null) {
+                logger.debug("Session pool exhausted; using an unpooled session");
+                overflow.inc();
+                return readOnly(sessions.getSession(securityContext, request),
+                        false);
+            }
+            return readOnly(session, true);
+        } finally {
+            checkoutTime.stop();
+        }
+    }
+
+    private Session takeIdle() {
+        Session session;
+        while ((session = idle.poll()) != null) {
+            session = refreshed(session);
+            if (session != null) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the session, refreshed, or null if it is no longer usable
+     */
+    private Session refreshed(final Session session) {
+        if (session == null) {
+            return null;
+        }
+        try {
+            if (session.isLive()) {
+                session.refresh(false);
+                return session;
+            }
+        } catch (final RepositoryException e) {
+            logger.debug("Discarding pooled session: {}", e);
+            session.logout();
+        }
+        open.decrementAndGet();
+        return null;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            final int current = open.get();
+            if (current >= maximumSize) {
+                return false;
+            }
+            if (open.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void checkin(final Session session, final boolean pooled) {
+        if (pooled && session.isLive()) {
+            try {
+                if (session.hasPendingChanges()) {
+                    session.refresh(false);
+                }
+                if (idle.offer(session)) {
+                    return;
+                }
+            } catch (final RepositoryException e) {
+                logger.debug("Discarding pooled session: {}", e);
+            }
+        }
+        if (pooled) {
+            open.decrementAndGet();
+        }
+        session.logout();
+    }
+
+    private Session readOnly(final Session session, final boolean pooled) {
+        final Set<?> types =
+                TypeToken.of(session.getClass()).getTypes().interfaces()
+                        .rawTypes();
+        return (Session) Proxy.newProxyInstance(session.getClass()
+                .getClassLoader(),
+                types.toArray(new Class<?>[types.size()]),
+                new InvocationHandler() {
+
+                    private boolean returned;
+
+                    @Override
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args)
+                        throws Throwable {
+                        final String name = method.getName();
+                        if ("logout".equals(name)) {
+                            if (!returned) {
+                                returned = true;
+                                checkin(session, pooled);
+                            }
+                            return null;
+                        }
+                        if ("isLive".equals(name) && returned) {
+                            return false;
+                        }
+                        if ("save".equals(name)) {
+                            throw new AccessDeniedException(
+                                    "Pooled sessions are read-only");
+                        }
+                        if (returned) {
+                            throw new IllegalStateException(
+                                    "Session has been returned to the pool");
+                        }
+                        try {
+                            return method.invoke(session, args);
+                        } catch (final InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @param maximumSize the maximum number of pooled sessions
+     */
+    public void setMaximumSize(final int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param maximumWaitMillis how long to wait for a pooled session before
+     *        falling back to a new one
+     */
+    public void setMaximumWaitMillis(final int maximumWaitMillis) {
+        this.maximumWaitMillis = maximumWaitMillis;
+    }
+
+    /**
+     * A testing convenience setter for the otherwise injected session
+     * factory
+     *
+     * @param sessions
+     */
+    public void setSessionFactory(final SessionFactory sessions) {
+        this.sessions = sessions;
+    }
+}
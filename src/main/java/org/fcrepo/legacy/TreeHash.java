@@ -0,0 +1,303 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.io.BaseEncoding.base16;
+import static java.lang.Integer.getInteger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * Computes a SHA-256 tree hash over a stream as it is read: the content is
+ * cut into fixed-size chunks, each chunk is hashed on a shared fork-join
+ * pool while reading carries on, and the chunk hashes are combined pairwise
+ * into a root. The tree is the Merkle tree of RFC 6962: leaves are hashed
+ * with a 0x00 prefix and interior nodes with 0x01, so no interior node can
+ * pass for a leaf, and an odd node at the end of a level is carried up
+ * unchanged, which gives the same left-balanced shape as the RFC. Hashing
+ * therefore keeps pace with the reader however many cores it takes, rather
+ * than being held to one. Only a bounded number of chunks are held in
+ * memory at once: each is let go as soon as it is hashed, and only its
+ * hash is kept until the root is computed. Chunk size and pool size are set by
+ * fcrepo.legacy.treehash.chunk (1 MiB) and fcrepo.legacy.treehash.threads
+ * (one per processor); the chunk size is recorded with the hash, since the
+ * root depends on it. The same stream over stored content verifies it.
+ */
+public class TreeHash extends FilterInputStream {
+
+    public static final String TREE_HASH = "fedora:treeHash";
+
+    public static final String TREE_HASH_CHUNK = "fedora:treeHashChunkSize";
+
+    private static final byte LEAF = 0x00;
+
+    private static final byte INTERIOR = 0x01;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(getInteger(
+            "fcrepo.legacy.treehash.threads", Runtime.getRuntime()
+                    .availableProcessors()));
+
+    private final int chunkSize;
+
+    private final Semaphore inFlight = new Semaphore(pool.getParallelism() * 2);
+
+    private final List<Leaf> leaves = new ArrayList<Leaf>();
+
+    private byte[] chunk;
+
+    private int filled;
+
+    /**
+     * @param in the content
+     */
+    public TreeHash(final InputStream in) {
+        this(in, getInteger("fcrepo.legacy.treehash.chunk", 1 << 20));
+    }
+
+    /**
+     * @param in the content
+     * @param chunkSize bytes per leaf of the tree
+     */
+    public TreeHash(final InputStream in, final int chunkSize) {
+        super(in);
+        this.chunkSize = chunkSize;
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b >= 0) {
+            chunk[filled++] = (byte) b;
+            if (filled == chunkSize) {
+                submit();
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+        throws IOException {
+        final int read = super.read(b, off, len);
+        int copied = 0;
+        while (copied < read) {
+            final int n = Math.min(read - copied, chunkSize - filled);
+            System.arraycopy(b, off + copied, chunk, filled, n);
+            filled += n;
+            copied += n;
+            if (filled == chunkSize) {
+                submit();
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        // skipped bytes must still be hashed
+        final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int read =
+                    read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void submit() throws IOException {
+        try {
+            inFlight.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        final Leaf leaf = new Leaf(chunk, filled, inFlight);
+        leaves.add(leaf);
+        pool.execute(leaf);
+        chunk = new byte[chunkSize];
+        filled = 0;
+    }
+
+    /**
+     * Hashes whatever of the content is left unread.
+     * 
+     * @return the root of the tree as a urn:sha256-tree URI
+     * @throws IOException
+     */
+    public URI finish() throws IOException {
+        while (skip(Long.MAX_VALUE) > 0) {
+            // drain
+        }
+        if (filled > 0) {
+            submit();
+        }
+        final List<byte[]> hashes = new ArrayList<byte[]>(leaves.size());
+        try {
+            for (final Leaf leaf : leaves) {
+                leaf.get();
+                hashes.add(leaf.hash);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (final ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        return URI.create("urn:sha256-tree:" +
+                base16().lowerCase().encode(root(hashes)));
+    }
+
+    /**
+     * @return how many chunks are still referenced by their leaves
+     */
+    int chunksHeld() {
+        int held = 0;
+        for (final Leaf leaf : leaves) {
+            if (leaf.chunk != null) {
+                held++;
+            }
+        }
+        return held;
+    }
+
+    /**
+     * @return the chunk size the hash was computed with
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param hashes the leaf hashes, in order
+     * @return the root of the tree over them; for no leaves, the hash of
+     *         nothing
+     */
+    static byte[] root(final List<byte[]> hashes) {
+        if (hashes.isEmpty()) {
+            return sha256().digest();
+        }
+        List<byte[]> level = hashes;
+        while (level.size() > 1) {
+            final List<byte[]> parents =
+                    new ArrayList<byte[]>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 < level.size()) {
+                    final MessageDigest digest = sha256();
+                    digest.update(INTERIOR);
+                    digest.update(level.get(i));
+                    digest.update(level.get(i + 1));
+                    parents.add(digest.digest());
+                } else {
+                    parents.add(level.get(i));
+                }
+            }
+            level = parents;
+        }
+        return level.get(0);
+    }
+
+    /**
+     * Records the tree hash on a datastream node, or clears an earlier one.
+     * 
+     * @param node the datastream node
+     * @param treeHash the hash, or null if none was computed
+     * @throws IOException
+     * @throws RepositoryException
+     */
+    public static void record(final Node node, final TreeHash treeHash)
+        throws IOException, RepositoryException {
+        if (treeHash == null) {
+            if (node.hasProperty(TREE_HASH)) {
+                node.getProperty(TREE_HASH).remove();
+                node.getProperty(TREE_HASH_CHUNK).remove();
+            }
+            return;
+        }
+        node.setProperty(TREE_HASH, treeHash.finish().toString());
+        node.setProperty(TREE_HASH_CHUNK, treeHash.getChunkSize());
+    }
+
+    /**
+     * Hashes one chunk and then drops it, so a finished leaf costs only its
+     * hash. A task wrapping a Callable would keep the chunk until the tree
+     * hash itself was discarded.
+     */
+    private static class Leaf extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private volatile byte[] chunk;
+
+        private final int length;
+
+        private final Semaphore inFlight;
+
+        private byte[] hash;
+
+        Leaf(final byte[] chunk, final int length, final Semaphore inFlight) {
+            this.chunk = chunk;
+            this.length = length;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                final MessageDigest digest = sha256();
+                digest.update(LEAF);
+                digest.update(chunk, 0, length);
+                hash = digest.digest();
+            } finally {
+                chunk = null;
+                inFlight.release();
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.lang.Long.getLong;
+import static java.lang.System.getProperty;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps partial datastream uploads on local disk so that a client can send
+ * the content in chunks, at any offsets, in any order and as often as it
+ * likes, and resume after a dropped connection instead of starting again.
+ * An upload holds no open file between requests: each chunk and each commit
+ * opens the file for itself.
+ * An upload untouched for fcrepo.legacy.upload.expiry minutes (a day by
+ * default) is discarded along with its file. No upload may grow past
+ * fcrepo.legacy.upload.max bytes (1 TiB by default). Files are kept in
+ * fcrepo.legacy.upload.spool, or the default temporary directory.
+ */
+@Component
+public class UploadSessions {
+
+    private static final Logger logger = getLogger(UploadSessions.class);
+
+    private static final RemovalListener<String, Upload> DELETE =
+            new RemovalListener<String, Upload>() {
+
+                @Override
+                public void onRemoval(
+                        final RemovalNotification<String, Upload> removal) {
+                    logger.debug("Discarding upload {}: {}", removal.getKey(),
+                            removal.getCause());
+                    removal.getValue().delete();
+                }
+            };
+
+    private final ScheduledExecutorService sweeper =
+            newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("fcrepo-legacy-uploads-%d").setDaemon(true)
+                    .build());
+
+    private final Cache<String, Upload> uploads;
+
+    private File directory = spoolDirectory(getProperty(
+            "fcrepo.legacy.upload.spool"));
+
+    private long maxSize = getLong("fcrepo.legacy.upload.max", 1L << 40);
+
+    /**
+     * Discards uploads after the configured expiry.
+     */
+    public UploadSessions() {
+        this(getLong("fcrepo.legacy.upload.expiry", 1440L));
+    }
+
+    /**
+     * @param expiryMinutes how long an upload may sit untouched
+     */
+    public UploadSessions(final long expiryMinutes) {
+        uploads =
+                CacheBuilder.newBuilder().expireAfterAccess(expiryMinutes,
+                        MINUTES).removalListener(DELETE).build();
+    }
+
+    /**
+     * Sweeps expired uploads every minute, so that their files do not
+     * outlive them on a quiet server.
+     */
+    @PostConstruct
+    public void init() {
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                uploads.cleanUp();
+            }
+        }, 1, 1, MINUTES);
+    }
+
+    /**
+     * Stops sweeping and discards every upload.
+     */
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+        uploads.invalidateAll();
+    }
+
+    /**
+     * @param pid
+     * @param dsid
+     * @param mimeType the type of the datastream to be created
+     * @param size the length of the content, or null if not yet known
+     * @param owner the user the upload belongs to
+     * @return a new, empty upload
+     * @throws IOException
+     * @throws IllegalArgumentException if the size is over the maximum
+     */
+    public Upload create(final String pid, final String dsid,
+            final String mimeType, final Long size, final String owner)
+        throws IOException {
+        if (size != null && size > maxSize) {
+            throw new IllegalArgumentException("Uploads may not exceed " +
+                    maxSize + " bytes");
+        }
+        final Upload upload =
+                new Upload(randomUUID().toString(), pid, dsid, mimeType, size,
+                        maxSize, owner, File.createTempFile("upload",
+                                ".partial", directory));
+        uploads.put(upload.getId(), upload);
+        return upload;
+    }
+
+    /**
+     * @param id
+     * @return the upload, or null if it is unknown or has expired
+     */
+    public Upload get(final String id) {
+        return uploads.getIfPresent(id);
+    }
+
+    /**
+     * Discards an upload and its file.
+     * 
+     * @param upload
+     */
+    public void remove(final Upload upload) {
+        uploads.invalidate(upload.getId());
+    }
+
+    /**
+     * @param directory where to keep uploads, or null for the default
+     *        temporary directory
+     */
+    public void setDirectory(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param maxSize the most bytes an upload may hold
+     */
+    public void setMaxSize(final long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static File spoolDirectory(final String path) {
+        return path == null ? null : new File(path);
+    }
+
+    /**
+     * The content received so far for one datastream. Chunks may be written
+     * concurrently; each goes straight to its place in the file. The length
+     * of the content is declared when the upload starts or by marking the
+     * chunk that ends it as final, and the upload is complete only once it
+     * is known. Once an upload is discarded no chunk may open its file
+     * again, and a chunk still being written deletes the file when done.
+     */
+    public static class Upload {
+
+        private final String id;
+
+        private final String pid;
+
+        private final String dsid;
+
+        private final String mimeType;
+
+        private Long size;
+
+        private final long maxSize;
+
+        private final String owner;
+
+        private final File file;
+
+        private boolean discarded;
+
+        private int writers;
+
+        /**
+         * Received byte ranges, start to end exclusive, never overlapping.
+         */
+        private final TreeMap<Long, Long> received = new TreeMap<Long, Long>();
+
+        Upload(final String id, final String pid, final String dsid,
+                final String mimeType, final Long size, final long maxSize,
+                final String owner, final File file) throws IOException {
+            this.id = id;
+            this.pid = pid;
+            this.dsid = dsid;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.maxSize = maxSize;
+            this.owner = owner;
+            this.file = file;
+        }
+
+        /**
+         * Writes a chunk at an offset. Writing the same bytes again is
+         * harmless.
+         * 
+         * @param offset
+         * @param chunk
+         * @param last whether the chunk ends the content
+         * @return the number of bytes written
+         * @throws IOException
+         * @throws IllegalArgumentException if the chunk lies outside the
+         *         declared size or the maximum, or is final but does not end
+         *         there
+         * @throws IllegalStateException if the upload has been committed or
+         *         discarded
+         */
+        public long write(final long offset, final InputStream chunk,
+                final boolean last) throws IOException {
+            final Long declared = getSize();
+            final long limit = declared == null ? maxSize : declared;
+            if (offset < 0 || offset > limit) {
+                throw new IllegalArgumentException("Offset " + offset +
+                        " is outside the upload");
+            }
+            final ReadableByteChannel in = Channels.newChannel(chunk);
+            final ByteBuffer buffer = ByteBuffer.allocate(65536);
+            long position = offset;
+            startWriting();
+            try {
+                final RandomAccessFile access =
+                        new RandomAccessFile(file, "rw");
+                try {
+                    final FileChannel channel = access.getChannel();
+                    while (in.read(buffer) >= 0 || buffer.position() > 0) {
+                        buffer.flip();
+                        if (position + buffer.remaining() > limit) {
+                            throw new IllegalArgumentException("Chunk at " +
+                                    offset + " runs past the upload's " +
+                                    limit + " bytes");
+                        }
+                        position += channel.write(buffer, position);
+                        buffer.compact();
+                    }
+                } finally {
+                    access.close();
+                    // what was written is kept, so a retry can start there
+                    receive(offset, position);
+                }
+            } finally {
+                stopWriting();
+            }
+            if (last) {
+                end(position);
+            }
+            return position - offset;
+        }
+
+        private synchronized Long getSize() {
+            return size;
+        }
+
+        private synchronized void startWriting() {
+            if (discarded) {
+                throw new IllegalStateException("Upload " + id +
+                        " has been discarded");
+            }
+            writers++;
+        }
+
+        private void stopWriting() {
+            synchronized (this) {
+                if (--writers > 0 || !discarded) {
+                    return;
+                }
+            }
+            deleteFile();
+        }
+
+        private synchronized void end(final long length) {
+            if (size == null) {
+                size = length;
+            } else if (size != length) {
+                throw new IllegalArgumentException("The final chunk ends at " +
+                        length + " but the upload is " + size + " bytes");
+            }
+        }
+
+        private synchronized void receive(final long start, final long end) {
+            if (end <= start) {
+                return;
+            }
+            long from = start;
+            long to = end;
+            final Entry<Long, Long> before = received.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                from = before.getKey();
+                to = Math.max(to, before.getValue());
+            }
+            Entry<Long, Long> next = received.ceilingEntry(from);
+            while (next != null && next.getKey() <= to) {
+                to = Math.max(to, next.getValue());
+                received.remove(next.getKey());
+                next = received.ceilingEntry(from);
+            }
+            received.put(from, to);
+        }
+
+        /**
+         * @return the received ranges as a byte-range specifier, e.g.
+         *         bytes=0-1023,2048-4095, or null if nothing has arrived
+         */
+        public synchronized String getReceived() {
+            if (received.isEmpty()) {
+                return null;
+            }
+            final StringBuilder ranges = new StringBuilder("bytes=");
+            for (final Entry<Long, Long> range : received.entrySet()) {
+                if (ranges.length() > 6) {
+                    ranges.append(',');
+                }
+                ranges.append(range.getKey()).append('-').append(
+                        range.getValue() - 1);
+            }
+            return ranges.toString();
+        }
+
+        /**
+         * @return whether the length of the content is known and every byte
+         *         of it has arrived
+         */
+        public synchronized boolean isComplete() {
+            if (size == null) {
+                return false;
+            }
+            if (received.isEmpty()) {
+                return size == 0;
+            }
+            return received.size() == 1 && received.firstKey() == 0 &&
+                    received.firstEntry().getValue().equals(size);
+        }
+
+        /**
+         * @return the content received, to be closed by the caller
+         * @throws IOException
+         */
+        public InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        void delete() {
+            synchronized (this) {
+                discarded = true;
+                if (writers > 0) {
+                    // the last writer deletes it
+                    return;
+                }
+            }
+            deleteFile();
+        }
+
+        private void deleteFile() {
+            if (!file.delete()) {
+                logger.warn("Could not delete upload file {}", file);
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPid() {
+            return pid;
+        }
+
+        public String getDsid() {
+            return dsid;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+    }
+}
@@ -67,6 +67,30 @@ public class FedoraDatastreamsIT extends AbstractResourceIT {
                 .matcher(content).find());
     }
 
+    @Test
+    public void testGetDatastreamsWithProfiles() throws Exception {
+        execute(postObjMethod("FedoraDatastreamsTest12"));
+        assertEquals(201, getStatus(postDSMethod("FedoraDatastreamsTest12",
+                "ds1", "foo")));
+        assertEquals(201, getStatus(postDSMethod("FedoraDatastreamsTest12",
+                "ds2", "barbaz")));
+
+        final HttpGet method =
+                new HttpGet(serverAddress +
+                        "objects/FedoraDatastreamsTest12/datastreams?profiles=true");
+        final HttpResponse response = execute(method);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        final String content =
+                IOUtils.toString(response.getEntity().getContent());
+        logger.debug(content);
+
+        assertTrue("Expected a profile of ds1", compile(
+                "<[^>]*datastreamProfile[^>]*dsID=\"ds1\"", DOTALL).matcher(
+                content).find());
+        assertTrue("Expected the size of ds2", compile(
+                "dsID=\"ds2\".*?dsSize>6<", DOTALL).matcher(content).find());
+    }
+
     @Test
     public void testAddDatastream() throws Exception {
         final HttpPost objMethod = postObjMethod("FedoraDatastreamsTest2");
@@ -178,6 +202,24 @@ public class FedoraDatastreamsIT extends AbstractResourceIT {
         logger.debug("Content was correct.");
     }
 
+    @Test
+    public void testGetDatastreamContentRange() throws Exception {
+        assertEquals(201, getStatus(postObjMethod("FedoraDatastreamsTest62")));
+        assertEquals(201, getStatus(postDSMethod("FedoraDatastreamsTest62",
+                "ds1", "marbles for everyone")));
+        final HttpGet method =
+                new HttpGet(serverAddress +
+                        "objects/FedoraDatastreamsTest62/datastreams/ds1/content");
+        method.setHeader("Range", "bytes=8-10");
+        method.setHeader("If-Range",
+                "\"urn:sha1:ba6cb22191300aebcfcfb83de9635d6b224677df\"");
+        final HttpResponse response = client.execute(method);
+        assertEquals(206, response.getStatusLine().getStatusCode());
+        assertEquals("bytes 8-10/20", response.getFirstHeader("Content-Range")
+                .getValue());
+        assertEquals("for", EntityUtils.toString(response.getEntity()));
+    }
+
     @Test
     public void testRefetchingDatastreamContent() throws Exception {
 
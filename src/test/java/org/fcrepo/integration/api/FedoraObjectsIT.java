@@ -90,4 +90,36 @@ public class FedoraObjectsIT extends AbstractResourceIT {
         final ObjectProfile obj = getObject("FedoraObjectsTest4");
         assertEquals("Wrong label!", "Awesome_Object", obj.objLabel);
     }
+
+    @Test
+    public void testGetObjectsPaged() throws Exception {
+        assertEquals(201, getStatus(postObjMethod("FedoraObjectsTest5")));
+        assertEquals(201, getStatus(postObjMethod("FedoraObjectsTest6")));
+        final HttpGet method = new HttpGet(serverAddress + "objects?limit=1");
+        method.addHeader("Accept", "text/xml");
+        final HttpResponse response = client.execute(method);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        final String content = EntityUtils.toString(response.getEntity());
+        logger.debug("Retrieved object listing:\n" + content);
+        assertEquals("Listing didn't respect the limit!", 1, content
+                .split("<pid>").length - 1);
+        assertTrue("Listing had no cursor!", compile(
+                "<cursor>[^<]+</cursor>").matcher(content).find());
+    }
+
+    @Test
+    public void testGetObjectNotModified() throws Exception {
+        assertEquals(201, getStatus(postObjMethod("FedoraObjectsTest7")));
+        final HttpResponse response =
+                client.execute(new HttpGet(serverAddress +
+                        "objects/FedoraObjectsTest7"));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+        final String etag = response.getFirstHeader("ETag").getValue();
+
+        final HttpGet conditional =
+                new HttpGet(serverAddress + "objects/FedoraObjectsTest7");
+        conditional.addHeader("If-None-Match", etag);
+        assertEquals(304, getStatus(conditional));
+    }
 }
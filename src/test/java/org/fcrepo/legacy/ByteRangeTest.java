@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testRanges() {
+        assertEquals(asList(new ByteRange(0, 9)), ByteRange.parse(
+                "bytes=0-9", 100));
+        assertEquals(asList(new ByteRange(90, 99)), ByteRange.parse(
+                "bytes=90-", 100));
+        assertEquals(asList(new ByteRange(95, 99)), ByteRange.parse(
+                "bytes=-5", 100));
+        assertEquals(asList(new ByteRange(50, 99)), ByteRange.parse(
+                "bytes=50-500", 100));
+    }
+
+    @Test
+    public void testRangesAreSortedAndMerged() {
+        assertEquals(asList(new ByteRange(0, 19), new ByteRange(50, 59)),
+                ByteRange.parse("bytes=50-59, 10-19, 0-9", 100));
+        assertEquals(asList(new ByteRange(0, 30)), ByteRange.parse(
+                "bytes=0-20,5-30", 100));
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        assertTrue(ByteRange.parse("bytes=100-", 100).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 100).isEmpty());
+    }
+
+    @Test
+    public void testIgnored() {
+        assertNull(ByteRange.parse(null, 100));
+        assertNull(ByteRange.parse("items=0-9", 100));
+        assertNull(ByteRange.parse("bytes=9-0", 100));
+        assertNull(ByteRange.parse("bytes=a-b", 100));
+        final StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < 100; i++) {
+            many.append(',').append(i * 2).append('-').append(i * 2);
+        }
+        assertNull(ByteRange.parse(many.toString(), 1000));
+    }
+
+    @Test
+    public void testContentRange() {
+        assertEquals("bytes 5-9/10", new ByteRange(5, 9).contentRange(10));
+        assertEquals(5, new ByteRange(5, 9).length());
+    }
+}
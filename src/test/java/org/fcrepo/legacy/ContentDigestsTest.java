@@ -0,0 +1,90 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.util.Arrays.asList;
+import static org.fcrepo.legacy.ContentDigests.DIGESTS;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+
+import org.fcrepo.kernel.exception.InvalidChecksumException;
+import org.junit.Test;
+
+public class ContentDigestsTest {
+
+    @Test
+    public void testFinish() throws Exception {
+        final ContentDigests testObj =
+                new ContentDigests(new ByteArrayInputStream("asdf"
+                        .getBytes("UTF-8"))).request(asList("md5",
+                        "SHA1:3DA541559918A808C2402BBA5012F6C60B27661C",
+                        "SHA-256"));
+        // what is left unread is digested by finish()
+        assertEquals('a', testObj.read());
+        assertEquals(1, testObj.read(new byte[1], 0, 1));
+        final Map<String, URI> digests = testObj.finish();
+        assertEquals(asList("MD5", "SHA-1", "SHA-256"), asList(digests
+                .keySet().toArray()));
+        assertEquals(new URI("urn:md5:912ec803b2ce49e4a541068d495ab570"),
+                digests.get("MD5"));
+        assertEquals(new URI(
+                "urn:sha1:3da541559918a808c2402bba5012f6c60b27661c"), digests
+                .get("SHA-1"));
+    }
+
+    @Test(expected = InvalidChecksumException.class)
+    public void testFinishWithMismatch() throws Exception {
+        new ContentDigests(new ByteArrayInputStream("asdf".getBytes("UTF-8")))
+                .request("SHA-512", "abcd").finish();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedAlgorithm() {
+        new ContentDigests(new ByteArrayInputStream(new byte[0])).request(
+                "CRC32", null);
+    }
+
+    @Test
+    public void testRecordNothingClearsEarlierDigests() throws Exception {
+        final Node mockNode = mock(Node.class);
+        final Property mockProperty = mock(Property.class);
+        when(mockNode.hasProperty(DIGESTS)).thenReturn(true);
+        when(mockNode.getProperty(DIGESTS)).thenReturn(mockProperty);
+        ContentDigests.record(mockNode, Collections.<String, URI> emptyMap());
+        verify(mockProperty).remove();
+        verify(mockNode, never()).setProperty(anyString(), any(String[].class));
+    }
+
+    @Test
+    public void testAsURI() {
+        assertEquals(URI.create("urn:sha512:ab"), ContentDigests.asURI(
+                "sha512", "ab"));
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class ContentOutputTest {
+
+    // more than one buffer's worth
+    private static final byte[] CONTENT = new byte[200 * 1024];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @Test
+    public void testFileContent() throws IOException {
+        final File file = File.createTempFile("content", ".bin");
+        file.deleteOnExit();
+        Files.write(CONTENT, file);
+        final FileInputStream in = new FileInputStream(file);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ContentOutput(in).write(out);
+        assertArrayEquals(CONTENT, out.toByteArray());
+        file.delete();
+    }
+
+    @Test
+    public void testFileContentFromPosition() throws IOException {
+        final File file = File.createTempFile("content", ".bin");
+        file.deleteOnExit();
+        Files.write(CONTENT, file);
+        final FileInputStream in = new FileInputStream(file);
+        in.skip(1000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ContentOutput(in).write(out);
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, 1000,
+                CONTENT.length), out.toByteArray());
+        file.delete();
+    }
+
+    @Test
+    public void testStreamContent() throws IOException {
+        final InputStream in = spy(new ByteArrayInputStream(CONTENT));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ContentOutput(in).write(out);
+        assertArrayEquals(CONTENT, out.toByteArray());
+        verify(in).close();
+    }
+}
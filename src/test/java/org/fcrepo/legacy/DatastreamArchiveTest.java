@@ -0,0 +1,144 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.zip.ZipEntry.DEFLATED;
+import static org.fcrepo.legacy.LegacyPathHelpers.getDatastreamsPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Date;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.kernel.Datastream;
+import org.fcrepo.kernel.services.DatastreamService;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class DatastreamArchiveTest {
+
+    private static final String SHA1_ASDF =
+            "3da541559918a808c2402bba5012f6c60b27661c";
+
+    private Session mockSession;
+
+    private DatastreamSelection selection;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        mockSession = mock(Session.class);
+        final DatastreamService mockDatastreams = mock(DatastreamService.class);
+        final Datastream text = datastream("TEXT", "text/plain", "asdf");
+        final Datastream image = datastream("IMG", "image/jpeg", "jpeg!");
+        when(mockDatastreams.getDatastream(mockSession, getDatastreamsPath(
+                "demo:1", "TEXT"))).thenReturn(text);
+        when(mockDatastreams.getDatastream(mockSession, getDatastreamsPath(
+                "demo:1", "IMG"))).thenReturn(image);
+        selection =
+                new DatastreamSelection(mockSession, mockDatastreams,
+                        "demo:1", asList("TEXT", "IMG"));
+    }
+
+    @Test
+    public void testZip() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DatastreamArchive(mockSession, selection,
+                DatastreamArchive.Format.ZIP,
+                DatastreamArchive.Compression.AUTO).write(out);
+        verify(mockSession).logout();
+
+        final ZipInputStream zip =
+                new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ZipEntry entry = zip.getNextEntry();
+        assertEquals("TEXT", entry.getName());
+        assertEquals(DEFLATED, entry.getMethod());
+        assertEquals("asdf", new String(ByteStreams.toByteArray(zip), UTF_8));
+        entry = zip.getNextEntry();
+        assertEquals("IMG", entry.getName());
+        assertEquals("jpeg!", new String(ByteStreams.toByteArray(zip), UTF_8));
+        entry = zip.getNextEntry();
+        assertEquals(DatastreamArchive.MANIFEST, entry.getName());
+        final String manifest =
+                new String(ByteStreams.toByteArray(zip), UTF_8);
+        assertTrue(manifest.startsWith(SHA1_ASDF + "  TEXT\n"));
+        assertTrue(manifest.contains("  IMG\n"));
+        assertNull(zip.getNextEntry());
+    }
+
+    @Test
+    public void testTar() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DatastreamArchive(mockSession, selection,
+                DatastreamArchive.Format.TAR,
+                DatastreamArchive.Compression.AUTO).write(out);
+        final byte[] tar = out.toByteArray();
+        assertEquals(0, tar.length % 512);
+
+        assertEquals("TEXT", field(tar, 0, 100));
+        assertEquals("00000000004", field(tar, 124, 12));
+        assertEquals("ustar", field(tar, 257, 6));
+        assertEquals("asdf", new String(tar, 512, 4, UTF_8));
+        assertEquals(0, tar[516]);
+
+        assertEquals("IMG", field(tar, 1024, 100));
+        assertEquals("jpeg!", new String(tar, 1536, 5, UTF_8));
+
+        assertEquals(DatastreamArchive.MANIFEST, field(tar, 2048, 100));
+        // two empty blocks end the archive
+        assertEquals(3072 + 1024, tar.length);
+    }
+
+    private static String field(final byte[] tar, final int offset,
+            final int length) {
+        int end = offset;
+        while (end < offset + length && tar[end] != 0) {
+            end++;
+        }
+        return new String(tar, offset, end - offset, UTF_8);
+    }
+
+    private static Datastream datastream(final String dsid,
+            final String mimeType, final String content)
+        throws RepositoryException {
+        final Datastream ds = mock(Datastream.class);
+        when(ds.getDsId()).thenReturn(dsid);
+        when(ds.getMimeType()).thenReturn(mimeType);
+        when(ds.getSize()).thenReturn((long) content.length());
+        when(ds.getLastModifiedDate()).thenReturn(new Date());
+        when(ds.getContent()).thenReturn(
+                new ByteArrayInputStream(content.getBytes(UTF_8)));
+        when(ds.getContentDigest()).thenReturn(
+                URI.create("urn:sha1:" + SHA1_ASDF));
+        return ds;
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.legacy.ContentDigests.DIGESTS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.fcrepo.kernel.Datastream;
+import org.fcrepo.kernel.services.DatastreamService;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DigestIndexTest {
+
+    private static final String PATH = "/objects/demo:1/DS1";
+
+    private static final URI SHA1 = URI.create("urn:sha1:abcd");
+
+    private static final URI MD5 = URI.create("urn:md5:ef01");
+
+    private Session mockSession;
+
+    private DatastreamService mockDatastreams;
+
+    private Datastream mockDs;
+
+    private DigestIndex testObj;
+
+    @Before
+    public void setUp() throws Exception {
+        mockSession = mock(Session.class);
+        mockDatastreams = mock(DatastreamService.class);
+        mockDs = mock(Datastream.class);
+        final Node mockNode = mock(Node.class);
+        final Property mockDigests = mock(Property.class);
+        final Value mockValue = mock(Value.class);
+        when(mockDs.getNode()).thenReturn(mockNode);
+        when(mockDs.getContentDigest()).thenReturn(SHA1);
+        when(mockNode.getPath()).thenReturn(PATH);
+        when(mockNode.hasProperty(DIGESTS)).thenReturn(true);
+        when(mockNode.getProperty(DIGESTS)).thenReturn(mockDigests);
+        when(mockDigests.getValues()).thenReturn(new Value[] {mockValue});
+        when(mockValue.getString()).thenReturn(MD5.toString());
+        when(mockSession.nodeExists(PATH)).thenReturn(true);
+        when(mockDatastreams.getDatastream(mockSession, PATH)).thenReturn(
+                mockDs);
+        testObj = new DigestIndex();
+        testObj.add(mockDs);
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        assertEquals(mockDs, testObj.find(mockSession, mockDatastreams, SHA1));
+        assertEquals(mockDs, testObj.find(mockSession, mockDatastreams, MD5));
+        assertNull(testObj.find(mockSession, mockDatastreams, URI
+                .create("urn:sha1:0000")));
+    }
+
+    @Test
+    public void testFindStale() throws Exception {
+        when(mockDs.getContentDigest()).thenReturn(URI.create("urn:sha1:ffff"));
+        assertNull(testObj.find(mockSession, mockDatastreams, SHA1));
+        // the stale entry is forgotten
+        when(mockDs.getContentDigest()).thenReturn(SHA1);
+        assertNull(testObj.find(mockSession, mockDatastreams, SHA1));
+    }
+}
@@ -16,40 +16,64 @@
 
 package org.fcrepo.legacy;
 
+import static com.google.common.io.Files.createTempDir;
+import static java.util.Collections.singletonMap;
 import static org.fcrepo.http.commons.test.util.TestHelpers.mockDatastream;
 import static org.fcrepo.legacy.TestHelpers.getUriInfoImpl;
 import static org.fcrepo.legacy.LegacyPathHelpers.getDatastreamsPath;
+import static org.fcrepo.legacy.LegacyObjectProperties.OBJECT_SIZE;
 import static org.fcrepo.legacy.LegacyPathHelpers.getObjectPath;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
+import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import javax.jcr.Binary;
 import javax.jcr.LoginException;
 import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
 import javax.jcr.nodetype.NodeType;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.tika.io.IOUtils;
 import org.fcrepo.jaxb.responses.access.ObjectDatastreams;
@@ -65,9 +89,11 @@ import org.fcrepo.kernel.services.NodeService;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.modeshape.jcr.api.Repository;
 
-import com.sun.jersey.multipart.MultiPart;
 
 public class FedoraDatastreamsTest {
 
@@ -91,6 +117,10 @@ public class FedoraDatastreamsTest {
 
     String mockUser = "testuser";
 
+    Node mockObjectNode;
+
+    Property mockSizeProperty;
+
     @Before
     public void setUp() throws LoginException, RepositoryException, NoSuchFieldException {
         mockSecurityContext = mock(SecurityContext.class);
@@ -109,6 +139,13 @@ public class FedoraDatastreamsTest {
         TestHelpers.setField(testObj, "uriInfo", TestHelpers.getUriInfoImpl());
         TestHelpers.setField(testObj, "session", mockSession);
 
+        mockObjectNode = mock(Node.class);
+        mockSizeProperty = mock(Property.class);
+        when(mockSession.getNode(anyString())).thenReturn(mockObjectNode);
+        when(mockObjectNode.hasProperty(OBJECT_SIZE)).thenReturn(true);
+        when(mockObjectNode.getProperty(OBJECT_SIZE)).thenReturn(
+                mockSizeProperty);
+
     }
 
     @After
@@ -133,9 +170,10 @@ public class FedoraDatastreamsTest {
         when(mockIterator.next()).thenReturn(mockDatastreamNode);
         when(mockNode.getNodes()).thenReturn(mockIterator);
         when(mockNodes.getObject(mockSession, getObjectPath(pid))).thenReturn(mockObject);
-        final ObjectDatastreams actual = testObj.getDatastreams(pid);
+        final ObjectDatastreams actual = testObj.getDatastreams(pid, false);
         verify(mockSession, never()).save();
         assertEquals(1, actual.datastreams.size());
+        assertNull(actual.profiles);
     }
 
     @Test
@@ -147,9 +185,10 @@ public class FedoraDatastreamsTest {
         final HashMap<String, String> atts = new HashMap<String, String>(2);
         atts.put(dsId1, "asdf");
         atts.put(dsId2, "sdfg");
-        final MultiPart multipart = TestHelpers.getStringsAsMultipart(atts);
         final Response actual =
-                testObj.modifyDatastreams(pid, Arrays.asList(dsId1, dsId2), multipart);
+                testObj.modifyDatastreams(pid, Arrays.asList(dsId1, dsId2),
+                        multipartType(), TestHelpers
+                                .getStringsAsMultipart(atts));
         assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
         verify(mockDatastreams).createDatastreamNode(any(Session.class),
                 eq(getDatastreamsPath(pid, dsId1)), anyString(),
@@ -160,6 +199,56 @@ public class FedoraDatastreamsTest {
         verify(mockSession).save();
     }
 
+    @Test
+    public void testModifyDatastreamsWithOversizedPart() throws Exception {
+        final String pid = "FedoraDatastreamsTest1";
+        final HashMap<String, String> atts = new HashMap<String, String>(1);
+        atts.put("testDs1", "asdf");
+        System.setProperty("fcrepo.legacy.upload.part.size", "3");
+        when(
+                mockDatastreams.createDatastreamNode(any(Session.class),
+                        anyString(), anyString(), any(InputStream.class)))
+                .thenAnswer(new Answer<Node>() {
+
+                    @Override
+                    public Node answer(final InvocationOnMock invocation)
+                        throws Throwable {
+                        IOUtils.toString((InputStream) invocation
+                                .getArguments()[3]);
+                        return mock(Node.class);
+                    }
+                });
+        try {
+            testObj.modifyDatastreams(pid, new ArrayList<String>(),
+                    multipartType(), TestHelpers.getStringsAsMultipart(atts));
+            fail("Expected a WebApplicationException");
+        } catch (final WebApplicationException e) {
+            assertEquals(413, e.getResponse().getStatus());
+        } finally {
+            System.clearProperty("fcrepo.legacy.upload.part.size");
+        }
+        verify(mockSession, never()).save();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testModifyDatastreamsNotMultipart() throws Exception {
+        try {
+            testObj.modifyDatastreams("FedoraDatastreamsTest1",
+                    new ArrayList<String>(), MediaType.TEXT_PLAIN_TYPE,
+                    IOUtils.toInputStream("asdf"));
+            fail("Expected a WebApplicationException");
+        } catch (final WebApplicationException e) {
+            assertEquals(400, e.getResponse().getStatus());
+        }
+        verify(mockSession).logout();
+    }
+
+    private static MediaType multipartType() {
+        return new MediaType("multipart", "form-data", singletonMap(
+                "boundary", TestHelpers.MULTIPART_BOUNDARY));
+    }
+
     @Test
     public void testDeleteDatastreams() throws RepositoryException, IOException {
         final String pid = "FedoraDatastreamsTest1";
@@ -181,18 +270,54 @@ public class FedoraDatastreamsTest {
         final Datastream mockDs = mockDatastream(pid, dsId, dsContent);
         when(mockDatastreams.getDatastream(mockSession, getDatastreamsPath(pid, dsId))).thenReturn(mockDs);
 
+        when(mockDs.getDsId()).thenReturn(dsId);
+        when(mockDatastreams.getDatastream(mockSession, getDatastreamsPath(pid, "missing"))).thenThrow(
+                new PathNotFoundException());
+
         final Response resp =
                 testObj.getDatastreamsContents(pid, Arrays
-                        .asList(dsId));
-        final MultiPart multipart = (MultiPart) resp.getEntity();
+                        .asList(dsId, "missing"));
+        // nothing is opened until the body is written
+        verify(mockDs, never()).getContent();
+        verify(mockSession, never()).logout();
 
-        verify(mockDatastreams).getDatastream(mockSession, getDatastreamsPath(pid, dsId));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) resp.getEntity()).write(out);
         verify(mockDs).getContent();
         verify(mockSession, never()).save();
-        assertEquals(1, multipart.getBodyParts().size());
-        final InputStream actualContent =
-                (InputStream) multipart.getBodyParts().get(0).getEntity();
-        assertEquals("asdf", IOUtils.toString(actualContent, "UTF-8"));
+        verify(mockSession).logout();
+        final String body = out.toString("UTF-8");
+        final String boundary =
+                resp.getMetadata().getFirst("Content-Type").toString()
+                        .replaceFirst(".*boundary=", "");
+        assertTrue(body.startsWith("--" + boundary + "\r\n"));
+        assertTrue(body.contains("Content-ID: <" + dsId + ">\r\n\r\nasdf\r\n"));
+        assertTrue(body.endsWith("--" + boundary + "--\r\n"));
+        assertEquals(1, body.split("Content-ID").length - 1);
+    }
+
+    @Test
+    public void testGetDatastreamsArchive() throws RepositoryException {
+        when(mockObjectNode.getNodes()).thenReturn(
+                TestHelpers.getNodeIterator(Arrays.<Node> asList()));
+        final Response actual =
+                testObj.getDatastreamsArchive("FedoraDatastreamsTest1", Arrays
+                        .<String> asList(), "tar", "auto");
+        assertEquals(Status.OK.getStatusCode(), actual.getStatus());
+        assertTrue(actual.getEntity() instanceof DatastreamArchive);
+        assertEquals("attachment; filename=\"FedoraDatastreamsTest1.tar\"",
+                actual.getMetadata().getFirst("Content-Disposition"));
+        verify(mockSession, never()).logout();
+    }
+
+    @Test
+    public void testGetDatastreamsArchiveInUnknownFormat()
+            throws RepositoryException {
+        final Response actual =
+                testObj.getDatastreamsArchive("FedoraDatastreamsTest1", Arrays
+                        .<String> asList(), "rar", "auto");
+        assertEquals(Status.BAD_REQUEST.getStatusCode(), actual.getStatus());
+        verify(mockSession).logout();
     }
 
     @Test
@@ -204,7 +329,8 @@ public class FedoraDatastreamsTest {
         final String dsPath = getDatastreamsPath(pid, dsId);
         final InputStream dsContentStream = IOUtils.toInputStream(dsContent);
         final Response actual =
-                testObj.addDatastream(pid, null, dsId, null,
+                testObj.addDatastream(pid, "SHA-1", null,
+                        new ArrayList<String>(), false, dsId, null,
                         dsContentStream);
         assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
         verify(mockDatastreams).createDatastreamNode(any(Session.class),
@@ -213,6 +339,40 @@ public class FedoraDatastreamsTest {
         verify(mockSession).save();
     }
 
+    @Test
+    public void testAddDatastreamAdjustsObjectSize()
+            throws RepositoryException, IOException, InvalidChecksumException {
+        final String pid = "FedoraDatastreamsTest1";
+        final String dsId = "testDS";
+        final String dsPath = getDatastreamsPath(pid, dsId);
+        final Datastream mockDs = mock(Datastream.class);
+        when(mockSizeProperty.getLong()).thenReturn(10L);
+        when(mockSession.nodeExists(dsPath)).thenReturn(false, true);
+        when(mockDatastreams.getDatastream(mockSession, dsPath)).thenReturn(
+                mockDs);
+        when(mockDs.getSize()).thenReturn(5L);
+        testObj.addDatastream(pid, "SHA-1", null, new ArrayList<String>(),
+                false, dsId, null, IOUtils.toInputStream("asdf"));
+        verify(mockObjectNode).setProperty(OBJECT_SIZE, 15L);
+        verify(mockSession).save();
+    }
+
+    @Test
+    public void testDeleteDatastreamAdjustsObjectSize()
+            throws RepositoryException {
+        final String pid = "FedoraDatastreamsTest1";
+        final String dsId = "testDS";
+        final String dsPath = getDatastreamsPath(pid, dsId);
+        final Datastream mockDs = mock(Datastream.class);
+        when(mockSizeProperty.getLong()).thenReturn(10L);
+        when(mockSession.nodeExists(dsPath)).thenReturn(true);
+        when(mockDatastreams.getDatastream(mockSession, dsPath)).thenReturn(
+                mockDs);
+        when(mockDs.getSize()).thenReturn(4L);
+        testObj.deleteDatastream(pid, dsId);
+        verify(mockObjectNode).setProperty(OBJECT_SIZE, 6L);
+    }
+
     @Test
     public void testModifyDatastream() throws RepositoryException, IOException,
             InvalidChecksumException {
@@ -222,25 +382,350 @@ public class FedoraDatastreamsTest {
         final String dsPath = getDatastreamsPath(pid, dsId);
         final InputStream dsContentStream = IOUtils.toInputStream(dsContent);
         final Response actual =
-                testObj.modifyDatastream(pid, dsId, null, dsContentStream);
+                testObj.modifyDatastream(pid, dsId, "SHA-1", null,
+                        new ArrayList<String>(), false, null,
+                        dsContentStream);
         assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
         verify(mockDatastreams).createDatastreamNode(any(Session.class),
-                eq(dsPath), anyString(), any(InputStream.class));
+                eq(dsPath), anyString(), any(InputStream.class),
+                any(URI.class));
         verify(mockSession).save();
     }
 
+    @Test
+    public void testModifyDatastreamWithDigests() throws Exception {
+        final String pid = "FedoraDatastreamsTest1";
+        final String dsId = "testDS";
+        final Response actual =
+                testObj.modifyDatastream(pid, dsId, "MD5",
+                        "912ec803b2ce49e4a541068d495ab570", Arrays.asList(
+                                "SHA-256", "sha512"), false, null, IOUtils
+                                .toInputStream("asdf"));
+        assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
+        verify(mockDatastreams).createDatastreamNode(any(Session.class),
+                eq(getDatastreamsPath(pid, dsId)), anyString(),
+                any(InputStream.class), (URI) isNull());
+        final ArgumentCaptor<String[]> digests =
+                ArgumentCaptor.forClass(String[].class);
+        verify(mockObjectNode).setProperty(eq(ContentDigests.DIGESTS),
+                digests.capture());
+        assertEquals(3, digests.getValue().length);
+        assertEquals("urn:sha256:f0e4c2f76c58916ec258f246851bea091d14d4247a2" +
+                "fc3e18694461b1816e13b", digests.getValue()[0]);
+        assertEquals("urn:md5:912ec803b2ce49e4a541068d495ab570", digests
+                .getValue()[2]);
+        verify(mockSession).save();
+    }
+
+    @Test
+    public void testModifyDatastreamWithTreeHash() throws Exception {
+        final String pid = "FedoraDatastreamsTest1";
+        final String dsId = "testDS";
+        testObj.modifyDatastream(pid, dsId, "SHA-1", null,
+                new ArrayList<String>(), true, null, IOUtils
+                        .toInputStream("asdf"));
+        verify(mockObjectNode).setProperty(TreeHash.TREE_HASH,
+                "urn:sha256-tree:3f03c5b0b9fda673025136a8ac0b95d84c165fd15b" +
+                        "0f126307ae4bc9e8e6fb44");
+        verify(mockObjectNode).setProperty(TreeHash.TREE_HASH_CHUNK,
+                1L << 20);
+        verify(mockSession).save();
+    }
+
+    @Test
+    public void testAddDuplicateDatastream() throws Exception {
+        final String pid = "FedoraDatastreamsTest1";
+        final String dsPath = getDatastreamsPath(pid, "testDS");
+        final URI digest =
+                new URI("urn:sha1:3da541559918a808c2402bba5012f6c60b27661c");
+        final DigestIndex mockIndex = mock(DigestIndex.class);
+        final Datastream mockDuplicate = mock(Datastream.class);
+        final Node mockSource = mock(Node.class);
+        final Node mockSourceContent = mock(Node.class);
+        final Property mockSize = mock(Property.class);
+        final Value mockSizeValue = mock(Value.class);
+        when(mockSize.getName()).thenReturn("fedora:size");
+        when(mockSize.getValue()).thenReturn(mockSizeValue);
+        final Property mockMimeType = mock(Property.class);
+        when(mockMimeType.getName()).thenReturn("jcr:mimeType");
+        final PropertyIterator mockProperties = mock(PropertyIterator.class);
+        when(mockProperties.hasNext()).thenReturn(true, true, false);
+        when(mockProperties.nextProperty()).thenReturn(mockSize, mockMimeType);
+        final Binary existing = mock(Binary.class);
+        final Property mockData = mock(Property.class);
+        when(mockData.getBinary()).thenReturn(existing);
+        when(mockSourceContent.getProperties()).thenReturn(mockProperties);
+        when(mockSourceContent.getProperty(JCR_DATA)).thenReturn(mockData);
+        when(mockSource.getNode(JCR_CONTENT)).thenReturn(mockSourceContent);
+        final Node mockContent = mock(Node.class);
+        when(mockObjectNode.getNode(JCR_CONTENT)).thenReturn(mockContent);
+        when(mockDuplicate.getContentDigest()).thenReturn(digest);
+        when(mockDuplicate.getSize()).thenReturn(4L);
+        when(mockDuplicate.getNode()).thenReturn(mockSource);
+        when(mockIndex.find(mockSession, mockDatastreams, digest)).thenReturn(
+                mockDuplicate);
+        testObj.setDigestIndex(mockIndex);
+        final InputStream unread = mock(InputStream.class);
+        final Response actual =
+                testObj.addDatastream(pid, "SHA-1",
+                        "3DA541559918A808C2402BBA5012F6C60B27661C",
+                        new ArrayList<String>(), false, "testDS", null, unread);
+        assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
+        verify(mockDatastreams).createDatastreamNode(eq(mockSession),
+                eq(dsPath), eq("application/octet-stream"),
+                any(InputStream.class), (URI) isNull());
+        verify(mockContent).setProperty(JCR_DATA, existing);
+        verify(mockContent).setProperty("fedora:size", mockSizeValue);
+        verify(mockContent, never()).setProperty(eq("jcr:mimeType"),
+                any(Value.class));
+        verify(mockDuplicate, never()).getContent();
+        verify(unread, never()).read(any(byte[].class), anyInt(), anyInt());
+        verify(mockIndex).deduplicated(4L);
+        verify(mockSession).save();
+    }
+
+    @Test
+    public void testPutSameContentTwice() throws Exception {
+        final String pid = "FedoraDatastreamsTest1";
+        final URI digest =
+                new URI("urn:sha1:3da541559918a808c2402bba5012f6c60b27661c");
+        final DigestIndex mockIndex = mock(DigestIndex.class);
+        // the duplicate found is the datastream being written
+        final Datastream mockDuplicate = mock(Datastream.class);
+        when(mockDuplicate.getNode()).thenReturn(mockObjectNode);
+        when(mockDuplicate.getContentDigest()).thenReturn(digest);
+        when(mockDuplicate.getSize()).thenReturn(4L, 0L);
+        final Node mockContent = mock(Node.class);
+        when(mockObjectNode.getNode(JCR_CONTENT)).thenReturn(mockContent);
+        final Property mockSize = mock(Property.class);
+        final Value mockSizeValue = mock(Value.class);
+        when(mockSize.getName()).thenReturn("fedora:size");
+        when(mockSize.getValue()).thenReturn(mockSizeValue);
+        final PropertyIterator mockProperties = mock(PropertyIterator.class);
+        when(mockProperties.hasNext()).thenReturn(true, false);
+        when(mockProperties.nextProperty()).thenReturn(mockSize);
+        when(mockContent.getProperties()).thenReturn(mockProperties);
+        final Binary existing = mock(Binary.class);
+        final Property mockData = mock(Property.class);
+        when(mockData.getBinary()).thenReturn(existing);
+        when(mockContent.getProperty(JCR_DATA)).thenReturn(mockData);
+        when(mockIndex.find(mockSession, mockDatastreams, digest)).thenReturn(
+                mockDuplicate);
+        testObj.setDigestIndex(mockIndex);
+        // as the kernel does, writing the datastream replaces its content
+        when(
+                mockDatastreams.createDatastreamNode(any(Session.class),
+                        anyString(), anyString(), any(InputStream.class),
+                        any(URI.class))).thenAnswer(new Answer<Node>() {
+
+            @Override
+            public Node answer(final InvocationOnMock invocation) {
+                when(mockData.getBinary()).thenReturn(mock(Binary.class));
+                when(mockSize.getValue()).thenReturn(mock(Value.class));
+                return mockObjectNode;
+            }
+        });
+
+        final Response actual =
+                testObj.modifyDatastream(pid, "testDS", "SHA-1",
+                        "3da541559918a808c2402bba5012f6c60b27661c",
+                        new ArrayList<String>(), false, null, mock(
+                                InputStream.class));
+        assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
+        verify(mockContent).setProperty(JCR_DATA, existing);
+        verify(mockContent).setProperty("fedora:size", mockSizeValue);
+        verify(mockIndex).deduplicated(4L);
+    }
+
+    @Test
+    public void testAddDatastreamWithMismatchedDigest() throws Exception {
+        try {
+            testObj.addDatastream("FedoraDatastreamsTest1", "SHA-1", null,
+                    Arrays.asList("MD5:0123"), false, "testDS", null,
+                    IOUtils.toInputStream("asdf"));
+            fail("Expected an InvalidChecksumException");
+        } catch (final InvalidChecksumException e) {
+            verify(mockSession, never()).save();
+            verify(mockSession).logout();
+        }
+    }
+
+    @Test
+    public void testAddDatastreamWithUnknownDigest() throws Exception {
+        try {
+            testObj.addDatastream("FedoraDatastreamsTest1", "CRC32", "1234",
+                    new ArrayList<String>(), false, "testDS", null, IOUtils
+                            .toInputStream("asdf"));
+            fail("Expected a WebApplicationException");
+        } catch (final WebApplicationException e) {
+            assertEquals(400, e.getResponse().getStatus());
+        }
+        verify(mockDatastreams, never()).createDatastreamNode(
+                any(Session.class), anyString(), anyString(),
+                any(InputStream.class), any(URI.class));
+    }
+
+    @Test
+    public void testResumableUpload() throws Exception {
+        final String pid = "FedoraDatastreamsTest1";
+        final String dsId = "testDS";
+        final UploadSessions uploads = new UploadSessions(60);
+        testObj.setUploadSessions(uploads);
+        when(mockSession.getUserID()).thenReturn("testUser");
+        when(mockSession.nodeExists(getObjectPath(pid))).thenReturn(true);
+        final Map<String, String> written = new HashMap<String, String>();
+        when(
+                mockDatastreams.createDatastreamNode(any(Session.class),
+                        anyString(), anyString(), any(InputStream.class),
+                        any(URI.class))).thenAnswer(new Answer<Node>() {
+
+            @Override
+            public Node answer(final InvocationOnMock invocation)
+                throws Throwable {
+                final Object[] args = invocation.getArguments();
+                written.put((String) args[1], IOUtils
+                        .toString((InputStream) args[3]));
+                return mock(Node.class);
+            }
+        });
+        try {
+            final Response created =
+                    testObj.createUpload(pid, dsId, "text/plain", 8L);
+            assertEquals(Status.CREATED.getStatusCode(), created.getStatus());
+            final String location = created.getMetadata().getFirst(
+                    "Location").toString();
+            final String uploadId =
+                    location.substring(location.lastIndexOf('/') + 1);
+
+            testObj.writeUpload(pid, dsId, uploadId, 4, false, IOUtils
+                    .toInputStream("efgh"));
+            final Response incomplete =
+                    testObj.commitUpload(pid, dsId, uploadId, "SHA-1", null,
+                            new ArrayList<String>(), false);
+            assertEquals(Status.CONFLICT.getStatusCode(), incomplete
+                    .getStatus());
+            assertEquals("bytes=4-7", incomplete.getMetadata().getFirst(
+                    "Range"));
+
+            final Response written0 =
+                    testObj.writeUpload(pid, dsId, uploadId, 0, false,
+                            IOUtils.toInputStream("abcd"));
+            assertEquals("bytes=0-7", written0.getMetadata()
+                    .getFirst("Range"));
+            final Response committed =
+                    testObj.commitUpload(pid, dsId, uploadId, "SHA-1", null,
+                            new ArrayList<String>(), false);
+            assertEquals(Status.CREATED.getStatusCode(), committed
+                    .getStatus());
+            assertEquals("abcdefgh", written.get(getDatastreamsPath(pid,
+                    dsId)));
+            assertNull(uploads.get(uploadId));
+            verify(mockSession).save();
+        } finally {
+            uploads.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriteToDiscardedUpload() throws Exception {
+        final UploadSessions uploads = new UploadSessions(60);
+        final File spool = createTempDir();
+        uploads.setDirectory(spool);
+        testObj.setUploadSessions(uploads);
+        when(mockSession.getUserID()).thenReturn("testUser");
+        try {
+            final UploadSessions.Upload upload =
+                    uploads.create("FedoraDatastreamsTest1", "testDS",
+                            "text/plain", null, "testUser");
+            uploads.remove(upload);
+            upload.write(0, IOUtils.toInputStream("asdf"), true);
+            fail("Expected an IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // the file is not opened again once the upload is gone
+            assertEquals(0, spool.list().length);
+        } finally {
+            uploads.shutdown();
+            spool.delete();
+        }
+    }
+
+    @Test
+    public void testUploadPastTheMaximum() throws Exception {
+        final UploadSessions uploads = new UploadSessions(60);
+        uploads.setMaxSize(4);
+        testObj.setUploadSessions(uploads);
+        when(mockSession.getUserID()).thenReturn("testUser");
+        when(mockSession.nodeExists(getObjectPath("FedoraDatastreamsTest1")))
+                .thenReturn(true);
+        try {
+            assertEquals(400, testObj.createUpload("FedoraDatastreamsTest1",
+                    "testDS", "text/plain", 5L).getStatus());
+            final UploadSessions.Upload upload =
+                    uploads.create("FedoraDatastreamsTest1", "testDS",
+                            "text/plain", null, "testUser");
+            final Response response =
+                    testObj.writeUpload("FedoraDatastreamsTest1", "testDS",
+                            upload.getId(), 2, false, IOUtils
+                                    .toInputStream("abc"));
+            assertEquals(400, response.getStatus());
+        } finally {
+            uploads.shutdown();
+        }
+    }
+
+    @Test
+    public void testUploadOfAnotherUser() throws Exception {
+        final UploadSessions uploads = new UploadSessions(60);
+        testObj.setUploadSessions(uploads);
+        try {
+            final UploadSessions.Upload upload =
+                    uploads.create("FedoraDatastreamsTest1", "testDS",
+                            "text/plain", null, "someoneElse");
+            when(mockSession.getUserID()).thenReturn("testUser");
+            testObj.writeUpload("FedoraDatastreamsTest1", "testDS", upload
+                    .getId(), 0, false, IOUtils.toInputStream("asdf"));
+            fail("Expected a WebApplicationException");
+        } catch (final WebApplicationException e) {
+            assertEquals(403, e.getResponse().getStatus());
+        } finally {
+            uploads.shutdown();
+        }
+        verify(mockSession).logout();
+    }
+
     @Test
     public void testGetDatastream() throws RepositoryException, IOException {
         final String pid = "FedoraDatastreamsTest1";
         final String dsId = "testDS";
         final Datastream mockDs = mockDatastream(pid, dsId, null);
         when(mockDatastreams.getDatastream(mockSession, getDatastreamsPath(pid, dsId))).thenReturn(mockDs);
-        final DatastreamProfile actual = testObj.getDatastream(pid, dsId);
+        final Response response =
+                testObj.getDatastream(pid, dsId, mock(Request.class));
+        assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        final DatastreamProfile actual =
+                (DatastreamProfile) response.getEntity();
         assertNotNull(actual);
         verify(mockDatastreams).getDatastream(mockSession, getDatastreamsPath(pid, dsId));
         verify(mockSession, never()).save();
     }
 
+    @Test
+    public void testGetDatastreamNotModified() throws RepositoryException,
+            IOException {
+        final String pid = "FedoraDatastreamsTest1";
+        final String dsId = "testDS";
+        final Datastream mockDs = mockDatastream(pid, dsId, null);
+        when(mockDatastreams.getDatastream(mockSession, getDatastreamsPath(pid, dsId))).thenReturn(mockDs);
+        final Request mockRequest = mock(Request.class);
+        when(mockRequest.evaluatePreconditions(any(Date.class),
+                any(EntityTag.class))).thenReturn(Response.notModified());
+        final Response actual =
+                testObj.getDatastream(pid, dsId, mockRequest);
+        assertEquals(Status.NOT_MODIFIED.getStatusCode(), actual.getStatus());
+        assertNull(actual.getEntity());
+        verify(mockDs, never()).getSize();
+    }
+
     @Test
     public void testGetDatastreamContent() throws RepositoryException,
             IOException {
@@ -251,13 +736,71 @@ public class FedoraDatastreamsTest {
         when(mockDatastreams.getDatastream(mockSession, getDatastreamsPath(pid, dsId))).thenReturn(mockDs);
         final Request mockRequest = mock(Request.class);
         final Response actual =
-                testObj.getDatastreamContent(pid, dsId, mockRequest);
+                testObj.getDatastreamContent(pid, dsId, null, null,
+                        mockRequest);
         verify(mockDatastreams).getDatastream(mockSession, getDatastreamsPath(pid, dsId));
         verify(mockDs).getContent();
         verify(mockSession, never()).save();
-        final String actualContent =
-                IOUtils.toString((InputStream) actual.getEntity());
-        assertEquals("asdf", actualContent);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) actual.getEntity()).write(out);
+        assertEquals("asdf", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testGetDatastreamContentRange() throws RepositoryException,
+            IOException {
+        final Response actual = getContentRange("bytes=1-2", null);
+        assertEquals(Status.PARTIAL_CONTENT.getStatusCode(), actual
+                .getStatus());
+        assertEquals("bytes 1-2/4", actual.getMetadata().getFirst(
+                "Content-Range"));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) actual.getEntity()).write(out);
+        assertEquals("sd", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testGetDatastreamContentRanges() throws RepositoryException,
+            IOException {
+        final Response actual = getContentRange("bytes=3-,0-0", null);
+        assertEquals(Status.PARTIAL_CONTENT.getStatusCode(), actual
+                .getStatus());
+        final ContentOutput content = (ContentOutput) actual.getEntity();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.write(out);
+        final String body = out.toString("UTF-8");
+        assertEquals(content.getLength(), out.size());
+        assertTrue(body.indexOf("Content-Range: bytes 0-0/4\r\n\r\na\r\n") <
+                body.indexOf("Content-Range: bytes 3-3/4\r\n\r\nf\r\n"));
+        assertTrue(body.endsWith("--\r\n"));
+    }
+
+    @Test
+    public void testGetDatastreamContentUnsatisfiableRange()
+            throws RepositoryException {
+        final Response actual = getContentRange("bytes=10-", null);
+        assertEquals(Status.REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode(),
+                actual.getStatus());
+        assertEquals("bytes */4", actual.getMetadata().getFirst(
+                "Content-Range"));
+    }
+
+    @Test
+    public void testGetDatastreamContentStaleIfRange()
+            throws RepositoryException {
+        final Response actual = getContentRange("bytes=1-2", "\"stale\"");
+        assertEquals(Status.OK.getStatusCode(), actual.getStatus());
+    }
+
+    private Response getContentRange(final String range, final String ifRange)
+            throws RepositoryException {
+        final String pid = "FedoraDatastreamsTest1";
+        final String dsId = "testDS";
+        final Datastream mockDs = mockDatastream(pid, dsId, "asdf");
+        when(mockDs.getSize()).thenReturn(4L);
+        when(mockDatastreams.getDatastream(mockSession, getDatastreamsPath(pid, dsId))).thenReturn(mockDs);
+        return testObj.getDatastreamContent(pid, dsId, range, ifRange,
+                mock(Request.class));
     }
 
     @Test
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.util.Arrays.asList;
+import static javax.jcr.nodetype.NodeType.NT_FILE;
+import static javax.jcr.nodetype.NodeType.NT_FOLDER;
+import static org.fcrepo.jaxb.responses.management.JobStatus.JobStates.COMPLETED;
+import static org.fcrepo.jcr.FedoraJcrTypes.FEDORA_OBJECT;
+import static org.fcrepo.legacy.LegacyObjectProperties.OBJECT_SIZE;
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+import static org.fcrepo.legacy.TestHelpers.getNodeIterator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.Principal;
+import java.util.Collections;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.SecurityContext;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.jaxb.responses.management.JobStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FedoraJobsTest {
+
+    FedoraJobs testObj;
+
+    LegacyJobs jobs;
+
+    SessionFactory mockSessions;
+
+    Session mockSession;
+
+    SecurityContext mockSecurityContext;
+
+    @Before
+    public void setUp() throws RepositoryException, NoSuchFieldException {
+        mockSessions = mock(SessionFactory.class);
+        mockSession = TestHelpers.getSessionMock();
+        when(mockSessions.getSession()).thenReturn(mockSession);
+        jobs = new LegacyJobs();
+        jobs.setSessionFactory(mockSessions);
+        testObj = new FedoraJobs();
+        testObj.setJobs(jobs);
+        mockSecurityContext = mock(SecurityContext.class);
+        when(mockSecurityContext.getUserPrincipal()).thenReturn(
+                mock(Principal.class));
+        when(mockSecurityContext.isUserInRole("fedoraAdmin")).thenReturn(true);
+        testObj.setSecurityContext(mockSecurityContext);
+        TestHelpers.setField(testObj, "uriInfo", TestHelpers.getUriInfoImpl());
+    }
+
+    @After
+    public void tearDown() {
+        jobs.shutdown();
+        LegacyPathHelpers.setLayout(new FlatLayout());
+    }
+
+    @Test
+    public void testRepairObjectSizes() {
+        final Response actual = testObj.repairObjectSizes(500, 0);
+        assertEquals(Status.ACCEPTED.getStatusCode(), actual.getStatus());
+        final JobStatus status = (JobStatus) actual.getEntity();
+        assertNotNull(testObj.getJob(status.id));
+        assertEquals("objectSizeRepair", status.type);
+    }
+
+    @Test
+    public void testPurgeRefusesAnonymous() {
+        when(mockSecurityContext.getUserPrincipal()).thenReturn(null);
+        try {
+            testObj.purge(null, "a:", 500, 0);
+            fail("Let an anonymous caller start a purge");
+        } catch (final WebApplicationException e) {
+            assertEquals(Status.UNAUTHORIZED.getStatusCode(), e.getResponse()
+                    .getStatus());
+        }
+    }
+
+    @Test
+    public void testPurgeRefusesNonAdmin() {
+        when(mockSecurityContext.isUserInRole("fedoraAdmin")).thenReturn(
+                false);
+        try {
+            testObj.purge(null, "a:", 500, 0);
+            fail("Let a non-administrator start a purge");
+        } catch (final WebApplicationException e) {
+            assertEquals(Status.FORBIDDEN.getStatusCode(), e.getResponse()
+                    .getStatus());
+        }
+    }
+
+    @Test
+    public void testObjectSizeRepairJob() throws RepositoryException {
+        final Node mockObjects = mock(Node.class);
+        final Node mockObject = mock(Node.class);
+        when(mockSession.getNode(OBJECT_PATH)).thenReturn(mockObjects);
+        when(mockObjects.getNodes()).thenReturn(
+                getNodeIterator(asList(mockObject, mockObject, mockObject)));
+        when(mockObject.getNodes()).thenReturn(
+                getNodeIterator(Collections.<Node> emptyList()),
+                getNodeIterator(Collections.<Node> emptyList()),
+                getNodeIterator(Collections.<Node> emptyList()));
+        final LegacyJob job = new ObjectSizeRepairJob();
+        job.setBatchSize(2);
+        job.setSessionFactory(mockSessions);
+        job.run();
+        assertEquals(COMPLETED, job.getStatus().state);
+        assertEquals(3, job.getStatus().processed);
+        verify(mockObject, times(3)).setProperty(OBJECT_SIZE, 0L);
+        // once after the first batch, once at the end
+        verify(mockSession, times(2)).save();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testPurgeJob() throws RepositoryException {
+        final String path = LegacyPathHelpers.getObjectPath("big");
+        final Node mockObject = mock(Node.class);
+        final Node mockDs1 = mock(Node.class);
+        final Node mockDs2 = mock(Node.class);
+        when(mockSession.nodeExists(path)).thenReturn(true);
+        when(mockSession.getNode(path)).thenReturn(mockObject);
+        when(mockObject.hasNodes()).thenReturn(true, false);
+        when(mockObject.getNodes()).thenReturn(
+                getNodeIterator(asList(mockDs1, mockDs2)));
+        final LegacyJob job = PurgeJob.forObject("big");
+        job.setBatchSize(2);
+        job.setSessionFactory(mockSessions);
+        job.run();
+        assertEquals(COMPLETED, job.getStatus().state);
+        assertEquals(3, job.getStatus().processed);
+        verify(mockDs1).remove();
+        verify(mockDs2).remove();
+        verify(mockObject).remove();
+        verify(mockSession, times(2)).save();
+    }
+
+    @Test
+    public void testPurgeJobRemovesDatastreamsWhole()
+        throws RepositoryException {
+        final String path = LegacyPathHelpers.getObjectPath("big");
+        final Node mockObject = mock(Node.class);
+        final Node mockDs = mock(Node.class);
+        final Node mockContent = mock(Node.class);
+        when(mockSession.nodeExists(path)).thenReturn(true);
+        when(mockSession.getNode(path)).thenReturn(mockObject);
+        when(mockObject.hasNodes()).thenReturn(true, false);
+        when(mockObject.getNodes()).thenReturn(
+                getNodeIterator(asList(mockDs)));
+        when(mockDs.isNodeType(NT_FILE)).thenReturn(true);
+        when(mockDs.hasNodes()).thenReturn(true);
+        when(mockDs.getNodes()).thenReturn(getNodeIterator(asList(mockContent)));
+        final LegacyJob job = PurgeJob.forObject("big");
+        job.setBatchSize(1);
+        job.setSessionFactory(mockSessions);
+        job.run();
+        assertEquals(COMPLETED, job.getStatus().state);
+        assertEquals(2, job.getStatus().processed);
+        verify(mockContent, never()).remove();
+        verify(mockDs).remove();
+        verify(mockObject).remove();
+    }
+
+    @Test
+    public void testLayoutMigrationJob() throws RepositoryException {
+        final HashedLayout target = new HashedLayout(2, 2);
+        final Node mockRoot = mock(Node.class);
+        final Node mockObjects = mock(Node.class);
+        final Node mockShard = mock(Node.class);
+        final Node mockObject1 = object("a:1", mockObjects);
+        final Node mockObject2 = object("a:2", mockObjects);
+        when(mockSession.getRootNode()).thenReturn(mockRoot);
+        when(mockSession.getNode(OBJECT_PATH)).thenReturn(mockObjects);
+        when(mockObjects.getPath()).thenReturn(OBJECT_PATH);
+        // counted, then moved, then found gone
+        when(mockObjects.getNodes()).thenReturn(
+                getNodeIterator(asList(mockShard, mockObject1, mockObject2)),
+                getNodeIterator(asList(mockShard, mockObject1, mockObject2)),
+                getNodeIterator(asList(mockShard)));
+        when(mockObjects.addNode(anyString(), eq(NT_FOLDER))).thenReturn(
+                mockShard);
+        when(mockShard.addNode(anyString(), eq(NT_FOLDER))).thenReturn(
+                mockShard);
+        final LegacyJob job = new LayoutMigrationJob(target);
+        job.setBatchSize(1);
+        job.setSessionFactory(mockSessions);
+        job.run();
+        final JobStatus status = job.getStatus();
+        assertEquals(COMPLETED, status.state);
+        assertEquals(2, status.processed);
+        assertEquals(Long.valueOf(2), status.total);
+        verify(mockSession).move(OBJECT_PATH + "/a:1",
+                target.getObjectPath("a:1"));
+        verify(mockSession).move(OBJECT_PATH + "/a:2",
+                target.getObjectPath("a:2"));
+        assertEquals(target, LegacyPathHelpers.getLayout());
+        verify(mockRoot).setProperty(LegacyLayouts.LAYOUT, "migrating");
+        verify(mockRoot).setProperty(LegacyLayouts.LAYOUT, "hashed");
+    }
+
+    @Test
+    public void testMigrateShardedLayout() {
+        LegacyPathHelpers.setLayout(new HashedLayout(2, 2));
+        try {
+            testObj.migrateLayout(500, 0);
+            fail("Started migrating an already sharded layout");
+        } catch (final WebApplicationException e) {
+            assertEquals(Status.CONFLICT.getStatusCode(), e.getResponse()
+                    .getStatus());
+        }
+    }
+
+    @Test
+    public void testPurgeNeedsPidOrPrefix() {
+        try {
+            testObj.purge("pid", "prefix", 500, 0);
+            fail("Accepted both a pid and a prefix");
+        } catch (final WebApplicationException e) {
+            assertEquals(Status.BAD_REQUEST.getStatusCode(), e.getResponse()
+                    .getStatus());
+        }
+    }
+
+    @Test
+    public void testGetUnknownJob() {
+        try {
+            testObj.getJob("no-such-job");
+            fail("Found a job that was never submitted");
+        } catch (final WebApplicationException e) {
+            assertEquals(Status.NOT_FOUND.getStatusCode(), e.getResponse()
+                    .getStatus());
+        }
+    }
+
+    private static Node object(final String pid, final Node parent)
+        throws RepositoryException {
+        final Node object = mock(Node.class);
+        when(object.getName()).thenReturn(pid);
+        when(object.getPath()).thenReturn(OBJECT_PATH + "/" + pid);
+        when(object.getParent()).thenReturn(parent);
+        when(object.isNodeType(FEDORA_OBJECT)).thenReturn(true);
+        return object;
+    }
+}
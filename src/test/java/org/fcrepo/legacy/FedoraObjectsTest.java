@@ -16,40 +16,79 @@
 
 package org.fcrepo.legacy;
 
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static javax.ws.rs.core.MediaType.TEXT_XML_TYPE;
 import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
 import static org.fcrepo.legacy.LegacyPathHelpers.getObjectPath;
+import static org.fcrepo.legacy.TestHelpers.getNodeIterator;
+import static org.fcrepo.legacy.ObjectListing.APPLICATION_NDJSON_TYPE;
+import static org.fcrepo.legacy.ObjectListing.encodeCursor;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import javax.jcr.LoginException;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.Property;
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.Variant;
 
+import org.apache.tika.io.IOUtils;
 import org.fcrepo.jaxb.responses.access.ObjectProfile;
+import org.fcrepo.jaxb.responses.management.BatchIngestResult;
 import org.fcrepo.jcr.FedoraJcrTypes;
 import org.fcrepo.kernel.FedoraObject;
 import org.fcrepo.kernel.identifiers.UUIDPidMinter;
+import org.fcrepo.kernel.services.DatastreamService;
 import org.fcrepo.kernel.services.NodeService;
 import org.fcrepo.kernel.services.ObjectService;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.modeshape.jcr.api.Repository;
 
 public class FedoraObjectsTest {
@@ -64,6 +103,8 @@ public class FedoraObjectsTest {
 
     private NodeService mockNodes;
 
+    private Node mockCreatedNode;
+
     @Before
     public void setUp() throws LoginException, RepositoryException, NoSuchFieldException {
         mockObjects = mock(ObjectService.class);
@@ -73,10 +114,17 @@ public class FedoraObjectsTest {
         mockSession = TestHelpers.getSessionMock();
         TestHelpers.setField(testObj, "objectService", mockObjects);
         TestHelpers.setField(testObj, "nodeService", mockNodes);
+        TestHelpers.setField(testObj, "datastreamService",
+                mock(DatastreamService.class));
         TestHelpers.setField(testObj, "uriInfo", TestHelpers.getUriInfoImpl());
         TestHelpers.setField(testObj, "pidMinter", new UUIDPidMinter());
         TestHelpers.setField(testObj, "session", mockSession);
         mockRepo = mock(Repository.class);
+        final FedoraObject mockCreated = mock(FedoraObject.class);
+        mockCreatedNode = mock(Node.class);
+        when(mockCreated.getNode()).thenReturn(mockCreatedNode);
+        when(mockObjects.createObject(any(Session.class), anyString()))
+                .thenReturn(mockCreated);
 
     }
 
@@ -86,14 +134,175 @@ public class FedoraObjectsTest {
     }
 
     @Test
-    public void testGetObjects() throws RepositoryException {
-        final Response actual = testObj.getObjects();
+    public void testGetObjects() throws RepositoryException, IOException {
+        final Node mockObjectsNode = mockObjectsNode("a", "b", "c");
+        when(mockObjects.getObjectNode(mockSession, OBJECT_PATH)).thenReturn(
+                mockObjectsNode);
+        final Request mockRequest = mock(Request.class);
+        when(mockRequest.selectVariant(anyListOf(Variant.class))).thenReturn(
+                new Variant(TEXT_XML_TYPE, null, null));
+        final Response actual = testObj.getObjects(null, 2, mockRequest);
         assertNotNull(actual);
         assertEquals(Status.OK.getStatusCode(), actual.getStatus());
-        verify(mockNodes).getObjectNames(mockSession, OBJECT_PATH);
+        verify(mockSession, never()).logout();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) actual.getEntity()).write(out);
+        final String content = out.toString("UTF-8");
+        assertTrue(content.contains("<pid>a</pid><pid>b</pid>"));
+        assertFalse(content.contains("<pid>c</pid>"));
+        assertTrue(content.contains("<cursor>" + encodeCursor("b") +
+                "</cursor>"));
+        verify(mockSession).logout();
         verify(mockSession, never()).save();
     }
 
+    @Test
+    public void testGetObjectsAsNdJsonWithCursor() throws RepositoryException,
+            IOException {
+        final Node mockObjectsNode = mockObjectsNode("a", "b", "c");
+        when(mockObjects.getObjectNode(mockSession, OBJECT_PATH)).thenReturn(
+                mockObjectsNode);
+        final Request mockRequest = mock(Request.class);
+        when(mockRequest.selectVariant(anyListOf(Variant.class))).thenReturn(
+                new Variant(APPLICATION_NDJSON_TYPE, null, null));
+        final Response actual =
+                testObj.getObjects(encodeCursor("b"), 2, mockRequest);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) actual.getEntity()).write(out);
+        assertEquals("{\"pid\":\"c\"}\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testGetObjectsWhileTheListingChanges()
+        throws RepositoryException, IOException {
+        final List<String> names =
+                new ArrayList<String>(Arrays.asList("a", "b", "c", "d"));
+        when(mockObjects.getObjectNode(mockSession, OBJECT_PATH)).thenReturn(
+                mockObjectsNode(names));
+        final Request mockRequest = mock(Request.class);
+        when(mockRequest.selectVariant(anyListOf(Variant.class))).thenReturn(
+                new Variant(APPLICATION_NDJSON_TYPE, null, null));
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ((StreamingOutput) testObj.getObjects(null, 2, mockRequest)
+                .getEntity()).write(first);
+        assertEquals("{\"pid\":\"a\"}\n{\"pid\":\"b\"}\n{\"cursor\":\"" +
+                encodeCursor("b") + "\"}\n", first.toString("UTF-8"));
+
+        // an object before the cursor goes and another arrives after it
+        names.remove("a");
+        names.add("bb");
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        ((StreamingOutput) testObj.getObjects(encodeCursor("b"), 2,
+                mockRequest).getEntity()).write(second);
+        assertEquals("{\"pid\":\"bb\"}\n{\"pid\":\"c\"}\n{\"cursor\":\"" +
+                encodeCursor("c") + "\"}\n", second.toString("UTF-8"));
+    }
+
+    @Test
+    public void testGetObjectsWithBadCursor() throws RepositoryException {
+        final Request mockRequest = mock(Request.class);
+        when(mockRequest.selectVariant(anyListOf(Variant.class))).thenReturn(
+                new Variant(TEXT_XML_TYPE, null, null));
+        try {
+            testObj.getObjects("not-a-cursor", 2, mockRequest);
+            fail("Accepted a malformed cursor");
+        } catch (final WebApplicationException e) {
+            assertEquals(Status.BAD_REQUEST.getStatusCode(), e.getResponse()
+                    .getStatus());
+        }
+        verify(mockSession).logout();
+    }
+
+    private Node mockObjectsNode(final String... names)
+        throws RepositoryException {
+        return mockObjectsNode(Arrays.asList(names));
+    }
+
+    /**
+     * @return an objects node whose listing query answers from the names,
+     *         as they are when it is executed
+     */
+    private Node mockObjectsNode(final List<String> names)
+        throws RepositoryException {
+        final Node mockObjectsNode = mock(Node.class);
+        when(mockObjectsNode.getPath()).thenReturn(OBJECT_PATH);
+        final ValueFactory mockValues = mock(ValueFactory.class);
+        when(mockSession.getValueFactory()).thenReturn(mockValues);
+        when(mockValues.createValue(anyString(), eq(PropertyType.NAME)))
+                .thenAnswer(new Answer<Value>() {
+
+                    @Override
+                    public Value answer(final InvocationOnMock invocation)
+                        throws RepositoryException {
+                        final Value value = mock(Value.class);
+                        when(value.getString()).thenReturn(
+                                (String) invocation.getArguments()[0]);
+                        return value;
+                    }
+                });
+        final QueryManager mockQueries = mock(QueryManager.class);
+        when(mockSession.getWorkspace().getQueryManager()).thenReturn(
+                mockQueries);
+        when(mockQueries.createQuery(anyString(), eq(Query.JCR_SQL2)))
+                .thenAnswer(new Answer<Query>() {
+
+                    @Override
+                    public Query answer(final InvocationOnMock invocation)
+                        throws RepositoryException {
+                        return listingQuery(names);
+                    }
+                });
+        return mockObjectsNode;
+    }
+
+    private static Query listingQuery(final List<String> names)
+        throws RepositoryException {
+        final Query query = mock(Query.class);
+        final String[] after = new String[1];
+        final long[] limit = {Long.MAX_VALUE};
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation)
+                throws RepositoryException {
+                after[0] = ((Value) invocation.getArguments()[1]).getString();
+                return null;
+            }
+        }).when(query).bindValue(anyString(), any(Value.class));
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                limit[0] = (Long) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(query).setLimit(anyLong());
+        when(query.execute()).thenAnswer(new Answer<QueryResult>() {
+
+            @Override
+            public QueryResult answer(final InvocationOnMock invocation)
+                throws RepositoryException {
+                final List<String> sorted = new ArrayList<String>(names);
+                Collections.sort(sorted);
+                final List<Node> children = new ArrayList<Node>();
+                for (final String name : sorted) {
+                    if ((after[0] == null || name.compareTo(after[0]) > 0) &&
+                            children.size() < limit[0]) {
+                        final Node child = mock(Node.class);
+                        when(child.getName()).thenReturn(name);
+                        children.add(child);
+                    }
+                }
+                final QueryResult result = mock(QueryResult.class);
+                when(result.getNodes()).thenReturn(getNodeIterator(children));
+                return result;
+            }
+        });
+        return query;
+    }
+
     @Test
     public void testIngestAndMint() throws RepositoryException {
         final Response actual = testObj.ingestAndMint();
@@ -103,20 +312,67 @@ public class FedoraObjectsTest {
     }
 
     @Test
-    public void testModify() throws RepositoryException {
+    public void testModify() throws Exception {
         final String pid = "testObject";
-        final Response actual = testObj.modify(pid);
+        when(mockCreatedNode.getNodes()).thenReturn(
+                getNodeIterator(new ArrayList<Node>()));
+        final Response actual = testObj.modify(pid, foxml(pid));
         assertNotNull(actual);
         assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
-        // this verify will fail when modify is actually implemented, thus encouraging the unit test to be updated appropriately.
-        verifyNoMoreInteractions(mockObjects);
+        verify(mockObjects).createObject(mockSession, getObjectPath(pid));
+        verify(mockCreatedNode).setProperty(LegacyObjectProperties.LABEL,
+                new String[] {"A label"});
         verify(mockSession).save();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testIngestFoxml() throws Exception {
+        final String pid = "testObject";
+        when(mockCreatedNode.getNodes()).thenReturn(
+                getNodeIterator(new ArrayList<Node>()));
+        final Response actual = testObj.ingestFoxml(pid, foxml(pid));
+        assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
+        verify(mockObjects).createObject(mockSession, getObjectPath(pid));
+        verify(mockSession).save();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testIngestFoxmlExisting() throws Exception {
+        final String pid = "testObject";
+        when(mockSession.nodeExists(getObjectPath(pid))).thenReturn(true);
+        final Response actual = testObj.ingestFoxml(pid, foxml(pid));
+        assertEquals(Status.CONFLICT.getStatusCode(), actual.getStatus());
+        verify(mockObjects, never()).createObject(any(Session.class),
+                anyString());
+        verify(mockSession, never()).save();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testIngestMalformedFoxml() throws Exception {
+        final Response actual =
+                testObj.ingestFoxml("testObject", new ByteArrayInputStream(
+                        "<foxml:digitalObject".getBytes("UTF-8")));
+        assertEquals(Status.BAD_REQUEST.getStatusCode(), actual.getStatus());
+        verify(mockSession, never()).save();
+        verify(mockSession).logout();
+    }
+
+    private static InputStream foxml(final String pid) throws IOException {
+        return new ByteArrayInputStream(("<foxml:digitalObject PID=\"" + pid +
+                "\" xmlns:foxml=\"" + FoxmlIngester.FOXML_NS + "\">" +
+                "<foxml:objectProperties><foxml:property NAME=\"" +
+                FoxmlIngester.MODEL_NS + "label\" VALUE=\"A label\"/>" +
+                "</foxml:objectProperties></foxml:digitalObject>")
+                .getBytes("UTF-8"));
     }
 
     @Test
     public void testIngest() throws RepositoryException {
         final String pid = "testObject";
-        final Response actual = testObj.ingest(pid, null);
+        final Response actual = testObj.ingest(pid, null, null, null);
         assertNotNull(actual);
         assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
         assertTrue(actual.getEntity().toString().endsWith(pid));
@@ -124,6 +380,118 @@ public class FedoraObjectsTest {
         verify(mockSession).save();
     }
 
+    @Test
+    public void testIngestWithFields() throws RepositoryException {
+        final String pid = "testObject";
+        final Response actual =
+                testObj.ingest(pid, "a label", "someone", "I");
+        assertEquals(Status.CREATED.getStatusCode(), actual.getStatus());
+        verify(mockCreatedNode).setProperty(LegacyObjectProperties.LABEL,
+                new String[] {"a label"});
+        verify(mockCreatedNode).setProperty(LegacyObjectProperties.OWNER_ID,
+                new String[] {"someone"});
+        verify(mockCreatedNode).setProperty(LegacyObjectProperties.STATE, "I");
+        verify(mockSession).save();
+    }
+
+    @Test
+    public void testIngestWithBadState() throws RepositoryException {
+        try {
+            testObj.ingest("testObject", null, null, "X");
+            fail("Accepted an unknown object state");
+        } catch (final WebApplicationException e) {
+            assertEquals(Status.BAD_REQUEST.getStatusCode(), e.getResponse()
+                    .getStatus());
+        }
+        verify(mockSession, never()).save();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testBatchIngest() throws RepositoryException, IOException {
+        final String records =
+                "{\"pid\":\"batch1\"}\n{\"pid\":\"batch2\"}\n" +
+                        "{\"label\":\"no pid\"}\n{\"pid\":\"batch3\"}\n";
+        final BatchIngestResult actual =
+                testObj.batchIngest(2, IOUtils.toInputStream(records));
+        assertEquals(3, actual.created);
+        assertEquals(1, actual.failed);
+        assertEquals(Status.BAD_REQUEST.getStatusCode(),
+                actual.items.get(2).status);
+        verify(mockObjects).createObject(mockSession, getObjectPath("batch1"));
+        verify(mockObjects).createObject(mockSession, getObjectPath("batch3"));
+        // one save for the full chunk, one for the remainder
+        verify(mockSession, times(2)).save();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testBatchIngestWithMalformedRecord()
+        throws RepositoryException, IOException {
+        final BatchIngestResult actual =
+                testObj.batchIngest(10, IOUtils
+                        .toInputStream("{\"pid\":\"batch1\"}\n[oops\n"));
+        assertEquals(1, actual.created);
+        assertEquals("batch1", actual.items.get(0).pid);
+        assertNotNull(actual.error);
+        // the record before the malformed one is still committed
+        verify(mockSession).save();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testBatchIngestWithStructuredPid()
+        throws RepositoryException, IOException {
+        final BatchIngestResult actual =
+                testObj.batchIngest(10, IOUtils.toInputStream(
+                        "{\"pid\":\"batch1\"}\n{\"pid\":{\"a\":\"b\"}}\n" +
+                                "{\"pid\":\"batch2\"}\n"));
+        assertEquals(1, actual.created);
+        assertEquals(1, actual.items.size());
+        assertTrue(actual.error.contains("pid"));
+        verify(mockObjects, never()).createObject(mockSession,
+                getObjectPath("batch2"));
+    }
+
+    @Test
+    public void testBatchIngestWithFailedChunk() throws RepositoryException,
+            IOException {
+        when(mockSession.nodeExists(getObjectPath("exists"))).thenReturn(true);
+        doThrow(new RepositoryException("boom")).when(mockSession).save();
+        final BatchIngestResult actual =
+                testObj.batchIngest(10, IOUtils
+                        .toInputStream("[{\"pid\":\"exists\"},{\"pid\":\"new\"}]"));
+        assertEquals(0, actual.created);
+        assertEquals(2, actual.failed);
+        assertEquals(Status.CONFLICT.getStatusCode(),
+                actual.items.get(0).status);
+        assertEquals(Status.INTERNAL_SERVER_ERROR.getStatusCode(),
+                actual.items.get(1).status);
+        verify(mockSession).refresh(false);
+    }
+
+    @Test
+    public void testGetObjectWithLegacyLabel() throws RepositoryException,
+            IOException {
+        final String pid = "testObject";
+        final FedoraObject mockObj = mock(FedoraObject.class);
+        final Node mockNode = mock(Node.class);
+        final Property mockTitle = mock(Property.class);
+        final Value mockValue = mock(Value.class);
+        when(mockObjects.getObject(mockSession, getObjectPath(pid))).thenReturn(mockObj);
+        when(mockObj.getNode()).thenReturn(mockNode);
+        when(mockNode.getProperty(FedoraJcrTypes.JCR_CREATEDBY)).thenReturn(mock(Property.class));
+        when(mockNode.hasProperty(LegacyObjectProperties.LEGACY_LABEL))
+                .thenReturn(true);
+        when(mockNode.getProperty(LegacyObjectProperties.LEGACY_LABEL))
+                .thenReturn(mockTitle);
+        when(mockTitle.getValues()).thenReturn(new Value[] {mockValue});
+        when(mockValue.getString()).thenReturn("an old label");
+        final Response response = testObj.getObject(pid, mock(Request.class));
+        final ObjectProfile actual = (ObjectProfile) response.getEntity();
+        assertEquals("an old label", actual.objLabel);
+    }
+
     @Test
     public void testGetObject() throws RepositoryException, IOException {
         final String pid = "testObject";
@@ -132,13 +500,122 @@ public class FedoraObjectsTest {
         when(mockObjects.getObject(mockSession, getObjectPath(pid))).thenReturn(mockObj);
         when(mockObj.getNode()).thenReturn(mockNode);
         when(mockNode.getProperty(FedoraJcrTypes.JCR_CREATEDBY)).thenReturn(mock(Property.class));
-        final ObjectProfile actual = testObj.getObject(pid);
+        final Response response = testObj.getObject(pid, mock(Request.class));
+        assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        final ObjectProfile actual = (ObjectProfile) response.getEntity();
         assertNotNull(actual);
         assertEquals(pid, actual.pid);
         verify(mockObjects).getObject(mockSession, getObjectPath(pid));
         verify(mockSession, never()).save();
     }
 
+    @Test
+    public void testExport() throws RepositoryException, IOException {
+        final String pid = "testObject";
+        final FedoraObject mockObj = mock(FedoraObject.class);
+        final Node mockNode = mock(Node.class);
+        final Property mockOwner = mock(Property.class);
+        when(mockOwner.getString()).thenReturn("someone");
+        when(mockObjects.getObject(mockSession, getObjectPath(pid))).thenReturn(mockObj);
+        when(mockObj.getNode()).thenReturn(mockNode);
+        when(mockNode.getProperty(FedoraJcrTypes.JCR_CREATEDBY)).thenReturn(mockOwner);
+        when(mockNode.getNodes()).thenReturn(
+                getNodeIterator(new ArrayList<Node>()));
+        final Response actual = testObj.export(pid, "archive");
+        assertEquals(Status.OK.getStatusCode(), actual.getStatus());
+        verify(mockSession, never()).logout();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) actual.getEntity()).write(out);
+        final String content = out.toString("UTF-8");
+        assertTrue(content.contains("PID=\"" + pid + "\""));
+        assertTrue(content.contains("VALUE=\"someone\""));
+        assertTrue(content.contains("VALUE=\"Active\""));
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testExportWithBadContext() throws RepositoryException {
+        final Response actual = testObj.export("testObject", "bogus");
+        assertEquals(Status.BAD_REQUEST.getStatusCode(), actual.getStatus());
+        verify(mockObjects, never()).getObject(any(Session.class), anyString());
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testGetObjectUnknownPid() throws RepositoryException,
+            IOException, NoSuchFieldException {
+        final PidIndex mockIndex = mock(PidIndex.class);
+        TestHelpers.setField(testObj, "pidIndex", mockIndex);
+        final Response actual =
+                testObj.getObject("unknown", mock(Request.class));
+        assertEquals(Status.NOT_FOUND.getStatusCode(), actual.getStatus());
+        verify(mockObjects, never()).getObject(any(Session.class), anyString());
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testGetObjectNotModified() throws RepositoryException,
+            IOException {
+        final String pid = "testObject";
+        final FedoraObject mockObj = mock(FedoraObject.class);
+        final Node mockNode = mock(Node.class);
+        final Date lastModified = new Date(1370000000123L);
+        when(mockObjects.getObject(mockSession, getObjectPath(pid))).thenReturn(mockObj);
+        when(mockObj.getLastModifiedDate()).thenReturn(lastModified);
+        when(mockObj.getNode()).thenReturn(mockNode);
+        when(mockNode.getProperty(FedoraJcrTypes.JCR_CREATEDBY)).thenReturn(mock(Property.class));
+        final Request mockRequest = mock(Request.class);
+        when(mockRequest.selectVariant(anyListOf(Variant.class))).thenReturn(
+                new Variant(TEXT_XML_TYPE, null, null));
+        when(mockRequest.evaluatePreconditions(any(Date.class),
+                any(EntityTag.class))).thenReturn(
+                Response.notModified());
+        final Response actual = testObj.getObject(pid, mockRequest);
+        assertEquals(Status.NOT_MODIFIED.getStatusCode(), actual.getStatus());
+        assertNull(actual.getEntity());
+        final ObjectProfile expected = FedoraObjects.buildProfile(pid, mockObj);
+        verify(mockRequest).evaluatePreconditions(new Date(1370000000000L),
+                CacheValidators.objectProfileTag(expected, TEXT_XML_TYPE));
+    }
+
+    @Test
+    public void testObjectProfileTagVaries() throws RepositoryException {
+        final ObjectProfile profile = new ObjectProfile();
+        profile.pid = "testObject";
+        profile.objLastModDate = new Date(1370000000123L);
+        final EntityTag xml =
+                CacheValidators.objectProfileTag(profile, TEXT_XML_TYPE);
+        assertFalse("XML and JSON share a validator!", xml
+                .equals(CacheValidators.objectProfileTag(profile,
+                        APPLICATION_JSON_TYPE)));
+        profile.objLabel = "changed in the same millisecond";
+        assertFalse("Tag ignores a change to the profile!", xml
+                .equals(CacheValidators.objectProfileTag(profile,
+                        TEXT_XML_TYPE)));
+    }
+
+    @Test
+    public void testGetObjectFromCache() throws RepositoryException,
+            IOException, NoSuchFieldException {
+        final ObjectProfileCache cache = new ObjectProfileCache();
+        cache.init();
+        TestHelpers.setField(testObj, "profileCache", cache);
+        final String pid = "testObject";
+        final FedoraObject mockObj = mock(FedoraObject.class);
+        final Node mockNode = mock(Node.class);
+        when(mockObjects.getObject(mockSession, getObjectPath(pid))).thenReturn(mockObj);
+        when(mockObj.getNode()).thenReturn(mockNode);
+        when(mockNode.getProperty(FedoraJcrTypes.JCR_CREATEDBY)).thenReturn(mock(Property.class));
+        testObj.getObject(pid, mock(Request.class));
+        final ObjectProfile actual =
+                (ObjectProfile) testObj.getObject(pid, mock(Request.class))
+                        .getEntity();
+        assertEquals(pid, actual.pid);
+        assertNotNull(actual.objItemIndexViewURL);
+        verify(mockObjects, times(1)).getObject(mockSession, getObjectPath(pid));
+    }
+
     @Test
     public void testDeleteObject() throws RepositoryException {
         final String pid = "testObject";
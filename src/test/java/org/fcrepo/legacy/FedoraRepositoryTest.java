@@ -18,8 +18,10 @@ package org.fcrepo.legacy;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -97,6 +99,18 @@ public class FedoraRepositoryTest {
         assertEquals("4.0-modeshape-candidate", actual.getRepositoryVersion());
     }
 
+    @Test
+    public void testDescribeLogsOutOnFailure() throws RepositoryException {
+        when(mockObjects.getRepositorySize()).thenThrow(
+                new IllegalStateException("expected"));
+        try {
+            testObj.describe();
+            fail("Expected an IllegalStateException");
+        } catch (final IllegalStateException e) {
+            verify(mockSession).logout();
+        }
+    }
+
     @Test
     public void testDescribeHtml() throws LoginException, RepositoryException {
         final String actual = testObj.describeHtml();
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.legacy.LegacyObjectProperties.LABEL;
+import static org.fcrepo.legacy.LegacyObjectProperties.OBJECT_SIZE;
+import static org.fcrepo.legacy.LegacyObjectProperties.STATE;
+import static org.fcrepo.legacy.LegacyPathHelpers.getDatastreamsPath;
+import static org.fcrepo.legacy.LegacyPathHelpers.getObjectPath;
+import static org.fcrepo.legacy.TestHelpers.getNodeIterator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.Session;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.tika.io.IOUtils;
+import org.fcrepo.kernel.FedoraObject;
+import org.fcrepo.kernel.exception.InvalidChecksumException;
+import org.fcrepo.kernel.services.DatastreamService;
+import org.fcrepo.kernel.services.ObjectService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class FoxmlIngesterTest {
+
+    private static final String FOXML =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                    "<foxml:digitalObject VERSION=\"1.1\" PID=\"demo:1\" " +
+                    "xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\">\n" +
+                    "<foxml:objectProperties>\n" +
+                    "<foxml:property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"Inactive\"/>\n" +
+                    "<foxml:property NAME=\"info:fedora/fedora-system:def/model#label\" VALUE=\"A label\"/>\n" +
+                    "</foxml:objectProperties>\n" +
+                    "<foxml:datastream ID=\"DC\" CONTROL_GROUP=\"X\">\n" +
+                    "<foxml:datastreamVersion ID=\"DC.0\" MIMETYPE=\"text/xml\">\n" +
+                    "<foxml:contentDigest TYPE=\"SHA-1\" DIGEST=\"def\"/>\n" +
+                    "<foxml:xmlContent><oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" " +
+                    "xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><dc:title>A label</dc:title>" +
+                    "</oai_dc:dc></foxml:xmlContent>\n" +
+                    "</foxml:datastreamVersion>\n" +
+                    "</foxml:datastream>\n" +
+                    "<foxml:datastream ID=\"BIN\" CONTROL_GROUP=\"M\">\n" +
+                    "<foxml:datastreamVersion ID=\"BIN.0\" MIMETYPE=\"text/plain\">\n" +
+                    "<foxml:contentDigest TYPE=\"SHA-1\" DIGEST=\"abc\"/>\n" +
+                    "<foxml:binaryContent>\n  aGVsbG8g\n  d29ybGQ=\n</foxml:binaryContent>\n" +
+                    "</foxml:datastreamVersion>\n" +
+                    "</foxml:datastream>\n" +
+                    "<foxml:datastream ID=\"EXT\" CONTROL_GROUP=\"E\">\n" +
+                    "<foxml:datastreamVersion ID=\"EXT.0\" MIMETYPE=\"text/html\">\n" +
+                    "<foxml:contentLocation TYPE=\"URL\" REF=\"http://example.org/\"/>\n" +
+                    "</foxml:datastreamVersion>\n" +
+                    "</foxml:datastream>\n" +
+                    "</foxml:digitalObject>";
+
+    private ObjectService mockObjects;
+
+    private DatastreamService mockDatastreams;
+
+    private Session mockSession;
+
+    private Node mockNode;
+
+    private Map<String, String> written;
+
+    private FoxmlIngester testObj;
+
+    @Before
+    public void setUp() throws Exception {
+        mockObjects = mock(ObjectService.class);
+        mockDatastreams = mock(DatastreamService.class);
+        mockSession = mock(Session.class);
+        mockNode = mock(Node.class);
+        final FedoraObject mockObject = mock(FedoraObject.class);
+        when(mockObject.getNode()).thenReturn(mockNode);
+        when(mockNode.getNodes()).thenReturn(
+                getNodeIterator(new ArrayList<Node>()));
+        when(mockObjects.createObject(any(Session.class), anyString()))
+                .thenReturn(mockObject);
+        written = new HashMap<String, String>();
+        // the content stream is only readable during the call
+        when(
+                mockDatastreams.createDatastreamNode(any(Session.class),
+                        anyString(), anyString(), any(InputStream.class),
+                        any(URI.class))).thenAnswer(new Answer<Node>() {
+
+            @Override
+            public Node answer(final InvocationOnMock invocation)
+                throws Throwable {
+                final Object[] args = invocation.getArguments();
+                written.put((String) args[1], IOUtils
+                        .toString((InputStream) args[3], "UTF-8"));
+                return mock(Node.class);
+            }
+        });
+        testObj = new FoxmlIngester(mockSession, mockObjects, mockDatastreams);
+    }
+
+    @Test
+    public void testIngest() throws Exception {
+        testObj.ingest("demo:1", new ByteArrayInputStream(FOXML
+                .getBytes("UTF-8")));
+        verify(mockObjects).createObject(mockSession, getObjectPath("demo:1"));
+        verify(mockNode).setProperty(LABEL, new String[] {"A label"});
+        verify(mockNode).setProperty(STATE, "I");
+        verify(mockNode).setProperty(OBJECT_SIZE, 0L);
+
+        assertEquals("hello world", written.get(getDatastreamsPath("demo:1",
+                "BIN")));
+        verify(mockDatastreams).createDatastreamNode(eq(mockSession),
+                eq(getDatastreamsPath("demo:1", "BIN")), eq("text/plain"),
+                any(InputStream.class), eq(new URI("urn:sha1:abc")));
+
+        final String dc = written.get(getDatastreamsPath("demo:1", "DC"));
+        assertTrue(dc.contains("<dc:title>A label</dc:title>"));
+        assertTrue(dc.contains("xmlns:oai_dc="));
+        verify(mockDatastreams).createDatastreamNode(eq(mockSession),
+                eq(getDatastreamsPath("demo:1", "DC")), eq("text/xml"),
+                any(InputStream.class), (URI) isNull());
+
+        verify(mockDatastreams, never()).createDatastreamNode(
+                any(Session.class), eq(getDatastreamsPath("demo:1", "EXT")),
+                anyString(), any(InputStream.class), any(URI.class));
+    }
+
+    @Test
+    public void testIngestClearsEarlierDigests() throws Exception {
+        final Node mockDsNode = mock(Node.class);
+        final Property mockDigests = mock(Property.class);
+        when(mockDsNode.hasProperty(ContentDigests.DIGESTS)).thenReturn(true);
+        when(mockDsNode.getProperty(ContentDigests.DIGESTS)).thenReturn(
+                mockDigests);
+        when(
+                mockDatastreams.createDatastreamNode(any(Session.class),
+                        anyString(), anyString(), any(InputStream.class),
+                        any(URI.class))).thenReturn(mockDsNode);
+        testObj.ingest("demo:1", new ByteArrayInputStream(FOXML
+                .getBytes("UTF-8")));
+        // neither the SHA-1 of BIN nor the inline DC records digests here
+        verify(mockDigests, times(2)).remove();
+        verify(mockDsNode, never()).setProperty(eq(ContentDigests.DIGESTS),
+                any(String[].class));
+    }
+
+    @Test
+    public void testIngestChecksMd5() throws Exception {
+        testObj.ingest("demo:1", new ByteArrayInputStream(FOXML.replace(
+                "TYPE=\"SHA-1\" DIGEST=\"abc\"",
+                "TYPE=\"MD5\" DIGEST=\"5eb63bbbe01eeed093cb22bb8f5acdc3\"")
+                .getBytes("UTF-8")));
+        verify(mockDatastreams).createDatastreamNode(eq(mockSession),
+                eq(getDatastreamsPath("demo:1", "BIN")), eq("text/plain"),
+                any(InputStream.class), (URI) isNull());
+    }
+
+    @Test(expected = InvalidChecksumException.class)
+    public void testIngestWithBadMd5() throws Exception {
+        testObj.ingest("demo:1", new ByteArrayInputStream(FOXML.replace(
+                "TYPE=\"SHA-1\" DIGEST=\"abc\"",
+                "TYPE=\"MD5\" DIGEST=\"0123456789abcdef0123456789abcdef\"")
+                .getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testIngestWithMismatchedPid() throws Exception {
+        try {
+            testObj.ingest("demo:2", new ByteArrayInputStream(FOXML
+                    .getBytes("UTF-8")));
+            fail("Expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            verify(mockObjects, never()).createObject(any(Session.class),
+                    anyString());
+        }
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void testIngestNotFoxml() throws Exception {
+        testObj.ingest("demo:1", new ByteArrayInputStream("<foo/>"
+                .getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HashedLayoutTest {
+
+    private final HashedLayout testObj = new HashedLayout(2, 2);
+
+    @After
+    public void tearDown() {
+        LegacyPathHelpers.setLayout(new FlatLayout());
+    }
+
+    @Test
+    public void testGetObjectPath() {
+        final String path = testObj.getObjectPath("demo:1");
+        assertTrue(path.matches(OBJECT_PATH + "/[0-9a-f]{2}/[0-9a-f]{2}/demo:1"));
+        assertEquals(path, testObj.getObjectPath("demo:1"));
+    }
+
+    @Test
+    public void testGetPidFromPath() {
+        final String path = testObj.getObjectPath("demo:1");
+        assertEquals("demo:1", testObj.getPidFromPath(path));
+        assertEquals("demo:1", testObj.getPidFromPath(path + "/DC"));
+        assertNull(testObj.getPidFromPath(OBJECT_PATH + "/ab"));
+        assertNull(testObj.getPidFromPath("/elsewhere/ab/cd/demo:1"));
+    }
+
+    @Test
+    public void testPathHelpersFollowLayout() {
+        LegacyPathHelpers.setLayout(testObj);
+        assertEquals(testObj.getObjectPath("demo:1") + "/DC",
+                LegacyPathHelpers.getDatastreamsPath("demo:1", "DC"));
+        assertEquals("demo:1", LegacyPathHelpers
+                .getPidFromPath(LegacyPathHelpers.getObjectPath("demo:1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooDeep() {
+        new HashedLayout(17, 2);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static java.util.Arrays.asList;
+import static org.fcrepo.jcr.FedoraJcrTypes.FEDORA_OBJECT;
+import static org.fcrepo.legacy.LegacyLayouts.LAYOUT;
+import static org.fcrepo.legacy.LegacyLayouts.LAYOUT_LEVELS;
+import static org.fcrepo.legacy.LegacyLayouts.LAYOUT_WIDTH;
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+import static org.fcrepo.legacy.TestHelpers.getNodeIterator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LegacyLayoutsTest {
+
+    private Session mockSession;
+
+    private Node mockRoot;
+
+    private Node mockObjects;
+
+    private LegacyLayouts testObj;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        mockSession = mock(Session.class);
+        mockRoot = mock(Node.class);
+        mockObjects = mock(Node.class);
+        when(mockSession.getRootNode()).thenReturn(mockRoot);
+        when(mockSession.nodeExists(OBJECT_PATH)).thenReturn(true);
+        when(mockSession.getNode(OBJECT_PATH)).thenReturn(mockObjects);
+        final SessionFactory mockSessions = mock(SessionFactory.class);
+        when(mockSessions.getSession()).thenReturn(mockSession);
+        testObj = new LegacyLayouts();
+        testObj.setSessionFactory(mockSessions);
+    }
+
+    @After
+    public void tearDown() {
+        LegacyPathHelpers.setLayout(new FlatLayout());
+    }
+
+    @Test
+    public void testRecordedLayoutWins() throws RepositoryException {
+        recorded("hashed", 3, 1);
+        testObj.init();
+        final HashedLayout layout =
+                (HashedLayout) LegacyPathHelpers.getLayout();
+        assertEquals(3, layout.getLevels());
+        assertEquals(1, layout.getWidth());
+    }
+
+    @Test
+    public void testRecordedMigration() throws RepositoryException {
+        recorded("migrating", 2, 2);
+        testObj.init();
+        assertTrue(LegacyPathHelpers.getLayout() instanceof MigratingLayout);
+    }
+
+    @Test
+    public void testRecordsConfiguredLayout() throws RepositoryException {
+        final Node mockObject = mock(Node.class);
+        when(mockObject.isNodeType(FEDORA_OBJECT)).thenReturn(true);
+        when(mockObjects.getNodes()).thenReturn(
+                getNodeIterator(asList(mockObject)));
+        testObj.init();
+        verify(mockRoot).setProperty(LAYOUT, "flat");
+        verify(mockSession).save();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRefusesFlatOverShards() throws RepositoryException {
+        when(mockObjects.getNodes()).thenReturn(
+                getNodeIterator(asList(mock(Node.class))));
+        testObj.init();
+    }
+
+    private void recorded(final String name, final long levels,
+            final long width) throws RepositoryException {
+        when(mockRoot.hasProperty(LAYOUT)).thenReturn(true);
+        final Property mockName = mock(Property.class);
+        when(mockName.getString()).thenReturn(name);
+        when(mockRoot.getProperty(LAYOUT)).thenReturn(mockName);
+        final Property mockLevels = mock(Property.class);
+        when(mockLevels.getLong()).thenReturn(levels);
+        when(mockRoot.getProperty(LAYOUT_LEVELS)).thenReturn(mockLevels);
+        final Property mockWidth = mock(Property.class);
+        when(mockWidth.getLong()).thenReturn(width);
+        when(mockRoot.getProperty(LAYOUT_WIDTH)).thenReturn(mockWidth);
+    }
+}
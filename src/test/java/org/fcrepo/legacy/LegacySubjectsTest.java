@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+public class LegacySubjectsTest {
+
+    private static final URI BASE = URI.create("http://localhost/fcrepo/");
+
+    @Test
+    public void testForBaseUriIsShared() {
+        assertSame(LegacySubjects.forBaseUri(BASE), LegacySubjects
+                .forBaseUri(URI.create("http://localhost/fcrepo/")));
+    }
+
+    @Test
+    public void testMintUris() {
+        final LegacySubjects subjects = LegacySubjects.forBaseUri(BASE);
+        assertEquals(URI.create("http://localhost/fcrepo/v3/objects/demo:1"),
+                subjects.getObjectUri("demo:1"));
+        assertEquals(URI
+                .create("http://localhost/fcrepo/v3/objects/demo:1/datastreams"),
+                subjects.getDatastreamsUri("demo:1"));
+        assertEquals(URI.create("http://localhost/fcrepo/v3/objects/demo:1/" +
+                "datastreams/DC/content"), subjects.getDatastreamContentUri(
+                "demo:1", "DC"));
+        assertEquals("info:fedora/demo:1", LegacySubjects.getSubject("demo:1"));
+    }
+
+    @Test
+    public void testMintUrisForUnsafePid() {
+        final LegacySubjects subjects = LegacySubjects.forBaseUri(BASE);
+        assertEquals(URI
+                .create("http://localhost/fcrepo/v3/objects/demo:a%20b%25"),
+                subjects.getObjectUri("demo:a b%"));
+        assertEquals(URI.create("http://localhost/fcrepo/v3/objects/" +
+                "demo:a%20b/datastreams/D%2FS/content"), subjects
+                .getDatastreamContentUri("demo:a b", "D/S"));
+        assertEquals("demo:a b%", subjects.getPid(subjects.getObjectUri(
+                "demo:a b%").toString()));
+    }
+
+    @Test
+    public void testGetPid() {
+        final LegacySubjects subjects = LegacySubjects.forBaseUri(BASE);
+        assertEquals("demo:1", subjects
+                .getPid("http://localhost/fcrepo/v3/objects/demo:1/datastreams"));
+        assertEquals("demo:1", subjects.getPid("info:fedora/demo:1/DC"));
+        assertNull(subjects.getPid("http://elsewhere/demo:1"));
+    }
+}
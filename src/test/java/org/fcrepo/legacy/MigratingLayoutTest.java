@@ -0,0 +1,150 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class MigratingLayoutTest {
+
+    private final HashedLayout target = new HashedLayout(2, 2);
+
+    private SessionFactory mockSessions;
+
+    private Session mockSession;
+
+    private MigratingLayout testObj;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        mockSessions = mock(SessionFactory.class);
+        mockSession = mock(Session.class);
+        when(mockSessions.getSession()).thenReturn(mockSession);
+        when(mockSession.isLive()).thenReturn(true);
+        testObj = new MigratingLayout(new FlatLayout(), target);
+        testObj.setSessionFactory(mockSessions);
+    }
+
+    @Test
+    public void testUnmovedObjectIsRemembered() throws RepositoryException {
+        when(mockSession.nodeExists(OBJECT_PATH + "/demo:1")).thenReturn(true);
+        assertEquals(OBJECT_PATH + "/demo:1", testObj.getObjectPath("demo:1"));
+        assertEquals(OBJECT_PATH + "/demo:1", testObj.getObjectPath("demo:1"));
+        verify(mockSession, times(1)).nodeExists(OBJECT_PATH + "/demo:1");
+    }
+
+    @Test
+    public void testMovedObjectIsRemembered() throws RepositoryException {
+        assertEquals(target.getObjectPath("demo:1"), testObj
+                .getObjectPath("demo:1"));
+        assertEquals(target.getObjectPath("demo:1"), testObj
+                .getObjectPath("demo:1"));
+        verify(mockSession, times(1)).nodeExists(OBJECT_PATH + "/demo:1");
+    }
+
+    @Test
+    public void testReportedMove() throws RepositoryException {
+        when(mockSession.nodeExists(OBJECT_PATH + "/demo:1")).thenReturn(true);
+        assertEquals(OBJECT_PATH + "/demo:1", testObj.getObjectPath("demo:1"));
+        testObj.moved("demo:1");
+        assertEquals(target.getObjectPath("demo:1"), testObj
+                .getObjectPath("demo:1"));
+    }
+
+    @Test
+    public void testSessionIsKeptByItsThread() throws RepositoryException {
+        testObj.getObjectPath("demo:1");
+        testObj.getObjectPath("demo:2");
+        verify(mockSessions, times(1)).getSession();
+        testObj.close();
+        verify(mockSession).logout();
+    }
+
+    @Test
+    public void testThreadsLookUpConcurrently() throws Exception {
+        final Session blockedSession = mock(Session.class);
+        when(blockedSession.isLive()).thenReturn(true);
+        final CountDownLatch looking = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(blockedSession.nodeExists(OBJECT_PATH + "/demo:1")).thenAnswer(
+                new Answer<Boolean>() {
+
+                    @Override
+                    public Boolean answer(final InvocationOnMock invocation)
+                        throws InterruptedException {
+                        looking.countDown();
+                        release.await(5, SECONDS);
+                        return true;
+                    }
+                });
+        when(mockSessions.getSession()).thenReturn(blockedSession,
+                mockSession);
+        final Thread blocked = new Thread() {
+
+            @Override
+            public void run() {
+                testObj.getObjectPath("demo:1");
+            }
+        };
+        blocked.start();
+        assertTrue(looking.await(5, SECONDS));
+
+        // answered while the other thread is still looking
+        assertEquals(target.getObjectPath("demo:2"), testObj
+                .getObjectPath("demo:2"));
+        assertTrue(blocked.isAlive());
+        release.countDown();
+        blocked.join();
+
+        testObj.close();
+        verify(blockedSession).logout();
+        verify(mockSession).logout();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWithoutSessionFactory() {
+        testObj.setSessionFactory(null);
+        testObj.getObjectPath("demo:1");
+    }
+
+    @Test
+    public void testGetPidFromEitherPath() {
+        assertEquals("demo:1", testObj.getPidFromPath(OBJECT_PATH +
+                "/demo:1/DC/jcr:content"));
+        assertEquals("demo:1", testObj.getPidFromPath(target
+                .getObjectPath("demo:1") +
+                "/DC"));
+        assertEquals(2, testObj.getShardDepth());
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.tika.io.IOUtils;
+import org.junit.Test;
+
+public class MultipartReaderTest {
+
+    private static final String BODY = "preamble\r\n" +
+            "--XyZ\r\n" +
+            "Content-Disposition: form-data; name=\"ds1\"\r\n" +
+            "Content-Type: text/xml\r\n" +
+            "\r\n" +
+            "<a/>\r\n" +
+            "--XyZ \r\n" +
+            "content-disposition: form-data; name=ds2; filename=ds2.txt\r\n" +
+            "\r\n" +
+            "line one\r\n--XyY\r\nline two\r\n" +
+            "--XyZ--\r\n" +
+            "epilogue";
+
+    @Test
+    public void testNext() throws Exception {
+        final MultipartReader testObj = new MultipartReader(trickle(BODY),
+                "XyZ");
+        final MultipartReader.Part first = testObj.next();
+        assertEquals("ds1", first.getName());
+        assertEquals("text/xml", first.getMediaType());
+        assertEquals("<a/>", IOUtils.toString(first.getContent()));
+
+        final MultipartReader.Part second = testObj.next();
+        assertEquals("ds2", second.getName());
+        assertEquals("text/plain", second.getMediaType());
+        assertEquals("line one\r\n--XyY\r\nline two", IOUtils
+                .toString(second.getContent()));
+
+        assertNull(testObj.next());
+        assertNull(testObj.next());
+    }
+
+    @Test
+    public void testNextSkipsUnreadContent() throws Exception {
+        final MultipartReader testObj = new MultipartReader(trickle(BODY),
+                "XyZ");
+        testObj.next();
+        assertEquals("ds2", testObj.next().getName());
+        assertNull(testObj.next());
+    }
+
+    @Test
+    public void testOversizedPart() throws Exception {
+        final MultipartReader testObj =
+                new MultipartReader(trickle(BODY), "XyZ", 4);
+        assertEquals("<a/>", IOUtils.toString(testObj.next().getContent()));
+        final MultipartReader.Part part = testObj.next();
+        try {
+            IOUtils.toString(part.getContent());
+            fail("Expected an IOException");
+        } catch (final IOException e) {
+            assertTrue(part.isOversized());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedBody() throws Exception {
+        final MultipartReader testObj = new MultipartReader(trickle(BODY
+                .substring(0, BODY.indexOf("line two"))), "XyZ");
+        testObj.next();
+        IOUtils.toString(testObj.next().getContent());
+    }
+
+    /**
+     * @return the content, a few bytes per read
+     */
+    private static InputStream trickle(final String content) throws Exception {
+        return new FilterInputStream(new ByteArrayInputStream(content
+                .getBytes("UTF-8"))) {
+
+            @Override
+            public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+    }
+}
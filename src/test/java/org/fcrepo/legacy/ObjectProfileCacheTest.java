@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.legacy.LegacyPathHelpers.getDatastreamsPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Callable;
+
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+
+import org.fcrepo.jaxb.responses.access.ObjectProfile;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.eventbus.EventBus;
+
+public class ObjectProfileCacheTest {
+
+    ObjectProfileCache testObj;
+
+    EventBus eventBus;
+
+    int loads;
+
+    @Before
+    public void setUp() {
+        eventBus = new EventBus();
+        testObj = new ObjectProfileCache();
+        testObj.setEventBus(eventBus);
+        testObj.init();
+        loads = 0;
+    }
+
+    @Test
+    public void testGetLoadsOnce() throws RepositoryException {
+        final ObjectProfile first =
+                testObj.get("pid1", "user1", loader("pid1"));
+        final ObjectProfile second =
+                testObj.get("pid1", "user1", loader("pid1"));
+        assertEquals(1, loads);
+        assertEquals("pid1", second.pid);
+        assertNotSame("Cache handed out its own copy!", first, second);
+    }
+
+    @Test
+    public void testGetIsPerUser() throws RepositoryException {
+        testObj.get("pid1", "user1", loader("pid1"));
+        assertNull(testObj.getIfPresent("pid1", "user2"));
+        testObj.get("pid1", "user2", loader("pid1"));
+        assertEquals(2, loads);
+        assertEquals("pid1", testObj.getIfPresent("pid1", "user1").pid);
+    }
+
+    @Test
+    public void testInvalidate() throws RepositoryException {
+        testObj.get("pid1", "user1", loader("pid1"));
+        testObj.invalidate("pid1");
+        testObj.get("pid1", "user1", loader("pid1"));
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testInvalidateOnDatastreamEvent() throws RepositoryException {
+        testObj.get("pid1", "user1", loader("pid1"));
+        testObj.get("pid2", "user1", loader("pid2"));
+        final Event mockEvent = mock(Event.class);
+        when(mockEvent.getPath()).thenReturn(
+                getDatastreamsPath("pid1", "ds1") + "/jcr:content");
+        eventBus.post(mockEvent);
+        testObj.get("pid1", "user1", loader("pid1"));
+        testObj.get("pid2", "user1", loader("pid2"));
+        assertEquals(3, loads);
+    }
+
+    @Test(expected = PathNotFoundException.class)
+    public void testLoaderFailure() throws RepositoryException {
+        testObj.get("missing", "user1", new Callable<ObjectProfile>() {
+
+            @Override
+            public ObjectProfile call() throws RepositoryException {
+                throw new PathNotFoundException("missing");
+            }
+        });
+    }
+
+    private Callable<ObjectProfile> loader(final String pid) {
+        return new Callable<ObjectProfile>() {
+
+            @Override
+            public ObjectProfile call() {
+                loads++;
+                final ObjectProfile profile = new ObjectProfile();
+                profile.pid = pid;
+                return profile;
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.fcrepo.jcr.FedoraJcrTypes.FEDORA_OBJECT;
+import static org.fcrepo.legacy.TestHelpers.getNodeIterator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ObjectTreeTest {
+
+    private Node root;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        // two levels of two shards, each leaf holding one object
+        root = node("/objects", "objects");
+        final List<Node> top = new ArrayList<Node>();
+        for (final String a : new String[] {"aa", "bb"}) {
+            final Node shard = node("/objects/" + a, a);
+            final List<Node> leaves = new ArrayList<Node>();
+            for (final String b : new String[] {"cc", "dd"}) {
+                final Node leaf = node("/objects/" + a + "/" + b, b);
+                children(leaf, node(null, a + b));
+                leaves.add(leaf);
+            }
+            children(shard, leaves.toArray(new Node[2]));
+            top.add(shard);
+        }
+        children(root, top.toArray(new Node[2]));
+    }
+
+    @Test
+    public void testObjects() throws RepositoryException {
+        final Iterator<Node> objects = ObjectTree.objects(root, 2);
+        for (final String expected : new String[] {"aacc", "aadd", "bbcc",
+                "bbdd"}) {
+            assertEquals(expected, objects.next().getName());
+        }
+        assertFalse(objects.hasNext());
+    }
+
+    @Test
+    public void testShardsFromStart() throws RepositoryException {
+        final Iterator<Node> shards = ObjectTree.shards(root, 2, "aa/dd");
+        assertEquals("aa/dd", ObjectTree.relativePath(root, shards.next()));
+        assertEquals("bb/cc", ObjectTree.relativePath(root, shards.next()));
+        assertEquals("bb/dd", ObjectTree.relativePath(root, shards.next()));
+        assertFalse(shards.hasNext());
+    }
+
+    @Test
+    public void testFlatShardIsRoot() throws RepositoryException {
+        final Iterator<Node> shards = ObjectTree.shards(root, 0);
+        assertEquals("", ObjectTree.relativePath(root, shards.next()));
+        assertFalse(shards.hasNext());
+    }
+
+    @Test
+    public void testObjectsLeftAtRoot() throws RepositoryException {
+        // as midway through moving a flat layout into shards
+        final Node shard = node("/objects/aa", "aa");
+        final Node moved = node(null, "moved");
+        final Node unmoved = node("/objects/unmoved", "unmoved");
+        when(unmoved.isNodeType(FEDORA_OBJECT)).thenReturn(true);
+        children(shard, moved);
+        children(root, shard, unmoved);
+        final Iterator<Node> objects = ObjectTree.objects(root, 1);
+        assertEquals("unmoved", objects.next().getName());
+        assertEquals("moved", objects.next().getName());
+        assertFalse(objects.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStartAtWrongDepth() throws RepositoryException {
+        ObjectTree.shards(root, 2, "aa");
+    }
+
+    private static Node node(final String path, final String name)
+        throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(path);
+        when(node.getName()).thenReturn(name);
+        return node;
+    }
+
+    private static void children(final Node parent, final Node... children)
+        throws RepositoryException {
+        final List<Node> list = new ArrayList<Node>();
+        for (final Node child : children) {
+            list.add(child);
+        }
+        when(parent.getNodes()).thenAnswer(new Answer<NodeIterator>() {
+
+            @Override
+            public NodeIterator answer(final InvocationOnMock invocation) {
+                return getNodeIterator(list);
+            }
+        });
+    }
+}
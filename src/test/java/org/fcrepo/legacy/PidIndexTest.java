@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static javax.jcr.observation.Event.NODE_ADDED;
+import static org.fcrepo.legacy.LegacyPathHelpers.OBJECT_PATH;
+import static org.fcrepo.legacy.LegacyPathHelpers.getObjectPath;
+import static org.fcrepo.legacy.TestHelpers.getNodeIterator;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.eventbus.EventBus;
+
+public class PidIndexTest {
+
+    private PidIndex testObj;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        final Node a = mock(Node.class);
+        when(a.getName()).thenReturn("a");
+        final Node b = mock(Node.class);
+        when(b.getName()).thenReturn("b");
+        final Node objects = mock(Node.class);
+        when(objects.getNodes()).thenReturn(
+                getNodeIterator(Arrays.asList(a, b)),
+                getNodeIterator(Arrays.asList(a, b)));
+        final Session mockSession = mock(Session.class);
+        when(mockSession.nodeExists(OBJECT_PATH)).thenReturn(true);
+        when(mockSession.getNode(OBJECT_PATH)).thenReturn(objects);
+        final SessionFactory mockSessions = mock(SessionFactory.class);
+        when(mockSessions.getSession()).thenReturn(mockSession);
+
+        testObj = new PidIndex();
+        testObj.setSessionFactory(mockSessions);
+        testObj.setEventBus(new EventBus());
+        testObj.setExpectedPids(1);
+    }
+
+    @After
+    public void tearDown() {
+        testObj.destroy();
+    }
+
+    @Test
+    public void testUnbuiltIndexKnowsNothing() {
+        testObj.setEventBus(null);
+        testObj.init();
+        assertTrue(testObj.mightContain("anything"));
+    }
+
+    @Test
+    public void testRebuild() throws RepositoryException {
+        testObj.rebuild();
+        assertTrue(testObj.mightContain("a"));
+        assertTrue(testObj.mightContain("b"));
+        assertFalse(testObj.mightContain("not-there"));
+    }
+
+    @Test
+    public void testAddGrowsIndex() throws RepositoryException {
+        testObj.rebuild();
+        for (int i = 0; i < 100; i++) {
+            testObj.add("new" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(testObj.mightContain("new" + i));
+        }
+    }
+
+    @Test
+    public void testAddFromEvent() throws RepositoryException {
+        testObj.rebuild();
+        final Event mockEvent = mock(Event.class);
+        when(mockEvent.getType()).thenReturn(NODE_ADDED);
+        when(mockEvent.getPath()).thenReturn(OBJECT_PATH + "/c");
+        testObj.onEvent(mockEvent);
+        assertTrue(testObj.mightContain("c"));
+    }
+
+    @Test
+    public void testExistsConfirmsMisses() throws RepositoryException {
+        testObj.rebuild();
+        final Session mockSession = mock(Session.class);
+        when(mockSession.nodeExists(getObjectPath("elsewhere"))).thenReturn(
+                true);
+        assertTrue(testObj.exists(mockSession, "elsewhere"));
+        assertTrue(testObj.mightContain("elsewhere"));
+        assertFalse(testObj.exists(mockSession, "not-there"));
+    }
+}
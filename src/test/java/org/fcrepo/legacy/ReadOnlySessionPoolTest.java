@@ -0,0 +1,123 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.SecurityContext;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadOnlySessionPoolTest {
+
+    private ReadOnlySessionPool testObj;
+
+    private SessionFactory mockSessions;
+
+    private SecurityContext mockSecurityContext;
+
+    private HttpServletRequest mockRequest;
+
+    private Session mockSession;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        mockSessions = mock(SessionFactory.class);
+        mockSecurityContext = mock(SecurityContext.class);
+        mockRequest = mock(HttpServletRequest.class);
+        mockSession = mock(Session.class);
+        when(mockSession.isLive()).thenReturn(true);
+        when(
+                mockSessions.getSession(any(SecurityContext.class),
+                        any(HttpServletRequest.class))).thenReturn(
+                mockSession, mock(Session.class));
+        testObj = new ReadOnlySessionPool();
+        testObj.setSessionFactory(mockSessions);
+        testObj.setMaximumSize(1);
+        testObj.setMaximumWaitMillis(1);
+        testObj.init();
+    }
+
+    @Test
+    public void testCheckoutReusesSession() throws RepositoryException {
+        final Session first = checkout();
+        first.getUserID();
+        first.logout();
+        assertFalse(first.isLive());
+
+        final Session second = checkout();
+        second.getUserID();
+        second.logout();
+
+        verify(mockSessions).getSession(mockSecurityContext, mockRequest);
+        verify(mockSession, times(2)).getUserID();
+        verify(mockSession).refresh(false);
+        verify(mockSession, never()).logout();
+    }
+
+    @Test
+    public void testCheckoutWhenExhausted() throws RepositoryException {
+        final Session first = checkout();
+        final Session second = checkout();
+        verify(mockSessions, times(2)).getSession(mockSecurityContext,
+                mockRequest);
+        second.logout();
+        first.logout();
+        verify(mockSession, never()).logout();
+    }
+
+    @Test
+    public void testSaveIsRefused() throws RepositoryException {
+        final Session session = checkout();
+        try {
+            session.save();
+            fail("Expected an AccessDeniedException");
+        } catch (final AccessDeniedException e) {
+            verify(mockSession, never()).save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testDeadSessionIsReplaced() throws RepositoryException {
+        checkout().logout();
+        when(mockSession.isLive()).thenReturn(false);
+        final Session session = checkout();
+        verify(mockSessions, times(2)).getSession(mockSecurityContext,
+                mockRequest);
+        session.logout();
+        assertFalse(session.isLive());
+    }
+
+    private Session checkout() throws RepositoryException {
+        return testObj.checkout(mockSecurityContext, mockRequest);
+    }
+}
@@ -23,9 +23,10 @@ import static org.mockito.Mockito.when;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.net.URI;
-import java.text.ParseException;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
 import javax.jcr.NamespaceRegistry;
 import javax.jcr.Node;
@@ -47,9 +48,6 @@ import org.modeshape.jcr.api.Repository;
 import org.modeshape.jcr.api.nodetype.NodeTypeManager;
 
 import com.sun.jersey.api.uri.UriBuilderImpl;
-import com.sun.jersey.core.header.FormDataContentDisposition;
-import com.sun.jersey.multipart.MultiPart;
-import com.sun.jersey.multipart.file.StreamDataBodyPart;
 
 public abstract class TestHelpers {
 
@@ -57,6 +55,8 @@ public abstract class TestHelpers {
 
     static String MOCK_URI_STRING = "mock.namespace.org";
 
+    static String MULTIPART_BOUNDARY = "mockBoundary";
+
     public static UriInfo getUriInfoImpl() {
         // UriInfo ui = mock(UriInfo.class,withSettings().verboseLogging());
         final UriInfo ui = mock(UriInfo.class);
@@ -74,25 +74,23 @@ public abstract class TestHelpers {
         return ui;
     }
 
-    public static MultiPart getStringsAsMultipart(
+    /**
+     * @return a multipart/form-data body with one text part per entry,
+     *         delimited by {@link #MULTIPART_BOUNDARY}
+     */
+    public static InputStream getStringsAsMultipart(
             final Map<String, String> contents) {
-        final MultiPart multipart = new MultiPart();
+        final StringBuilder body = new StringBuilder();
         for (final Entry<String, String> e : contents.entrySet()) {
             final String id = e.getKey();
-            final String content = e.getValue();
-            final InputStream src = IOUtils.toInputStream(content);
-            final StreamDataBodyPart part = new StreamDataBodyPart(id, src);
-            try {
-                final FormDataContentDisposition cd =
-                        new FormDataContentDisposition("form-data;name=" + id +
-                                ";filename=" + id + ".txt");
-                part.contentDisposition(cd);
-            } catch (final ParseException ex) {
-                ex.printStackTrace();
-            }
-            multipart.bodyPart(part);
+            body.append("--").append(MULTIPART_BOUNDARY).append("\r\n");
+            body.append("Content-Disposition: form-data; name=\"").append(id)
+                    .append("\"; filename=\"").append(id).append(".txt\"\r\n");
+            body.append("Content-Type: text/plain\r\n\r\n");
+            body.append(e.getValue()).append("\r\n");
         }
-        return multipart;
+        body.append("--").append(MULTIPART_BOUNDARY).append("--\r\n");
+        return IOUtils.toInputStream(body.toString());
     }
 
     @SuppressWarnings("unchecked")
@@ -180,6 +178,61 @@ public abstract class TestHelpers {
         return mockRepo;
     }
 
+    /**
+     * A NodeIterator over a fixed list of nodes, with working skip() and
+     * position tracking
+     * @param nodes
+     * @return
+     */
+    public static NodeIterator getNodeIterator(final List<Node> nodes) {
+        return new NodeIterator() {
+
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < nodes.size();
+            }
+
+            @Override
+            public Object next() {
+                return nextNode();
+            }
+
+            @Override
+            public Node nextNode() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return nodes.get(position++);
+            }
+
+            @Override
+            public void skip(final long skipNum) {
+                if (position + skipNum > nodes.size()) {
+                    position = nodes.size();
+                    throw new NoSuchElementException();
+                }
+                position += skipNum;
+            }
+
+            @Override
+            public long getSize() {
+                return nodes.size();
+            }
+
+            @Override
+            public long getPosition() {
+                return position;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     /**
      * Set a field via reflection
      * @param parent the owner object of the field
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static com.google.common.io.BaseEncoding.base16;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+
+import org.apache.tika.io.IOUtils;
+import org.junit.Test;
+
+public class TreeHashTest {
+
+    @Test
+    public void testFinish() throws Exception {
+        final TreeHash testObj = new TreeHash(stream("abcdefghij"), 4);
+        assertEquals("abcdefghij", IOUtils.toString(testObj));
+        final byte[] parent = node(leaf("abcd"), leaf("efgh"));
+        assertEquals(uri(node(parent, leaf("ij"))), testObj.finish());
+    }
+
+    @Test
+    public void testFinishDigestsUnreadContent() throws Exception {
+        final TreeHash testObj = new TreeHash(stream("abcdefgh"), 4);
+        testObj.read(new byte[3]);
+        assertEquals(uri(node(leaf("abcd"), leaf("efgh"))), testObj
+                .finish());
+    }
+
+    @Test
+    public void testInteriorNodeIsNotALeaf() throws Exception {
+        // content made of the two chunk hashes must not share their root
+        final byte[] left = leaf("abcd");
+        final byte[] right = leaf("efgh");
+        final byte[] joined = new byte[left.length + right.length];
+        System.arraycopy(left, 0, joined, 0, left.length);
+        System.arraycopy(right, 0, joined, left.length, right.length);
+        final TreeHash forged =
+                new TreeHash(new ByteArrayInputStream(joined), joined.length);
+        assertFalse(new TreeHash(stream("abcdefgh"), 4).finish().equals(
+                forged.finish()));
+    }
+
+    @Test
+    public void testHashedChunksAreReleased() throws Exception {
+        final TreeHash testObj =
+                new TreeHash(stream("abcdefghijklmnopqrstuvwxyz"), 4);
+        IOUtils.toString(testObj);
+        testObj.finish();
+        assertEquals(0, testObj.chunksHeld());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(uri(sha256("")), new TreeHash(stream(""), 4).finish());
+    }
+
+    private static InputStream stream(final String content) throws Exception {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    private static byte[] sha256(final String content) throws Exception {
+        return sha256(content.getBytes("UTF-8"));
+    }
+
+    private static byte[] leaf(final String content) throws Exception {
+        return sha256(new byte[] {0}, content.getBytes("UTF-8"));
+    }
+
+    private static byte[] node(final byte[] left, final byte[] right)
+        throws Exception {
+        return sha256(new byte[] {1}, left, right);
+    }
+
+    private static byte[] sha256(final byte[]... parts) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (final byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+
+    private static URI uri(final byte[] hash) {
+        return URI.create("urn:sha256-tree:" +
+                base16().lowerCase().encode(hash));
+    }
+}
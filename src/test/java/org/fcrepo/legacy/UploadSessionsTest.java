@@ -0,0 +1,138 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+
+import org.apache.tika.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class UploadSessionsTest {
+
+    private File directory;
+
+    private UploadSessions testObj;
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+        testObj = new UploadSessions(60);
+        testObj.setDirectory(directory);
+    }
+
+    @After
+    public void tearDown() {
+        testObj.shutdown();
+        directory.delete();
+    }
+
+    @Test
+    public void testChunksInAnyOrder() throws Exception {
+        final UploadSessions.Upload upload =
+                testObj.create("demo:1", "DS1", "text/plain", 10L, "user");
+        assertNull(upload.getReceived());
+        upload.write(6, IOUtils.toInputStream("ghij"), false);
+        upload.write(0, IOUtils.toInputStream("abc"), false);
+        assertEquals("bytes=0-2,6-9", upload.getReceived());
+        assertFalse(upload.isComplete());
+        // overlapping and repeated chunks are harmless
+        upload.write(2, IOUtils.toInputStream("cdef"), false);
+        upload.write(0, IOUtils.toInputStream("abc"), false);
+        assertEquals("bytes=0-9", upload.getReceived());
+        assertTrue(upload.isComplete());
+        final InputStream content = upload.open();
+        try {
+            assertEquals("abcdefghij", IOUtils.toString(content));
+        } finally {
+            content.close();
+        }
+    }
+
+    @Test
+    public void testChunkPastSize() throws Exception {
+        final UploadSessions.Upload upload =
+                testObj.create("demo:1", "DS1", "text/plain", 2L, "user");
+        try {
+            upload.write(0, IOUtils.toInputStream("abc"), false);
+            fail("Expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertNull(upload.getReceived());
+        }
+    }
+
+    @Test
+    public void testCompleteWithoutSize() throws Exception {
+        final UploadSessions.Upload upload =
+                testObj.create("demo:1", "DS1", "text/plain", null, "user");
+        assertFalse(upload.isComplete());
+        upload.write(0, IOUtils.toInputStream("abc"), false);
+        // the content might go on
+        assertFalse(upload.isComplete());
+        upload.write(3, IOUtils.toInputStream("de"), true);
+        assertTrue(upload.isComplete());
+        upload.write(2, IOUtils.toInputStream("cde"), false);
+        assertTrue(upload.isComplete());
+    }
+
+    @Test
+    public void testFinalChunkMustEndAtSize() throws Exception {
+        final UploadSessions.Upload upload =
+                testObj.create("demo:1", "DS1", "text/plain", 5L, "user");
+        try {
+            upload.write(0, IOUtils.toInputStream("abc"), true);
+            fail("Expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertFalse(upload.isComplete());
+        }
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final UploadSessions.Upload upload =
+                testObj.create("demo:1", "DS1", "text/plain", null, "user");
+        assertEquals(upload, testObj.get(upload.getId()));
+        testObj.remove(upload);
+        assertNull(testObj.get(upload.getId()));
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        final UploadSessions expiring = new UploadSessions(0);
+        expiring.setDirectory(directory);
+        try {
+            final UploadSessions.Upload upload =
+                    expiring.create("demo:1", "DS1", "text/plain", null,
+                            "user");
+            assertNull(expiring.get(upload.getId()));
+            assertEquals(0, directory.list().length);
+        } finally {
+            expiring.shutdown();
+        }
+    }
+}